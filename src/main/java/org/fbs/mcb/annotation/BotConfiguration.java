@@ -1,5 +1,8 @@
 package org.fbs.mcb.annotation;
 
+import org.fbs.mcb.data.OverflowPolicy;
+import org.fbs.mcb.data.RejectionPolicy;
+
 import java.lang.annotation.*;
 
 /**
@@ -17,9 +20,38 @@ public @interface BotConfiguration {
 
     /**
      * Indicates whether the command should be executed in a separate thread.
+     * <p>
+     * Handlers are executed by a bounded pool of {@link #handlerThreads()} threads, or on virtual threads
+     * if {@link #virtualThreads()} is enabled and supported by the runtime.
+     *
+     * @see org.fbs.mcb.util.HandlerExecutor
      */
     boolean threadSeparation() default false;
 
+    /**
+     * Specifies the number of threads executing handlers under thread separation.
+     * With virtual threads, the maximum number of handlers running at the same time.
+     * A non-positive value uses one thread per available processor.
+     */
+    int handlerThreads() default 0;
+
+    /**
+     * Specifies the maximum number of handler calls waiting for a free thread under thread separation.
+     */
+    int handlerQueueCapacity() default 1024;
+
+    /**
+     * Specifies what happens to a handler call when all handler threads are busy and the queue is full.
+     */
+    RejectionPolicy handlerRejectionPolicy() default RejectionPolicy.CALLER_RUNS;
+
+    /**
+     * Specifies whether handlers should run on virtual threads under thread separation,
+     * and whether the tasks of the users of a multi-user bot run on virtual threads instead of the shared task pool.
+     * Ignored on runtimes without virtual thread support, where the thread pools are used.
+     */
+    boolean virtualThreads() default false;
+
     /**
      * Specifies the start command for the bot.
      */
@@ -58,4 +90,225 @@ public @interface BotConfiguration {
      * reducing the overall size and complexity of the deployment process.
      */
     boolean staticBuild() default false;
-}
\ No newline at end of file
+
+    /**
+     * Specifies the number of shards used to process updates of different chats in parallel.
+     * <p>
+     * Updates are assigned to shards by their chat id (or by the user id for inline and callback queries),
+     * so the updates of one chat are still processed strictly in order. A negative value uses one shard
+     * per available processor. By default, sharding is disabled and updates are processed on the polling thread.
+     * <p>
+     * Updates are confirmed to Telegram once they are queued to their shard, so updates which were not processed
+     * when the process dies are lost. {@link org.fbs.mcb.data.entity.Bot#stop()} processes the queued updates.
+     *
+     * @see org.fbs.mcb.util.ShardedUpdateManager
+     */
+    int dispatchShards() default 0;
+
+    /**
+     * Specifies the maximum number of updates waiting in the queue of every dispatch shard.
+     * When the queue of a shard is full, polling is blocked until space becomes available.
+     */
+    int shardQueueDepth() default 1024;
+
+    /**
+     * Specifies the capacity of the queue between the poller and the update handlers.
+     * <p>
+     * Received updates are confirmed once they are queued and are processed by a separate thread.
+     * When the queue is full, {@link #overflowPolicy()} decides whether polling stops or updates are dropped.
+     * By default, there is no queue and updates are processed on the polling thread.
+     *
+     * @see org.fbs.mcb.util.UpdateQueue
+     */
+    int updateQueueCapacity() default 0;
+
+    /**
+     * Specifies what happens to a new update when the update queue is full.
+     */
+    OverflowPolicy overflowPolicy() default OverflowPolicy.BLOCK;
+
+    /**
+     * Specifies the update types (for example, {@code "edited_message"} or {@code "poll"})
+     * which may be dropped under {@link OverflowPolicy#DROP_BY_TYPE}.
+     */
+    String[] droppableUpdates() default {};
+
+    /**
+     * Specifies the time in milliseconds after the last update of a user after which a multi-user bot removes the user.
+     * By default, idle users are kept.
+     *
+     * @see org.fbs.mcb.data.entity.MultiClientBot
+     */
+    long userIdleTimeout() default 0;
+
+    /**
+     * Specifies the maximum number of users kept by a multi-user bot. When it is exceeded, the least recently active
+     * of a random sample of idle users is removed. By default, the number of users is not limited.
+     *
+     * @see org.fbs.mcb.data.entity.MultiClientBot
+     */
+    int maxUsers() default 0;
+
+    /**
+     * Specifies the file in which a multi-user bot persists the sessions of its users, so they survive restarts.
+     * By default, sessions are not persisted.
+     *
+     * @see org.fbs.mcb.data.user.SessionSnapshot
+     */
+    String snapshotFile() default "";
+
+    /**
+     * Specifies the time in milliseconds between two snapshots of the sessions written to the {@link #snapshotFile()}.
+     */
+    long snapshotInterval() default 60000;
+
+    /**
+     * Specifies the number of updates per second a user may send. Updates exceeding the rate are dropped before
+     * they are dispatched. By default, the rate of users is not limited.
+     *
+     * @see org.fbs.mcb.util.FloodControl
+     */
+    double userRateLimit() default 0;
+
+    /**
+     * Specifies the number of updates a user may send at once after being idle, when {@link #userRateLimit()} is set.
+     */
+    int userBurst() default 10;
+
+    /**
+     * Specifies the number of updates per second accepted from a chat. Updates exceeding the rate are dropped before
+     * they are dispatched. By default, the rate of chats is not limited.
+     *
+     * @see org.fbs.mcb.util.FloodControl
+     */
+    double chatRateLimit() default 0;
+
+    /**
+     * Specifies the number of updates accepted at once from a chat after it was idle, when {@link #chatRateLimit()} is set.
+     */
+    int chatBurst() default 30;
+
+    /**
+     * Specifies the number of update_ids up to the highest received one among which updates delivered more than once
+     * are suppressed before they are dispatched, along with older updates. By default, updates are not deduplicated.
+     *
+     * @see org.fbs.mcb.util.DuplicateFilter
+     */
+    int duplicateWindow() default 0;
+
+    /**
+     * Specifies the maximum number of requests per second sent through the send scheduler of the bot.
+     *
+     * @see org.fbs.mcb.util.SendScheduler
+     */
+    double globalSendRate() default 30;
+
+    /**
+     * Specifies the minimum time in milliseconds between two requests the send scheduler sends to the same private chat.
+     */
+    long chatSendInterval() default 1000;
+
+    /**
+     * Specifies the minimum time in milliseconds between two requests the send scheduler sends to the same group or channel.
+     */
+    long groupSendInterval() default 3000;
+
+    /**
+     * Specifies the maximum number of requests the send scheduler sends at the same time.
+     */
+    int maxSendsInFlight() default 8;
+
+    /**
+     * Specifies the maximum number of requests to the Bot API in flight at the same time. Further requests wait in
+     * the queue of the HTTP client without blocking the thread which sent them.
+     *
+     * @see org.fbs.mcb.data.entity.Bot#executeAsync(com.pengrad.telegrambot.request.BaseRequest)
+     */
+    int maxRequestsInFlight() default 16;
+
+    /**
+     * Specifies the public HTTPS URL Telegram posts updates to. When set, the bot registers the webhook and receives
+     * updates through an embedded HTTP server listening on {@link #webhookPort()} at the path of the URL, instead of
+     * long polling. By default, the bot uses long polling.
+     *
+     * @see org.fbs.mcb.util.WebhookServer
+     */
+    String webhookUrl() default "";
+
+    /**
+     * Specifies the local port of the webhook server, behind the proxy which terminates TLS for the {@link #webhookUrl()}.
+     */
+    int webhookPort() default 8443;
+
+    /**
+     * Specifies the secret token Telegram sends with every update to the webhook. By default, a random token is
+     * generated whenever the bot starts.
+     */
+    String webhookSecretToken() default "";
+
+    /**
+     * Specifies the maximum number of connections Telegram opens to the webhook at the same time, between 1 and 100,
+     * which is also the number of threads of the webhook server.
+     */
+    int webhookMaxConnections() default 40;
+
+    /**
+     * Specifies the update types the bot receives, for example {@code "message"} or {@code "edited_message"}.
+     * By default, the types are derived from the registered handlers and the overridden parse functions, so Telegram
+     * does not send updates no handler would process.
+     *
+     * @see org.fbs.mcb.data.entity.Bot#getAllowedUpdates()
+     */
+    String[] allowedUpdates() default {};
+
+    /**
+     * Specifies the maximum number of updates fetched by one getUpdates request, between 1 and 100.
+     */
+    int pollingLimit() default 100;
+
+    /**
+     * Specifies the time in seconds a getUpdates request waits for updates when there are none.
+     * It must be shorter than the read timeout of the HTTP client, which is 75 seconds.
+     */
+    int pollingTimeout() default 50;
+
+    /**
+     * Specifies how many times a polled update whose processing throws is fetched and processed again. After the
+     * last attempt, the update is passed to the dead letter hook of the bot and confirmed, so a single failing update
+     * does not stop the bot from receiving the following ones.
+     */
+    int maxUpdateAttempts() default 3;
+
+    /**
+     * Specifies the directory of an {@link org.fbs.mcb.util.UpdateLog} to which the JSON of every received update
+     * is appended before it is dispatched, so the update stream can be replayed. Updates are not recorded by default.
+     */
+    String updateLogDirectory() default "";
+
+    /**
+     * Specifies the file in which the update_id of the last processed update is persisted. When set, a restarted bot
+     * resumes long polling after the update_id in the file. By default, the offset is not persisted.
+     * <p>
+     * With an {@link #updateQueueCapacity() update queue}, updates are confirmed to Telegram once they are queued.
+     * The queued updates which were not processed before a restart are queued again from the
+     * {@link #updateLogDirectory() update log}, so the offset can only be persisted together with an update queue
+     * if the update log is enabled. It cannot be persisted together with {@link #threadSeparation()} or
+     * {@link #dispatchShards()}, whose handlers complete after the update is confirmed.
+     *
+     * @see org.fbs.mcb.util.OffsetCheckpoint
+     */
+    String offsetFile() default "";
+
+    /**
+     * Specifies the time in milliseconds between two writes of the {@link #offsetFile()} to the storage device,
+     * {@code 0} to write it after every update.
+     */
+    long offsetSyncInterval() default 1000;
+
+    /**
+     * Specifies the age in seconds above which received updates are confirmed without being dispatched, so a backlog
+     * which piled up while the bot was down does not flood the handlers. Only updates which carry the time they
+     * happened are skipped. By default, no updates are skipped.
+     */
+    long skipUpdatesOlderThan() default 0;
+}
@@ -10,6 +10,9 @@ import java.lang.annotation.*;
  * This annotation is used to map user-specific behavior during the mapping process.
  * It provides configuration options for the strategies to be used when a new user is added,
  * when the mapping process ends, and when a timeout occurs.
+ * <p>
+ * On a {@link org.fbs.mcb.data.user.BotRunnable} class, the annotation defines how the task is added to the
+ * {@link org.fbs.mcb.data.user.TaskDeque} of a user and how long it may run.
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.METHOD, ElementType.TYPE})
@@ -37,6 +40,8 @@ public @interface UserMapping {
     /**
      * This method returns the timeout value specified in the {@link UserMapping} annotation.
      * If no value is explicitly set, the default value of 0 is returned.
+     * <p>
+     * The timeout is the maximum time in milliseconds a task may run, 0 means no timeout.
      */
     int timeout() default 0;
     
@@ -1,11 +1,14 @@
 package org.fbs.mcb.data;
 
+import org.fbs.mcb.util.HandlerExecutor;
 import org.fbs.mcb.util.MethodInvoker;
 import org.jetbrains.annotations.NotNull;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 
 /**
  * Represents a method that can be invoked by a bot.
@@ -13,7 +16,8 @@ import java.lang.reflect.Method;
 public class BotMethod {
 
     private final Method method;
-    private final boolean inNewThread;
+    private final MethodHandle handle;
+    private final HandlerExecutor executor;
     private final ClassReorder reorder;
 
     private final MethodType type;
@@ -23,19 +27,37 @@ public class BotMethod {
      * Represents a method that can be invoked by a bot.
      *
      * @param method The method to be associated with this BotMethod instance.
-     * @param inNewThread Indicates whether the method should be invoked in a new thread.
+     * @param executor The executor on which the method is invoked, or {@code null} to invoke it on the calling thread.
      * @param type The type of method (e.g., UPDATE, MESSAGE).
      * @param key A unique identifier for the bot method.
      * @param reorder An instance of ClassReorder to handle class reordering.
      */
-    public BotMethod(Method method, boolean inNewThread, MethodType type, String key, ClassReorder reorder) {
+    public BotMethod(Method method, HandlerExecutor executor, MethodType type, String key, ClassReorder reorder) {
         this.method = method;
-        this.inNewThread = inNewThread;
+        this.handle = MethodInvoker.unreflect(method, reorder.getPermutation());
+        this.executor = executor;
         this.type = type;
         this.key = key;
         this.reorder = reorder;
     }
 
+    /**
+     * Represents a method that can be invoked by a bot.
+     *
+     * @param method The method to be associated with this BotMethod instance.
+     * @param inNewThread Indicates whether the method should be invoked on the default handler executor.
+     * @param type The type of method (e.g., UPDATE, MESSAGE).
+     * @param key A unique identifier for the bot method.
+     * @param reorder An instance of ClassReorder to handle class reordering.
+     * @deprecated Handlers no longer get a thread of their own, pass the executor of the bot to
+     * {@link #BotMethod(Method, HandlerExecutor, MethodType, String, ClassReorder)} instead.
+     * @see HandlerExecutor#getDefault()
+     */
+    @Deprecated
+    public BotMethod(Method method, boolean inNewThread, MethodType type, String key, ClassReorder reorder) {
+        this(method, inNewThread ? HandlerExecutor.getDefault() : null, type, key, reorder);
+    }
+
     /**
      * Invokes the method associated with this BotMethod instance.
      *
@@ -45,28 +67,48 @@ public class BotMethod {
      * @throws IllegalAccessException   If the method invocation is not allowed.
      */
     public void invoke(Object configObject, @NotNull Object ... args) throws InvocationTargetException, IllegalAccessException {
-        if (inNewThread) {
-            new Thread(() -> {
-                try {
-                    MethodInvoker.invokeMethod(
-                            method,
-                            MethodInvoker.isStatic(method),
-                            configObject,
-                            reorder.getMapped(args));
-                } catch (InvocationTargetException | IllegalAccessException e) {
-                    throw new RuntimeException(e);
-                }
-            });
+        if (args.length != reorder.getInputLength()) {
+            throw new IllegalArgumentException("Input array must have the same length as the output array.");
+        }
+        Object[] padded = Arrays.copyOf(args, MethodInvoker.MAX_ARGUMENTS);
+        invoke(configObject, padded[0], padded[1], padded[2], padded[3]);
+    }
+
+    /**
+     * Invokes the method associated with this BotMethod instance without allocating an argument array.
+     * The arguments are given in the order of the parameter set of the method type, unused trailing arguments are {@code null}.
+     * If the method has an executor, it is only submitted to the executor and exceptions are reported by the executor.
+     *
+     * @param configObject The object on which the method will be invoked.
+     * @param arg0 The first argument of the parameter set.
+     * @param arg1 The second argument of the parameter set.
+     * @param arg2 The third argument of the parameter set.
+     * @param arg3 The fourth argument of the parameter set.
+     * @throws InvocationTargetException If the method invocation throws an exception.
+     */
+    public void invoke(Object configObject, Object arg0, Object arg1, Object arg2, Object arg3) throws InvocationTargetException {
+        if (executor != null) {
+            executor.execute(() -> invokeHandle(configObject, arg0, arg1, arg2, arg3));
         }
         else {
-            MethodInvoker.invokeMethod(
-                    method,
-                    MethodInvoker.isStatic(method),
-                    configObject,
-                    reorder.getMapped(args));
+            invokeHandle(configObject, arg0, arg1, arg2, arg3);
         }
     }
-    
+
+    /**
+     * Calls the method handle created when this BotMethod was registered.
+     *
+     * @param configObject The object on which the method will be invoked, ignored for static methods.
+     * @throws InvocationTargetException If the method invocation throws an exception.
+     */
+    private void invokeHandle(Object configObject, Object arg0, Object arg1, Object arg2, Object arg3) throws InvocationTargetException {
+        try {
+            handle.invokeExact(configObject, arg0, arg1, arg2, arg3);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
     /**
      * Retrieves the annotation of the specified type associated with the method.
      *
@@ -1,12 +1,13 @@
 package org.fbs.mcb.data;
 
-import org.fbs.mcb.annotation.Command;
+import com.pengrad.telegrambot.model.*;
+import org.fbs.mcb.data.entity.AbstractBot;
 import org.fbs.mcb.util.ConfigurationProcessor;
+import org.fbs.mcb.util.MethodInvoker;
 import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * This class manages a set of bot methods that can be called based on different types of events.
@@ -14,13 +15,14 @@ import java.util.List;
  */
 public class BotMethodSet {
 
-    private final List<BotMethod> updateMethodList = new ArrayList<>();
-    private final List<BotMethod> messageMethodList = new ArrayList<>();
-    private final List<BotMethod> entitiesMethodList = new ArrayList<>();
-    private final List<BotMethod> startMethodList = new ArrayList<>();
-    private final List<BotMethod> callbackQueryMethodList = new ArrayList<>();
-    private final List<BotMethod> inlineQueryMethodList = new ArrayList<>();
-    private final List<BotMethod> commandMethodList = new ArrayList<>();
+    private BotMethod[] updateMethods = new BotMethod[0];
+    private BotMethod[] messageMethods = new BotMethod[0];
+    private BotMethod[] entitiesMethods = new BotMethod[0];
+    private BotMethod[] startMethods = new BotMethod[0];
+    private BotMethod[] callbackQueryMethods = new BotMethod[0];
+    private BotMethod[] inlineQueryMethods = new BotMethod[0];
+    private final CommandRouter commandRouter = new CommandRouter();
+    private int registeredTypes;
 
     private final ConfigurationProcessor processor;
 
@@ -39,31 +41,41 @@ public class BotMethodSet {
      * @param method the BotMethod to be added
      */
     public void addMethod(@NotNull BotMethod method){
+        registeredTypes |= method.getType().mask();
         switch (method.getType()){
             case UPDATE:
-                updateMethodList.add(method);
+                updateMethods = append(updateMethods, method);
                 break;
             case MESSAGE:
-                messageMethodList.add(method);
+                messageMethods = append(messageMethods, method);
                 break;
             case ENTITIES:
-                entitiesMethodList.add(method);
+                entitiesMethods = append(entitiesMethods, method);
                 break;
             case START:
-                startMethodList.add(method);
+                startMethods = append(startMethods, method);
                 break;
             case CALLBACK_QUERY:
-                callbackQueryMethodList.add(method);
+                callbackQueryMethods = append(callbackQueryMethods, method);
                 break;
             case INLINE_QUERY:
-                inlineQueryMethodList.add(method);
+                inlineQueryMethods = append(inlineQueryMethods, method);
                 break;
             case COMMAND:
-                commandMethodList.add(method);
+                commandRouter.add(method);
                 break;
         }
     }
 
+    /**
+     * Returns the method types for which at least one bot method is registered.
+     *
+     * @return the bitmask of the registered method types, see {@link MethodType#mask()}
+     */
+    public int getRegisteredTypes(){
+        return registeredTypes;
+    }
+
     /**
      * Calls all bot methods registered for the UPDATE event type with the given arguments.
      *
@@ -72,7 +84,7 @@ public class BotMethodSet {
      * @throws RuntimeException if an error occurs while invoking a bot method
      */
     public void callUpdate(Object ... args){
-        for (BotMethod method : updateMethodList) {
+        for (BotMethod method : updateMethods) {
             try {
                 method.invoke(processor.getConfigurationObject(), args);
             } catch (InvocationTargetException | IllegalAccessException e) {
@@ -81,6 +93,21 @@ public class BotMethodSet {
         }
     }
 
+    /**
+     * Calls all bot methods registered for the UPDATE event type without allocating an argument array.
+     *
+     * @param update the update being processed
+     * @param bot the bot which received the update
+     *
+     * @throws RuntimeException if an error occurs while invoking a bot method. The exception will contain the
+     *                          original cause of the error.
+     */
+    public void callUpdate(Update update, AbstractBot<?> bot){
+        for (int i = 0; i < updateMethods.length; i++) {
+            invoke(updateMethods[i], update, bot, null, null);
+        }
+    }
+
     /**
      * Calls all bot methods registered for the MESSAGE event type with the given arguments.
      *
@@ -91,7 +118,7 @@ public class BotMethodSet {
      *                          original cause of the error.
      */
     public void callMessage(Object ... args){
-        for (BotMethod method : messageMethodList) {
+        for (BotMethod method : messageMethods) {
             try {
                 method.invoke(processor.getConfigurationObject(), args);
             } catch (InvocationTargetException | IllegalAccessException e) {
@@ -100,6 +127,22 @@ public class BotMethodSet {
         }
     }
 
+    /**
+     * Calls all bot methods registered for the MESSAGE event type without allocating an argument array.
+     *
+     * @param update the update being processed
+     * @param message the message of the update
+     * @param bot the bot which received the update
+     *
+     * @throws RuntimeException if an error occurs while invoking a bot method. The exception will contain the
+     *                          original cause of the error.
+     */
+    public void callMessage(Update update, Message message, AbstractBot<?> bot){
+        for (int i = 0; i < messageMethods.length; i++) {
+            invoke(messageMethods[i], update, message, bot, null);
+        }
+    }
+
     /**
      * Calls all bot methods registered for the ENTITIES event type with the given arguments.
      *
@@ -110,7 +153,7 @@ public class BotMethodSet {
      *                          original cause of the error.
      */
     public void callEntities(Object ... args){
-        for (BotMethod method : entitiesMethodList) {
+        for (BotMethod method : entitiesMethods) {
             try {
                 method.invoke(processor.getConfigurationObject(), args);
             } catch (InvocationTargetException | IllegalAccessException e) {
@@ -119,6 +162,23 @@ public class BotMethodSet {
         }
     }
 
+    /**
+     * Calls all bot methods registered for the ENTITIES event type without allocating an argument array.
+     *
+     * @param message the message of the update
+     * @param entities the entities of the message
+     * @param update the update being processed
+     * @param bot the bot which received the update
+     *
+     * @throws RuntimeException if an error occurs while invoking a bot method. The exception will contain the
+     *                          original cause of the error.
+     */
+    public void callEntities(Message message, MessageEntity[] entities, Update update, AbstractBot<?> bot){
+        for (int i = 0; i < entitiesMethods.length; i++) {
+            invoke(entitiesMethods[i], message, entities, update, bot);
+        }
+    }
+
     /**
      * Calls all bot methods registered for the CALLBACK_QUERY event type with the given arguments.
      *
@@ -129,7 +189,7 @@ public class BotMethodSet {
      *                          original cause of the error.
      */
     public void callCallbackQuery(Object ... args){
-        for (BotMethod method : callbackQueryMethodList) {
+        for (BotMethod method : callbackQueryMethods) {
             try {
                 method.invoke(processor.getConfigurationObject(), args);
             } catch (InvocationTargetException | IllegalAccessException e) {
@@ -138,6 +198,22 @@ public class BotMethodSet {
         }
     }
 
+    /**
+     * Calls all bot methods registered for the CALLBACK_QUERY event type without allocating an argument array.
+     *
+     * @param query the callback query of the update
+     * @param update the update being processed
+     * @param bot the bot which received the update
+     *
+     * @throws RuntimeException if an error occurs while invoking a bot method. The exception will contain the
+     *                          original cause of the error.
+     */
+    public void callCallbackQuery(CallbackQuery query, Update update, AbstractBot<?> bot){
+        for (int i = 0; i < callbackQueryMethods.length; i++) {
+            invoke(callbackQueryMethods[i], query, update, bot, null);
+        }
+    }
+
     /**
      * Calls all bot methods registered for the INLINE_QUERY event type with the given arguments.
      *
@@ -148,7 +224,7 @@ public class BotMethodSet {
      *                          original cause of the error.
      */
     public void callInlineQuery(Object ... args){
-        for (BotMethod method : inlineQueryMethodList) {
+        for (BotMethod method : inlineQueryMethods) {
             try {
                 method.invoke(processor.getConfigurationObject(), args);
             } catch (InvocationTargetException | IllegalAccessException e) {
@@ -157,6 +233,22 @@ public class BotMethodSet {
         }
     }
 
+    /**
+     * Calls all bot methods registered for the INLINE_QUERY event type without allocating an argument array.
+     *
+     * @param query the inline query of the update
+     * @param update the update being processed
+     * @param bot the bot which received the update
+     *
+     * @throws RuntimeException if an error occurs while invoking a bot method. The exception will contain the
+     *                          original cause of the error.
+     */
+    public void callInlineQuery(InlineQuery query, Update update, AbstractBot<?> bot){
+        for (int i = 0; i < inlineQueryMethods.length; i++) {
+            invoke(inlineQueryMethods[i], query, update, bot, null);
+        }
+    }
+
     /**
      * Calls all bot methods registered for the START event type with the given arguments.
      *
@@ -167,7 +259,7 @@ public class BotMethodSet {
      *                          original cause of the error.
      */
     public void callStart(Object ... args){
-        for (BotMethod method : startMethodList) {
+        for (BotMethod method : startMethods) {
             try {
                 method.invoke(processor.getConfigurationObject(), args);
             } catch (InvocationTargetException | IllegalAccessException e) {
@@ -177,30 +269,82 @@ public class BotMethodSet {
     }
 
     /**
-     * Calls all bot methods registered for the COMMAND event type with the given arguments.
+     * Calls all bot methods registered for the START event type without allocating an argument array.
      *
-     * @param args the arguments to be passed to the bot methods. These arguments will be passed to each bot method
-     *             in the order they are provided.
+     * @param update the update being processed
+     * @param message the message of the update
+     * @param bot the bot which received the update
      *
      * @throws RuntimeException if an error occurs while invoking a bot method. The exception will contain the
      *                          original cause of the error.
      */
+    public void callStart(Update update, Message message, AbstractBot<?> bot){
+        for (int i = 0; i < startMethods.length; i++) {
+            invoke(startMethods[i], update, message, bot, null);
+        }
+    }
+
+    /**
+     * Calls the bot methods registered for the COMMAND event type whose command matches the message.
+     *
+     * @param message the text of the message
+     * @param args the arguments to be passed to the bot methods, in the order of the command parameter set.
+     *
+     * @throws RuntimeException if an error occurs while invoking a bot method. The exception will contain the
+     *                          original cause of the error.
+     *
+     * @see CommandRouter#route(String, MessageEntity[], Object, Object, Object, Object, Object)
+     */
     public void callCommands(String message, Object ... args){
-        for (BotMethod method : commandMethodList) {
-            try {
-                if (method.getAnnotation(Command.class).additionalString()) {
-                    if (message.startsWith(method.getKey().strip())) {
-                        method.invoke(processor.getConfigurationObject(), args);
-                    }
-                }
-                else {
-                    if (message.strip().equals(method.getKey().strip())) {
-                        method.invoke(processor.getConfigurationObject(), args);
-                    }
-                }
-            } catch (InvocationTargetException | IllegalAccessException e) {
-                throw new RuntimeException(e);
-            }
+        Object[] padded = Arrays.copyOf(args, MethodInvoker.MAX_ARGUMENTS);
+        MessageEntity[] entities = padded[1] instanceof MessageEntity[] ? (MessageEntity[]) padded[1] : null;
+        try {
+            commandRouter.route(message, entities, processor.getConfigurationObject(), padded[0], padded[1], padded[2], padded[3]);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calls the bot methods registered for the COMMAND event type whose command matches the message,
+     * without allocating an argument array.
+     *
+     * @param text the text of the message
+     * @param message the message of the update
+     * @param entities the entities of the message
+     * @param update the update being processed
+     * @param bot the bot which received the update
+     *
+     * @throws RuntimeException if an error occurs while invoking a bot method. The exception will contain the
+     *                          original cause of the error.
+     *
+     * @see CommandRouter#route(String, MessageEntity[], Object, Object, Object, Object, Object)
+     */
+    public void callCommands(String text, Message message, MessageEntity[] entities, Update update, AbstractBot<?> bot){
+        try {
+            commandRouter.route(text, entities, processor.getConfigurationObject(), message, entities, update, bot);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NotNull
+    private static BotMethod[] append(@NotNull BotMethod[] methods, BotMethod method){
+        BotMethod[] result = Arrays.copyOf(methods, methods.length + 1);
+        result[methods.length] = method;
+        return result;
+    }
+
+    /**
+     * Invokes a bot method on the configuration object with the arguments in the order of its parameter set.
+     *
+     * @throws RuntimeException if an error occurs while invoking the bot method
+     */
+    private void invoke(BotMethod method, Object arg0, Object arg1, Object arg2, Object arg3){
+        try {
+            method.invoke(processor.getConfigurationObject(), arg0, arg1, arg2, arg3);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -1,10 +1,8 @@
 package org.fbs.mcb.data;
 
-import org.fbs.mcb.util.ClassUtil;
 import org.fbs.mcb.util.MethodInvoker;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -16,7 +14,10 @@ public class ClassReorder {
     private final Class<?>[] input;
     private final Class<?>[] output;
 
-    private final List<IndexPair> pairList = new ArgsList<>();
+    /**
+     * For every output index, the index of the input argument of the same class, or -1 if there is none.
+     */
+    private final int[] permutation;
 
     /**
      * Constructs a new ClassReorder instance.
@@ -34,93 +35,62 @@ public class ClassReorder {
         }
         this.input = input;
         this.output = output;
-        parsePairs();
+        this.permutation = parsePermutation();
     }
 
     /**
-     * Parses the input and output arrays to create a list of index pairs.
-     * Each pair represents the corresponding indices of the same class type in the input and output arrays.
-     * If a class type is not found in the output array, the output index of the pair is set to -1.
+     * Compiles the input and output arrays into a permutation.
+     * Each element holds the index of the input argument whose class is the class of the output argument at the same index.
+     * If a class type is not found in the input array, the element is set to -1.
+     *
+     * @return The permutation from the input arguments to the output arguments.
      */
-    private void parsePairs(){
-        for (int i = 0; i < input.length; i++){
-            // Check if the current input class is present in the output array
-            if (List.of(output).contains(input[i])){
-                // If present, add a new IndexPair with the input and output indices
-                pairList.add(new IndexPair(i, List.of(output).indexOf(input[i])));
-            }
-            else {
-                // If not present, add a new IndexPair with the input index and -1 as the output index
-                pairList.add(new IndexPair(i, -1));
-            }
+    private int[] parsePermutation(){
+        int[] permutation = new int[output.length];
+        List<Class<?>> inputList = List.of(input);
+        for (int i = 0; i < output.length; i++){
+            permutation[i] = inputList.indexOf(output[i]);
         }
+        return permutation;
     }
 
     /**
      * Maps the input arguments to the output array based on their class types.
      *
-     * @param args The input arguments. Must have the same length as the output array.
+     * @param args The input arguments. Must have the same length as the input array.
      * @return The mapped output array.
-     * @throws IllegalArgumentException If the input array does not have the same length as the output array.
+     * @throws IllegalArgumentException If the arguments do not have the same length as the input array.
      */
     public Object[] getMapped(@NotNull Object ... args){
-        Object[] out = new Object[output.length];
         if (args.length != input.length){
             throw new IllegalArgumentException("Input array must have the same length as the output array.");
         }
-        for (int i = 0; i < input.length; i++){
-            IndexPair pair = pairList.get(i);
-            if (pair.outputIndex() != -1){
-                out[pair.outputIndex()] = args[pair.inputIndex()];
+        Object[] out = new Object[output.length];
+        for (int i = 0; i < out.length; i++){
+            if (permutation[i] != -1){
+                out[i] = args[permutation[i]];
             }
         }
         return out;
     }
 
     /**
-     * This is a custom ArrayList implementation that extends ArrayList<T> and overrides the contains() and indexOf() methods.
-     * The overridden methods provide additional functionality to check for class inheritance relationships when searching for elements.
+     * Returns the permutation from the input arguments to the output arguments.
+     * The element at each output index holds the index of the input argument passed there, or -1 if none.
      *
-     * @param <T> The type of elements in the list.
+     * @return A copy of the permutation array.
      */
-    private static class ArgsList<T> extends ArrayList<T> {
-
-        /**
-         * Checks if this list contains the specified element or any of its subclasses.
-         *
-         * @param o The element to be checked for containment.
-         * @return {@code true} if this list contains the specified element or any of its subclasses; {@code false} otherwise.
-         */
-        @Override
-        public boolean contains(Object o) {
-            boolean isContain = indexOf(o) != -1;
-            boolean isContainChild = false;
-            for (int i = 0; i < size(); i++) {
-                if (ClassUtil.isAssignableFrom(o.getClass(), get(i).getClass())) {
-                    isContainChild = true;
-                    break;
-                }
-            }
-
-            return isContain || isContainChild;
-        }
+    public int[] getPermutation(){
+        return permutation.clone();
+    }
 
-        /**
-         * Returns the index of the first occurrence of the specified element or any of its subclasses in this list,
-         * or -1 if this list does not contain the element.
-         *
-         * @param o The element to search for.
-         * @return The index of the first occurrence of the specified element or any of its subclasses, or -1 if not found.
-         */
-        @Override
-        public int indexOf(Object o) {
-            for (int i = 0; i < size(); i++) {
-                if (ClassUtil.isAssignableFrom(o.getClass(), get(i).getClass())) {
-                    return i;
-                }
-            }
-            return -1;
-        }
+    /**
+     * Returns the number of input arguments expected by {@link #getMapped(Object...)}.
+     *
+     * @return The length of the input array.
+     */
+    public int getInputLength(){
+        return input.length;
     }
 
 }
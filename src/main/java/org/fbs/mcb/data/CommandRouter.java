@@ -0,0 +1,231 @@
+package org.fbs.mcb.data;
+
+import com.pengrad.telegrambot.model.MessageEntity;
+import org.fbs.mcb.annotation.Command;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+
+/**
+ * A routing index of the methods annotated with {@link Command}.
+ * <p>
+ * Commands without {@link Command#additionalString()} are kept in a hash table and match a message consisting of
+ * the command only, commands with it are kept in a trie and match every message that starts with the command.
+ * The command is taken from the {@code bot_command} entity at the start of the message, a {@code @botname} suffix
+ * of the command is ignored. The cost of a lookup depends on the length of the message command,
+ * not on the number of registered commands.
+ */
+public class CommandRouter {
+
+    private static final BotMethod[] EMPTY = new BotMethod[0];
+
+    private String[] exactKeys = new String[16];
+    private BotMethod[][] exactMethods = new BotMethod[16][];
+    private int exactCount;
+
+    private final Node prefixRoot = new Node();
+
+    /**
+     * Adds a command method to the index.
+     *
+     * @param method The method annotated with {@link Command}, its key is the command string.
+     * @throws IllegalArgumentException If the method is not annotated with {@link Command}.
+     */
+    public void add(@NotNull BotMethod method) {
+        Command command = method.getAnnotation(Command.class);
+        if (command == null) {
+            throw new IllegalArgumentException("Command method must be annotated with @Command: " + method.getKey());
+        }
+        String key = method.getKey().strip();
+        if (command.additionalString()) {
+            Node node = prefixRoot;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.childOrCreate(key.charAt(i));
+            }
+            node.methods = append(node.methods, method);
+        }
+        else {
+            putExact(key, method);
+        }
+    }
+
+    /**
+     * Invokes every method whose command matches the message: first the methods of the exact command,
+     * then the methods of the commands which are a prefix of the message, from the shortest to the longest.
+     *
+     * @param text The text of the message.
+     * @param entities The entities of the message, may be {@code null}.
+     * @param configObject The object on which the methods are invoked.
+     * @param arg0 The first argument of the command parameter set.
+     * @param arg1 The second argument of the command parameter set.
+     * @param arg2 The third argument of the command parameter set.
+     * @param arg3 The fourth argument of the command parameter set.
+     * @throws InvocationTargetException If a method invocation throws an exception.
+     */
+    public void route(@NotNull String text, MessageEntity[] entities, Object configObject,
+                      Object arg0, Object arg1, Object arg2, Object arg3) throws InvocationTargetException {
+        int tokenEnd = commandEnd(text, entities);
+        if (tokenEnd <= 0) {
+            return;
+        }
+        int nameEnd = tokenEnd;
+        for (int i = 1; i < tokenEnd; i++) {
+            if (text.charAt(i) == '@') {
+                nameEnd = i;
+                break;
+            }
+        }
+
+        if (exactCount > 0 && isBlank(text, tokenEnd)) {
+            for (BotMethod method : getExact(text, nameEnd)) {
+                method.invoke(configObject, arg0, arg1, arg2, arg3);
+            }
+        }
+
+        Node node = prefixRoot;
+        int length = nameEnd + text.length() - tokenEnd;
+        for (int i = 0; i < length && node != null; i++) {
+            node = node.child(text.charAt(i < nameEnd ? i : i - nameEnd + tokenEnd));
+            if (node != null) {
+                for (BotMethod method : node.methods) {
+                    method.invoke(configObject, arg0, arg1, arg2, arg3);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the end of the command at the start of the message.
+     * The command is the {@code bot_command} entity at offset 0, or the first word of a message starting with {@code /}
+     * if the message has no such entity.
+     *
+     * @return The index after the last character of the command, or -1 if the message does not start with a command.
+     */
+    private static int commandEnd(String text, MessageEntity[] entities) {
+        if (entities != null) {
+            for (MessageEntity entity : entities) {
+                if (entity.type() == MessageEntity.Type.bot_command && entity.offset() == 0) {
+                    return Math.min(entity.length(), text.length());
+                }
+            }
+        }
+        if (text.isEmpty() || text.charAt(0) != '/') {
+            return -1;
+        }
+        int end = 1;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isBlank(String text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the same hash as {@link String#hashCode()} for the first characters of the text.
+     */
+    private static int hash(String text, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private BotMethod[] getExact(String text, int length) {
+        int mask = exactKeys.length - 1;
+        for (int i = hash(text, length) & mask; exactKeys[i] != null; i = (i + 1) & mask) {
+            String key = exactKeys[i];
+            if (key.length() == length && text.regionMatches(0, key, 0, length)) {
+                return exactMethods[i];
+            }
+        }
+        return EMPTY;
+    }
+
+    private void putExact(String key, BotMethod method) {
+        int mask = exactKeys.length - 1;
+        int i = hash(key, key.length()) & mask;
+        while (exactKeys[i] != null) {
+            if (exactKeys[i].equals(key)) {
+                exactMethods[i] = append(exactMethods[i], method);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        exactKeys[i] = key;
+        exactMethods[i] = new BotMethod[]{method};
+        if (++exactCount * 2 > exactKeys.length) {
+            resize();
+        }
+    }
+
+    private void resize() {
+        String[] keys = exactKeys;
+        BotMethod[][] methods = exactMethods;
+        exactKeys = new String[keys.length * 2];
+        exactMethods = new BotMethod[keys.length * 2][];
+        int mask = exactKeys.length - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] != null) {
+                int i = hash(keys[j], keys[j].length()) & mask;
+                while (exactKeys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                exactKeys[i] = keys[j];
+                exactMethods[i] = methods[j];
+            }
+        }
+    }
+
+    private static BotMethod[] append(BotMethod[] methods, BotMethod method) {
+        BotMethod[] result = Arrays.copyOf(methods, methods.length + 1);
+        result[methods.length] = method;
+        return result;
+    }
+
+    /**
+     * A node of the prefix trie, its children are kept in arrays sorted by character.
+     */
+    private static final class Node {
+
+        private char[] chars = new char[0];
+        private Node[] children = new Node[0];
+        private BotMethod[] methods = EMPTY;
+
+        private Node child(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        private Node childOrCreate(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            Node node = new Node();
+            char[] newChars = new char[chars.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            newChars[i] = c;
+            newChildren[i] = node;
+            System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            chars = newChars;
+            children = newChildren;
+            return node;
+        }
+
+    }
+
+}
@@ -38,5 +38,14 @@ public enum MethodType {
     /**
      * Represents a command method.
      */
-    COMMAND
+    COMMAND;
+
+    /**
+     * Returns the bit of this method type in a set of method types represented as an {@code int} bitmask.
+     *
+     * @return The bitmask with only the bit of this method type set.
+     */
+    public int mask() {
+        return 1 << ordinal();
+    }
 }
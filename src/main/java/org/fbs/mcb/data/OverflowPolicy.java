@@ -0,0 +1,25 @@
+package org.fbs.mcb.data;
+
+/**
+ * Represents the strategies for handling a new update when the update queue is full.
+ *
+ * @see org.fbs.mcb.util.UpdateQueue
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Blocks polling until space becomes available in the queue, no updates are lost.
+     */
+    BLOCK,
+
+    /**
+     * Drops the oldest queued update to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drops the new update if its type is one of the droppable update types, otherwise blocks polling like {@link #BLOCK}.
+     */
+    DROP_BY_TYPE
+
+}
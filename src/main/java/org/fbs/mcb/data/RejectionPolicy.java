@@ -0,0 +1,25 @@
+package org.fbs.mcb.data;
+
+/**
+ * Represents the strategies for handling a handler call when the handler executor is saturated.
+ *
+ * @see org.fbs.mcb.util.HandlerExecutor
+ */
+public enum RejectionPolicy {
+
+    /**
+     * Runs the handler on the thread which dispatched it, which slows the dispatch down until the executor catches up.
+     */
+    CALLER_RUNS,
+
+    /**
+     * Silently drops the handler call.
+     */
+    DISCARD,
+
+    /**
+     * Throws a {@link java.util.concurrent.RejectedExecutionException} on the thread which dispatched the handler.
+     */
+    ABORT
+
+}
@@ -1,33 +1,78 @@
 package org.fbs.mcb.data.entity;
 
+import com.pengrad.telegrambot.Callback;
 import com.pengrad.telegrambot.TelegramBot;
 import com.pengrad.telegrambot.UpdatesListener;
 import com.pengrad.telegrambot.model.*;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.request.GetUpdates;
+import com.pengrad.telegrambot.request.SetWebhook;
+import com.pengrad.telegrambot.response.BaseResponse;
+import org.fbs.mcb.data.MethodType;
 import org.fbs.mcb.util.ConfigurationProcessor;
+import org.fbs.mcb.util.DuplicateFilter;
+import org.fbs.mcb.util.HttpClientUtil;
 import org.fbs.mcb.util.MethodMapper;
+import org.fbs.mcb.util.OffsetCheckpoint;
+import org.fbs.mcb.util.SendScheduler;
+import org.fbs.mcb.util.UpdateLog;
 import org.fbs.mcb.util.UpdateManager;
+import org.fbs.mcb.util.UpdateQueue;
+import org.fbs.mcb.util.UpdateReplayer;
+import org.fbs.mcb.util.UpdateUtil;
+import org.fbs.mcb.util.WebhookServer;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Bot extends AbstractBot<TelegramBot>{
 
+    private static final int DEFAULT_MAX_REQUESTS_IN_FLIGHT = 16;
+
+    private static final int DEFAULT_MAX_UPDATE_ATTEMPTS = 3;
+
     private String startCommand = "";
 
-    protected Bot(@NotNull String botToken, @NotNull String startCommandRaw){
-        StringBuilder stringBuilder = new StringBuilder();
-        String startCommand;
+    private UpdateQueue updateQueue;
 
-        if (startCommandRaw.toCharArray()[0] == '/'){
-            for (int i = 1; i < startCommandRaw.length(); i++) {
-                stringBuilder.append(startCommandRaw.toCharArray()[i]);
-            }
-            startCommand = stringBuilder.toString();
-        }
-        else {
-            startCommand = startCommandRaw;
-        }
+    private Thread updateConsumer;
+
+    private volatile SendScheduler sendScheduler;
+
+    private WebhookServer webhookServer;
+
+    private UpdateLog updateLog;
+
+    private OffsetCheckpoint offsetCheckpoint;
+
+    private long skipAge;
+
+    private final LongAdder skipped = new LongAdder();
+
+    private int lastQueued = OffsetCheckpoint.NONE;
+
+    private int failedUpdateId = OffsetCheckpoint.NONE;
+
+    private int failedAttempts;
+
+    private int lastRecorded = OffsetCheckpoint.NONE;
+
+    protected Bot(@NotNull String botToken, @NotNull String startCommandRaw){
+        String startCommand = startCommandRaw.startsWith("/") ? startCommandRaw : "/" + startCommandRaw;
         initBot(botToken);
         setUpdateListeners();
         this.startCommand = startCommand;
@@ -45,63 +90,712 @@ public class Bot extends AbstractBot<TelegramBot>{
             throw new RuntimeException("Configuration bot token is null or empty");
         }
         initBot(configurationClass);
+        initUpdateLog();
+        initOffsetCheckpoint();
+        initUpdateQueue();
+        initComponents();
         setUpdateListeners();
     }
 
+    /**
+     * Initializes what the update handlers need before the first update is received. Called by
+     * {@link #Bot(Class)} after the configuration is read and before the update listeners are set.
+     * <p>
+     * It runs before the field initializers of subclasses, so overrides must call the super method and may only use
+     * fields which are not initialized in their declaration.
+     */
+    protected void initComponents() {
+    }
+
     protected void setUpdateListeners() {
-        getBot().setUpdatesListener(list -> {
-            Update lastUpdate = list.get(list.size()-1);
-            if (getConfiguration() != null) {
-                if (!getConfiguration().isDoubleDispatch()) {
-                    getConfiguration().handle(lastUpdate, this);
-                } else {
-                    getConfiguration().handle(lastUpdate, this);
-                    updateParse(lastUpdate);
-
-                    if (lastUpdate.message() != null && !Objects.equals(lastUpdate.message().text(), "")) {
-                        Message message = lastUpdate.message();
-                        messageParse(message);
-                        try {
-                            if (message.entities().length > 0) {
-                                MessageEntity[] entities = message.entities();
-                                entitiesParse(entities, message);
-                                if (message.text().contains(startCommand)) {
-                                    onStartCommand(message);
-                                }
-                            }
-                        } catch (NullPointerException ignored) {
-                        }
-                    } else if (lastUpdate.callbackQuery() != null) {
-                        CallbackQuery query = lastUpdate.callbackQuery();
-                        callbackQueryParse(query);
-                    } else if (lastUpdate.inlineQuery() != null) {
-                        InlineQuery query = lastUpdate.inlineQuery();
-                        inlineQueryParse(query);
+        if (getConfiguration() != null && !getConfiguration().getWebhookUrl().isEmpty()) {
+            startWebhook();
+            return;
+        }
+        if (getConfiguration() == null) {
+            getBot().setUpdatesListener(this::processUpdates, e -> {
+                    if (e.response() != null) {
+                        e.response().errorCode();
+                        e.response().description();
                     }
                 }
+            );
+            return;
+        }
+        GetUpdates request = new GetUpdates()
+                .limit(getConfiguration().getPollingLimit())
+                .timeout(getConfiguration().getPollingTimeout())
+                .allowedUpdates(getAllowedUpdates());
+        if (offsetCheckpoint != null) {
+            int offset = Math.max(offsetCheckpoint.getOffset(), lastQueued);
+            if (offset != OffsetCheckpoint.NONE) {
+                request.offset(offset + 1);
             }
-            return UpdatesListener.CONFIRMED_UPDATES_ALL;
-
-            }, e -> {
+        }
+        getBot().setUpdatesListener(this::processUpdates, e -> {
                 if (e.response() != null) {
                     e.response().errorCode();
                     e.response().description();
                 }
-            }
+            }, request
         );
     }
 
+    /**
+     * Returns the update types the bot requests from Telegram, as specified by the configuration or, by default,
+     * derived from the method types of the registered handlers and, with double dispatch, from the overridden parse
+     * functions. Message, entity, start and command handlers need {@code message} updates, callback and inline query
+     * handlers need {@code callback_query} and {@code inline_query} updates. Update handlers and an overridden
+     * {@link #updateParse(Update)} may process any update, so they request Telegram's default types.
+     * <p>
+     * The types are always sent, since Telegram keeps the types of the previous request when they are omitted.
+     * An empty array restores the default, every type except {@code chat_member}, {@code message_reaction} and
+     * {@code message_reaction_count}.
+     *
+     * @return The update types, or an empty array to receive the update types Telegram sends by default.
+     */
+    @NotNull
+    public String[] getAllowedUpdates() {
+        if (getConfiguration() == null) {
+            return new String[0];
+        }
+        if (getConfiguration().getAllowedUpdates().length > 0) {
+            return getConfiguration().getAllowedUpdates().clone();
+        }
+        int types = getConfiguration().getMethodSet().getRegisteredTypes();
+        if (getConfiguration().isDoubleDispatch()) {
+            types |= getOverriddenHookTypes();
+        }
+        if ((types & MethodType.UPDATE.mask()) != 0) {
+            return new String[0];
+        }
+        List<String> allowedUpdates = new ArrayList<>(3);
+        int messageTypes = MethodType.MESSAGE.mask() | MethodType.ENTITIES.mask() | MethodType.START.mask()
+                | MethodType.COMMAND.mask();
+        if ((types & messageTypes) != 0) {
+            allowedUpdates.add("message");
+        }
+        if ((types & MethodType.CALLBACK_QUERY.mask()) != 0) {
+            allowedUpdates.add("callback_query");
+        }
+        if ((types & MethodType.INLINE_QUERY.mask()) != 0) {
+            allowedUpdates.add("inline_query");
+        }
+        return allowedUpdates.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the method types whose parse functions are overridden by the class of the bot.
+     *
+     * @return The bitmask of the method types, see {@link MethodType#mask()}.
+     */
+    protected int getOverriddenHookTypes() {
+        int types = 0;
+        if (isOverridden(Bot.class, "updateParse", Update.class)) {
+            types |= MethodType.UPDATE.mask();
+        }
+        if (isOverridden(Bot.class, "messageParse", Message.class)
+                || isOverridden(Bot.class, "entitiesParse", MessageEntity[].class, Message.class)
+                || isOverridden(Bot.class, "onStartCommand", Message.class)) {
+            types |= MethodType.MESSAGE.mask();
+        }
+        if (isOverridden(Bot.class, "callbackQueryParse", CallbackQuery.class)) {
+            types |= MethodType.CALLBACK_QUERY.mask();
+        }
+        if (isOverridden(Bot.class, "inlineQueryParse", InlineQuery.class)) {
+            types |= MethodType.INLINE_QUERY.mask();
+        }
+        return types;
+    }
+
+    /**
+     * Checks whether a class between the class of the bot and the base class declares the method.
+     *
+     * @param base The class declaring the method which is not counted as an override.
+     * @param name The name of the method.
+     * @param parameterTypes The parameter types of the method.
+     * @return {@code true} if a subclass of the base class overrides the method.
+     */
+    protected final boolean isOverridden(@NotNull Class<?> base, @NotNull String name, Class<?>... parameterTypes) {
+        for (Class<?> type = getClass(); type != null && type != base; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod(name, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException ignored) {
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts the webhook server and registers the webhook with the URL of the configuration. Updates posted to the
+     * webhook are dispatched like a batch of a single update.
+     *
+     * @throws UncheckedIOException If the webhook server cannot listen on its port.
+     * @throws RuntimeException If Telegram does not accept the webhook.
+     */
+    private void startWebhook() {
+        String url = getConfiguration().getWebhookUrl();
+        String secretToken = getConfiguration().getWebhookSecretToken();
+        if (secretToken.isEmpty()) {
+            byte[] random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            secretToken = Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+        }
+        int maxConnections = getConfiguration().getWebhookMaxConnections();
+        String path = URI.create(url).getPath();
+        try {
+            webhookServer = new WebhookServer(new InetSocketAddress(getConfiguration().getWebhookPort()),
+                    path == null || path.isEmpty() ? "/" : path, secretToken, maxConnections,
+                    getConfiguration().isVirtualThreads(), update -> processUpdates(List.of(update)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        webhookServer.start();
+        SetWebhook request = new SetWebhook().url(url).secretToken(secretToken).maxConnections(maxConnections)
+                .allowedUpdates(getAllowedUpdates());
+        BaseResponse response = getBot().execute(request);
+        if (response == null || !response.isOk()) {
+            webhookServer.stop();
+            throw new RuntimeException("Telegram did not accept the webhook: "
+                    + (response != null ? response.description() : "no response"));
+        }
+    }
+
+    /**
+     * Stops receiving updates and waits until the received updates are processed: first the updates waiting in the
+     * update queue, then the updates queued to the dispatch shards. Then it stops the shards and the handler threads
+     * and syncs the offset checkpoint, if the offset is persisted, so it covers every update processed before.
+     * <p>
+     * If the calling thread is interrupted while waiting for the update queue, the updates still waiting in it are
+     * not processed.
+     *
+     * @throws UncheckedIOException If the offset checkpoint cannot be written.
+     */
+    public void stop() {
+        if (webhookServer != null) {
+            webhookServer.stop();
+        }
+        else {
+            getBot().removeGetUpdatesListener();
+        }
+        if (updateConsumer != null) {
+            try {
+                updateQueue.close();
+                updateConsumer.join();
+            } catch (InterruptedException e) {
+                updateConsumer.interrupt();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (getConfiguration() != null) {
+            getConfiguration().shutdown();
+        }
+        if (offsetCheckpoint != null) {
+            try {
+                offsetCheckpoint.sync();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the server receiving the updates posted to the webhook of the bot.
+     *
+     * @return The webhook server, or {@code null} if the bot uses long polling.
+     */
+    public WebhookServer getWebhookServer() {
+        return webhookServer;
+    }
+
+    /**
+     * Dispatches every update of a getUpdates batch in update_id order.
+     * <p>
+     * Handling stops at the first update whose processing throws, so the returned value
+     * confirms the offset only up to the last update that was actually handled and the
+     * failed one is fetched again with the next batch. An update which failed
+     * {@link ConfigurationProcessor#getMaxUpdateAttempts() maxUpdateAttempts} times is passed to
+     * {@link #onUpdateDropped(Update, RuntimeException)} and confirmed instead.
+     *
+     * @param updates The batch of updates received from the Telegram Bot API.
+     * @return The update_id of the last handled update, or {@link UpdatesListener#CONFIRMED_UPDATES_NONE}
+     *         if none of the updates could be handled.
+     */
+    protected int processUpdates(@NotNull List<Update> updates) {
+        if (updateLog != null) {
+            recordUpdates(updates);
+        }
+        if (updateQueue != null) {
+            return queueUpdates(updates);
+        }
+        List<Update> batch = updates;
+        for (int i = 1; i < updates.size(); i++) {
+            if (updates.get(i - 1).updateId() > updates.get(i).updateId()) {
+                batch = new ArrayList<>(updates);
+                batch.sort(Comparator.comparing(Update::updateId));
+                break;
+            }
+        }
+
+        int confirmed = UpdatesListener.CONFIRMED_UPDATES_NONE;
+        for (Update update : batch) {
+            try {
+                if (!isStale(update)) {
+                    processUpdate(update);
+                }
+            } catch (RuntimeException e) {
+                onUpdateException(update, e);
+                if (countFailure(update.updateId()) < getMaxUpdateAttempts()) {
+                    break;
+                }
+                onUpdateDropped(update, e);
+            }
+            confirmed = update.updateId();
+            if (offsetCheckpoint != null) {
+                offsetCheckpoint.commit(confirmed);
+            }
+        }
+        return confirmed;
+    }
+
+    /**
+     * Counts a failed attempt to process the update. Only one update of a batch fails at a time, since the rest of
+     * the batch is fetched again with it, so only the attempts of the last failed update are remembered.
+     *
+     * @param updateId The update_id of the failed update.
+     * @return The number of failed attempts to process the update.
+     */
+    private synchronized int countFailure(int updateId) {
+        if (updateId != failedUpdateId) {
+            failedUpdateId = updateId;
+            failedAttempts = 0;
+        }
+        return ++failedAttempts;
+    }
+
+    private int getMaxUpdateAttempts() {
+        return getConfiguration() != null ? getConfiguration().getMaxUpdateAttempts() : DEFAULT_MAX_UPDATE_ATTEMPTS;
+    }
+
+    /**
+     * Appends the updates to the update log. Polled updates which were recorded before, because they are fetched
+     * again after a failure or were left unconfirmed by the previous run, are not recorded twice. A failure to record
+     * is reported to the uncaught exception handler of the current thread and does not stop the updates from being
+     * dispatched.
+     *
+     * @param updates The batch of updates received from the Telegram Bot API.
+     */
+    private void recordUpdates(@NotNull List<Update> updates) {
+        boolean polled = webhookServer == null;
+        try {
+            for (Update update : updates) {
+                if (polled && update.updateId() <= lastRecorded) {
+                    continue;
+                }
+                updateLog.append(update);
+                if (polled) {
+                    lastRecorded = update.updateId();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * Opens the update log, if the configuration specifies its directory.
+     *
+     * @throws UncheckedIOException If the log cannot be opened.
+     */
+    private void initUpdateLog() {
+        if (getConfiguration().getUpdateLogDirectory().isEmpty()) {
+            return;
+        }
+        try {
+            updateLog = UpdateLog.open(Path.of(getConfiguration().getUpdateLogDirectory()));
+            lastRecorded = updateLog.getLastUpdateId();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the log the received updates are recorded to, which can be replayed with an
+     * {@link org.fbs.mcb.util.UpdateReplayer}.
+     *
+     * @return The update log, or {@code null} if updates are not recorded.
+     */
+    public UpdateLog getUpdateLog() {
+        return updateLog;
+    }
+
+    /**
+     * Checks whether the update is older than the configured age and counts it as skipped if it is.
+     *
+     * @param update The received update.
+     * @return {@code true} if the update should be confirmed without being dispatched.
+     */
+    private boolean isStale(@NotNull Update update) {
+        if (skipAge <= 0) {
+            return false;
+        }
+        long date = UpdateUtil.date(update);
+        if (date == 0 || System.currentTimeMillis() / 1000 - date <= skipAge) {
+            return false;
+        }
+        skipped.increment();
+        return true;
+    }
+
+    /**
+     * Opens the offset checkpoint, if the configuration specifies its file, and reads the age above which
+     * updates are skipped.
+     *
+     * @throws IllegalArgumentException If the offset is persisted while handlers run on other threads, or together
+     *                                  with an update queue but without the update log.
+     * @throws UncheckedIOException If the checkpoint cannot be read.
+     */
+    private void initOffsetCheckpoint() {
+        skipAge = getConfiguration().getSkipUpdatesOlderThan();
+        if (getConfiguration().getOffsetFile().isEmpty()) {
+            return;
+        }
+        if (getConfiguration().isThreadSeparation() || getConfiguration().getDispatchShards() != 0) {
+            // the handlers complete after the update is committed, so a restart would lose unfinished updates
+            throw new IllegalArgumentException("offsetFile cannot be combined with threadSeparation or dispatchShards");
+        }
+        if (getConfiguration().getUpdateQueueCapacity() > 0 && getConfiguration().getUpdateLogDirectory().isEmpty()) {
+            // queued updates are confirmed to Telegram, only the update log can queue them again after a restart
+            throw new IllegalArgumentException("offsetFile with an updateQueueCapacity requires an updateLogDirectory");
+        }
+        try {
+            offsetCheckpoint = OffsetCheckpoint.open(Path.of(getConfiguration().getOffsetFile()),
+                    getConfiguration().getOffsetSyncInterval());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the checkpoint persisting the update_id of the last processed update. Bots should
+     * {@link OffsetCheckpoint#sync() sync} it before they stop, so they do not process the updates
+     * committed since the last periodic sync again.
+     *
+     * @return The offset checkpoint, or {@code null} if the offset is not persisted.
+     */
+    public OffsetCheckpoint getOffsetCheckpoint() {
+        return offsetCheckpoint;
+    }
+
+    /**
+     * Returns the number of updates which were confirmed without being dispatched because they were older than
+     * {@link ConfigurationProcessor#getSkipUpdatesOlderThan() skipUpdatesOlderThan}.
+     *
+     * @return The number of skipped updates.
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    /**
+     * Passes a batch of updates to the update queue, blocking while the queue is full and its
+     * overflow policy does not allow dropping. Dropped updates are confirmed as well.
+     * <p>
+     * Polled updates which were queued before, because the previous run did not confirm them to Telegram
+     * or they were recovered from the update log, are confirmed without being queued twice. Updates received
+     * after {@link #stop()} closed the queue are not confirmed.
+     *
+     * @param updates The batch of updates received from the Telegram Bot API.
+     * @return The update_id of the last queued or dropped update.
+     */
+    private int queueUpdates(@NotNull List<Update> updates) {
+        boolean polled = webhookServer == null;
+        int confirmed = UpdatesListener.CONFIRMED_UPDATES_NONE;
+        for (Update update : updates) {
+            if (polled && update.updateId() <= lastQueued) {
+                confirmed = update.updateId();
+                continue;
+            }
+            try {
+                updateQueue.put(update);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RejectedExecutionException e) {
+                // the bot is stopping, the update is not confirmed and received again after the restart
+                break;
+            }
+            confirmed = update.updateId();
+            if (polled) {
+                lastQueued = confirmed;
+            }
+        }
+        return confirmed;
+    }
+
+    /**
+     * Queues the updates of the update log after the persisted offset again, since they were confirmed to Telegram
+     * when they were queued but not processed before the bot stopped.
+     */
+    private void recoverQueuedUpdates() {
+        int offset = offsetCheckpoint.getOffset();
+        if (offset == OffsetCheckpoint.NONE) {
+            return;
+        }
+        lastQueued = offset;
+        new UpdateReplayer(updateLog, 0).replay(updateLog.seekUpdateId(offset + 1), update -> {
+            try {
+                updateQueue.put(update);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            lastQueued = Math.max(lastQueued, update.updateId());
+        });
+    }
+
+    /**
+     * Creates the update queue and starts the thread which processes queued updates,
+     * if the configuration specifies the queue capacity.
+     */
+    private void initUpdateQueue() {
+        if (getConfiguration().getUpdateQueueCapacity() <= 0) {
+            return;
+        }
+        updateQueue = new UpdateQueue(
+                getConfiguration().getUpdateQueueCapacity(),
+                getConfiguration().getOverflowPolicy(),
+                getConfiguration().getDroppableUpdates());
+
+        updateConsumer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                Update update;
+                try {
+                    update = updateQueue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (update == null) {
+                    return;
+                }
+                try {
+                    if (!isStale(update)) {
+                        processUpdate(update);
+                    }
+                } catch (RuntimeException e) {
+                    onUpdateException(update, e);
+                }
+                if (offsetCheckpoint != null) {
+                    offsetCheckpoint.commit(update.updateId());
+                }
+            }
+        }, "mcb-update-queue");
+        updateConsumer.setDaemon(true);
+        updateConsumer.start();
+        if (offsetCheckpoint != null && updateLog != null) {
+            recoverQueuedUpdates();
+        }
+    }
+
+    /**
+     * Returns the queue between the poller and the update handlers, which also provides its metrics.
+     *
+     * @return The update queue, or {@code null} if updates are processed on the polling thread.
+     */
+    public UpdateQueue getUpdateQueue() {
+        return updateQueue;
+    }
+
+    /**
+     * Queues a request to be sent by the {@link #getSendScheduler() send scheduler} of the bot, which keeps
+     * the bot within Telegram's rate limits. Use it instead of {@code getBot().execute(...)} for messages.
+     *
+     * @param request The request to be sent.
+     * @param <T> The type of the request.
+     * @param <R> The type of the response.
+     * @return The future completed with the response once the request was sent.
+     */
+    @NotNull
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> send(@NotNull BaseRequest<T, R> request) {
+        return getSendScheduler().submit(request);
+    }
+
+    /**
+     * Sends a request to the Bot API without blocking the calling thread. At most
+     * {@link ConfigurationProcessor#getMaxRequestsInFlight() maxRequestsInFlight} requests of the bot are in flight
+     * at the same time over the pooled connections of its HTTP client, further requests wait in the queue of the client.
+     * Unlike {@link #send(BaseRequest)}, the request is not paced to Telegram's rate limits.
+     *
+     * @param request The request to be sent.
+     * @param <T> The type of the request.
+     * @param <R> The type of the response.
+     * @return The future completed with the response, or exceptionally with the {@link IOException}
+     *         if the request could not be sent.
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> executeAsync(@NotNull BaseRequest<T, R> request) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        getBot().execute((T) request, new Callback<T, R>() {
+            @Override
+            public void onResponse(T request, R response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void onFailure(T request, IOException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns the send scheduler of the bot, creating it on first use with the send rates of the configuration,
+     * or with Telegram's default limits if the bot has no configuration.
+     *
+     * @return The send scheduler.
+     */
+    @NotNull
+    public SendScheduler getSendScheduler() {
+        SendScheduler scheduler = sendScheduler;
+        if (scheduler == null) {
+            synchronized (this) {
+                scheduler = sendScheduler;
+                if (scheduler == null) {
+                    if (getConfiguration() != null) {
+                        scheduler = new SendScheduler(SendScheduler.telegramSender(getBot()), getConfiguration().getGlobalSendRate(),
+                                getConfiguration().getChatSendInterval(), getConfiguration().getGroupSendInterval(),
+                                getConfiguration().getMaxSendsInFlight());
+                    }
+                    else {
+                        scheduler = new SendScheduler(getBot());
+                    }
+                    sendScheduler = scheduler;
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    /**
+     * Runs a single update through the configuration handlers and, when double dispatch is enabled,
+     * through the overridden parse functions. Updates which were already processed are suppressed by the
+     * {@link ConfigurationProcessor#getDuplicateFilter() duplicate filter}, if it is configured, and an update whose
+     * processing throws is accepted again when it is delivered again.
+     *
+     * @param update The update to be processed.
+     */
+    protected void processUpdate(@NotNull Update update) {
+        if (getConfiguration() == null) {
+            return;
+        }
+        DuplicateFilter duplicateFilter = getConfiguration().getDuplicateFilter();
+        if (duplicateFilter != null && !duplicateFilter.tryAccept(update.updateId())) {
+            return;
+        }
+        try {
+            dispatchUpdate(update);
+        } catch (RuntimeException e) {
+            // the update stays unconfirmed and is delivered again, which must not be suppressed
+            if (duplicateFilter != null) {
+                duplicateFilter.forget(update.updateId());
+            }
+            throw e;
+        }
+    }
+
+    private void dispatchUpdate(@NotNull Update update) {
+        if (!getConfiguration().isDoubleDispatch()) {
+            getConfiguration().handle(update, this);
+        } else {
+            getConfiguration().handle(update, this, (Runnable) () -> runParseFunctions(update));
+        }
+    }
+
+    /**
+     * Passes the update to the parse functions. Called after the configuration handlers, on the thread processing
+     * the update, so with {@link ConfigurationProcessor#getDispatchShards() dispatch shards} the parse functions run
+     * on the shard of the chat and never concurrently with the handlers of the same update.
+     *
+     * @param update The update to be parsed.
+     */
+    private void runParseFunctions(@NotNull Update update) {
+        updateParse(update);
+
+        if (update.message() != null && !Objects.equals(update.message().text(), "")) {
+            Message message = update.message();
+            messageParse(message);
+            MessageEntity[] entities = message.entities();
+            if (entities != null && entities.length > 0) {
+                entitiesParse(entities, message);
+                String text = message.text();
+                if (text != null && UpdateUtil.isCommand(text, startCommand)) {
+                    onStartCommand(message);
+                }
+            }
+        } else if (update.callbackQuery() != null) {
+            CallbackQuery query = update.callbackQuery();
+            callbackQueryParse(query);
+        } else if (update.inlineQuery() != null) {
+            InlineQuery query = update.inlineQuery();
+            inlineQueryParse(query);
+        }
+    }
+
+    /**
+     * Called when processing of an update throws. The update and the rest of its batch stay unconfirmed, unless
+     * the update failed {@link ConfigurationProcessor#getMaxUpdateAttempts() maxUpdateAttempts} times.
+     * By default, the exception is passed to the uncaught exception handler of the current thread.
+     *
+     * @param update The update whose processing failed.
+     * @param e The exception thrown while processing the update.
+     */
+    protected void onUpdateException(Update update, RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    /**
+     * Called when an update is given up after its processing failed
+     * {@link ConfigurationProcessor#getMaxUpdateAttempts() maxUpdateAttempts} times, before it is confirmed.
+     * Every failure was already passed to {@link #onUpdateException(Update, RuntimeException)}. By default, nothing
+     * else happens, override it to keep the update as a dead letter.
+     *
+     * @param update The update which is given up.
+     * @param e The exception thrown by the last attempt.
+     */
+    protected void onUpdateDropped(Update update, RuntimeException e) {
+    }
+
     @Override
     protected void initBot(Object... args) {
         if (args[0] instanceof Class<?>){
-            setConfiguration(args[0]);
-            setBot(new TelegramBot(getConfiguration().getBotToken()));
+            if (getConfiguration() == null) {
+                setConfiguration(args[0]);
+            }
+            setBot(createTelegramBot(getConfiguration().getBotToken(), getConfiguration().getMaxRequestsInFlight()));
         }
         else if (args[0] instanceof String) {
-            setBot(new TelegramBot((String) args[0]));
+            setBot(createTelegramBot((String) args[0], DEFAULT_MAX_REQUESTS_IN_FLIGHT));
         }
     }
 
+    /**
+     * Creates the Telegram bot, which sends its requests through an HTTP client sharing its connections and threads
+     * with the other bots. Override it to customize the bot, for example to use a local Bot API server.
+     *
+     * @param botToken The token of the bot.
+     * @param maxRequestsInFlight The maximum number of requests in flight at the same time.
+     * @return The Telegram bot.
+     */
+    @NotNull
+    protected TelegramBot createTelegramBot(@NotNull String botToken, int maxRequestsInFlight) {
+        return new TelegramBot.Builder(botToken).okHttpClient(HttpClientUtil.newClient(maxRequestsInFlight)).build();
+    }
+
     @Override
     public void setConfiguration(Object ... args){
         if (args[0] instanceof Class<?>) {
@@ -1,16 +1,56 @@
 package org.fbs.mcb.data.entity;
 
 import com.pengrad.telegrambot.model.*;
+import com.pengrad.telegrambot.request.BaseRequest;
+import org.fbs.mcb.data.MethodType;
+import org.fbs.mcb.data.user.BotRunnable;
 import org.fbs.mcb.data.user.BotUser;
+import org.fbs.mcb.data.user.OnAddStrategy;
+import org.fbs.mcb.data.user.SessionSnapshot;
+import org.fbs.mcb.data.user.SessionStore;
+import org.fbs.mcb.data.user.TaskDeque;
 import org.fbs.mcb.data.user.UserThreadSet;
+import org.fbs.mcb.util.BroadcastJob;
+import org.fbs.mcb.util.ExecutorUtil;
+import org.fbs.mcb.util.LongConcurrentMap;
+import org.fbs.mcb.util.TimingWheel;
+import org.fbs.mcb.util.UpdateUtil;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
 
 public class MultiClientBot extends Bot {
 
-    private final ArrayList<BotUser> botUsers = new ArrayList<>();
+    private static final String USER_THREAD_NAME_PREFIX = "mcb-user-";
+
+    private static final int EVICTION_SAMPLES = 8;
+    private static final long MIN_SWEEP_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_SWEEP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private final LongConcurrentMap<BotUser> botUsers = new LongConcurrentMap<>();
+
+    private volatile Executor userExecutor;
+
+    private volatile long userIdleTimeout;
+    private volatile int maxUsers;
+    private TimingWheel.Timeout sweep;
+
+    private volatile SessionSnapshot snapshot;
+    private volatile long snapshotInterval;
+    private TimingWheel.Timeout snapshotWrite;
+
+    private final LongAdder expiredUsers = new LongAdder();
+    private final LongAdder evictedUsers = new LongAdder();
 
     protected MultiClientBot(String botToken, String startCommandRaw) {
         super(botToken, startCommandRaw);
@@ -24,6 +64,90 @@ public class MultiClientBot extends Bot {
         super(configurationClass);
     }
 
+    /**
+     * Applies the user eviction and opens the session snapshot of the configuration, so the sessions are restored
+     * for the first update already.
+     */
+    @Override
+    protected void initComponents() {
+        super.initComponents();
+        setUserEviction(getConfiguration().getUserIdleTimeout(), getConfiguration().getMaxUsers());
+        if (!getConfiguration().getSnapshotFile().isEmpty()) {
+            setSnapshot(Path.of(getConfiguration().getSnapshotFile()), getConfiguration().getSnapshotInterval());
+        }
+    }
+
+    /**
+     * Persists the sessions of the users in a memory-mapped snapshot file. The sessions of the previous run are
+     * restored from the file when their users are created again, and the sessions written since the previous snapshot
+     * are appended to the file periodically. Bots should call {@link SessionSnapshot#write()} on
+     * {@link #getSnapshot()} before they stop, so the sessions written after the last periodic snapshot are not lost.
+     *
+     * @param file The snapshot file, created if it does not exist.
+     * @param interval The time in milliseconds between two snapshots, {@code 0} or less to write snapshots only
+     *                 when {@link SessionSnapshot#write()} is called.
+     * @throws UncheckedIOException If the snapshot file cannot be opened.
+     */
+    protected synchronized void setSnapshot(@NotNull Path file, long interval) {
+        try {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+            snapshot = SessionSnapshot.open(file, getSessionStore());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        snapshotInterval = Math.max(0, interval);
+        if (snapshotWrite != null) {
+            snapshotWrite.cancel();
+            snapshotWrite = null;
+        }
+        if (snapshotInterval > 0) {
+            scheduleSnapshot();
+        }
+    }
+
+    /**
+     * Returns the snapshot the sessions of the users are persisted in.
+     *
+     * @return The snapshot, or {@code null} if the sessions are not persisted.
+     */
+    public SessionSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Configures when users are removed from the bot. A removed user is passed to {@link #onUserEvicted(BotUser, boolean)}
+     * and is created again on its next update. Users with queued or running tasks are never removed.
+     * The session of a removed user stays in the session store, so it is available again when the user returns.
+     *
+     * @param idleTimeout The time in milliseconds after the last update of a user after which the user is removed,
+     *                    {@code 0} or less to keep idle users.
+     * @param maxUsers The maximum number of users, when it is exceeded the least recently active of a sample of users
+     *                 is removed, {@code 0} or less for no limit.
+     */
+    protected synchronized void setUserEviction(long idleTimeout, int maxUsers) {
+        this.userIdleTimeout = Math.max(0, TimeUnit.MILLISECONDS.toNanos(idleTimeout));
+        this.maxUsers = Math.max(0, maxUsers);
+        if (sweep != null) {
+            sweep.cancel();
+            sweep = null;
+        }
+        if (userIdleTimeout > 0) {
+            scheduleSweep();
+        }
+    }
+
+    /**
+     * Called after a user was removed from the bot, for example to persist the state of the user.
+     * Runs on the thread which removed the user.
+     *
+     * @param botUser The removed user.
+     * @param expired {@code true} if the user was removed because it was idle for longer than the idle timeout,
+     *                {@code false} if it was removed because the maximum number of users was exceeded.
+     */
+    protected void onUserEvicted(BotUser botUser, boolean expired) {}
+
     protected UserThreadSet getThreadsByThreadsArr(long userId, ArrayList<UserThreadSet> threadsArrayList){
         for (UserThreadSet threads : threadsArrayList) {
             if (threads.getUserId() == userId) {
@@ -41,16 +165,21 @@ public class MultiClientBot extends Bot {
         UserThreadSet userThreadSet = getThreadsByThreadsArr(userId, threads);
 
         if (userThreadSet == null) {
-            threads.add(new UserThreadSet(userId));
-            userThreadSet = getThreadsByThreadsArr(userId, threads);
+            userThreadSet = new UserThreadSet(userId, new TaskDeque(getUserExecutor()));
+            threads.add(userThreadSet);
         }
+        userThreadSet.removeAllThreads();
 
-        if (userThreadSet.getUserId() == userId) {
-            for (int i = 0; i < userThreadSet.size(); i++) {
-                userThreadSet.removeClientThread(i);
-            }
-        }
+        return userThreadSet;
+    }
 
+    protected UserThreadSet getThreadsOnUpdate(long userId){
+        BotUser botUser = getClientById(userId);
+        if (botUser == null) {
+            return null;
+        }
+        UserThreadSet userThreadSet = botUser.getThreadSet();
+        userThreadSet.removeAllThreads();
         return userThreadSet;
     }
 
@@ -69,76 +198,302 @@ public class MultiClientBot extends Bot {
     @Deprecated
     @Override
     protected void callbackQueryParse(CallbackQuery query){
-        BotUser botUser = getClientById(query.from().id());
-        if (botUser == null) {
-            botUser = new BotUser(query.from());
-            botUsers.add(botUser);
-        }
+        BotUser botUser = getOrCreateClient(query.from());
         callbackQueryParse(query, botUser);
     }
 
     @Deprecated
     @Override
     protected void entitiesParse(MessageEntity[] messageEntities, Message message){
-        BotUser botUser = getClientById(message.from().id());
-        if (botUser == null) {
-            botUser = new BotUser(message.from());
-            botUsers.add(botUser);
-        }
+        BotUser botUser = getOrCreateClient(message.from());
         entitiesParse(messageEntities, message, botUser);
     }
 
     @Deprecated
     @Override
     protected void inlineQueryParse(InlineQuery query){
-        BotUser botUser = getClientById(query.from().id());
-        if (botUser == null) {
-            botUser = new BotUser(query.from());
-            botUsers.add(botUser);
-        }
-        inlineQueryParse(query, getClientById(query.from().id()));
+        BotUser botUser = getOrCreateClient(query.from());
+        inlineQueryParse(query, botUser);
     }
 
     @Deprecated
     @Override
     protected void messageParse(Message message){
-        BotUser botUser = getClientById(message.from().id());
-        if (botUser == null) {
-            botUser = new BotUser(message.from());
-            botUsers.add(botUser);
-        }
-        messageParse(message, getClientById(message.from().id()));
+        BotUser botUser = getOrCreateClient(message.from());
+        messageParse(message, botUser);
     }
 
     @Deprecated
     @Override
     protected void onStartCommand(Message message){
-        BotUser botUser = getClientById(message.from().id());
-        if (botUser == null) {
-            botUser = new BotUser(message.from());
-            botUsers.add(botUser);
-        }
-        onStartCommand(message, getClientById(message.from().id()));
+        BotUser botUser = getOrCreateClient(message.from());
+        onStartCommand(message, botUser);
     }
 
+    /**
+     * Passes the update on to {@link #updateParse(Update, BotUser)} with the user who caused it. Updates without
+     * a sender, such as channel posts and poll state updates, are skipped.
+     */
     @Deprecated
     @Override
     protected void updateParse(Update update){
-        BotUser botUser = getClientById(update.myChatMember().from().id());
-        if (botUser == null) {
-            botUser = new BotUser(update.myChatMember().from());
-            botUsers.add(botUser);
+        User user = UpdateUtil.user(update);
+        if (user == null) {
+            return;
         }
+        BotUser botUser = getOrCreateClient(user);
         updateParse(update, botUser);
     }
 
-    private BotUser getClientById(long id){
-        for (BotUser botUser : botUsers) {
-            if (botUser.getId() == id) {
+    /**
+     * Returns the method types whose parse functions, with or without the user, are overridden by the class of the bot.
+     * The parse functions without the user which only pass the update on to their user variants are not counted.
+     *
+     * @return The bitmask of the method types, see {@link MethodType#mask()}.
+     */
+    @Override
+    protected int getOverriddenHookTypes() {
+        int types = 0;
+        if (isOverridden(MultiClientBot.class, "updateParse", Update.class)
+                || isOverridden(MultiClientBot.class, "updateParse", Update.class, BotUser.class)) {
+            types |= MethodType.UPDATE.mask();
+        }
+        if (isOverridden(MultiClientBot.class, "messageParse", Message.class)
+                || isOverridden(MultiClientBot.class, "messageParse", Message.class, BotUser.class)
+                || isOverridden(MultiClientBot.class, "entitiesParse", MessageEntity[].class, Message.class)
+                || isOverridden(MultiClientBot.class, "entitiesParse", MessageEntity[].class, Message.class, BotUser.class)
+                || isOverridden(MultiClientBot.class, "onStartCommand", Message.class)
+                || isOverridden(MultiClientBot.class, "onStartCommand", Message.class, BotUser.class)) {
+            types |= MethodType.MESSAGE.mask();
+        }
+        if (isOverridden(MultiClientBot.class, "callbackQueryParse", CallbackQuery.class)
+                || isOverridden(MultiClientBot.class, "callbackQueryParse", CallbackQuery.class, BotUser.class)) {
+            types |= MethodType.CALLBACK_QUERY.mask();
+        }
+        if (isOverridden(MultiClientBot.class, "inlineQueryParse", InlineQuery.class)
+                || isOverridden(MultiClientBot.class, "inlineQueryParse", InlineQuery.class, BotUser.class)) {
+            types |= MethodType.INLINE_QUERY.mask();
+        }
+        return types;
+    }
+
+    protected BotUser getClientById(long id){
+        return botUsers.get(id);
+    }
+
+    protected BotUser getOrCreateClient(@NotNull User user){
+        while (true) {
+            BotUser botUser = botUsers.get(user.id());
+            if (botUser == null) {
+                botUser = botUsers.computeIfAbsent(user.id(), id -> createClient(user));
+                if (maxUsers > 0 && botUsers.size() > maxUsers) {
+                    evictExcessUsers(botUser);
+                }
+            }
+            else {
+                botUser.touch();
+            }
+            if (!botUser.isRetired()) {
                 return botUser;
             }
+            // the user is being removed, replace it instead of waiting for the removal
+            botUsers.remove(user.id(), botUser);
         }
-        return null;
+    }
+
+    /**
+     * Adds a task to the user, looking the user up again if it was removed from the bot between the lookup and
+     * adding the task, so the task is never queued on a removed user.
+     *
+     * @param user The Telegram user.
+     * @param task The task to be added.
+     * @param addStrategy The strategy to apply to the task.
+     * @return {@code true} if the task was queued, {@code false} if it was ignored by the strategy.
+     * @see BotUser#addTask(BotRunnable, OnAddStrategy)
+     */
+    protected boolean addTask(@NotNull User user, @NotNull BotRunnable task, @NotNull OnAddStrategy addStrategy){
+        while (true) {
+            BotUser botUser = getOrCreateClient(user);
+            try {
+                return botUser.addTask(task, addStrategy);
+            } catch (RejectedExecutionException e) {
+                if (!botUser.isRetired()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private BotUser createClient(User user){
+        SessionSnapshot snapshot = this.snapshot;
+        if (snapshot != null) {
+            snapshot.restore(user.id());
+        }
+        return new BotUser(user, getUserExecutor(), getSessionStore());
+    }
+
+    /**
+     * Passes the id of every user known to the bot to the consumer: the users currently kept, the users with a session
+     * in the session store, and the users with a session in the snapshot. An id may be passed more than once.
+     *
+     * @param consumer The consumer of the user ids.
+     */
+    public void forEachUserId(@NotNull LongConsumer consumer){
+        botUsers.forEach((id, botUser) -> consumer.accept(id));
+        getSessionStore().forEachUserId(consumer);
+        SessionSnapshot snapshot = this.snapshot;
+        if (snapshot != null) {
+            snapshot.forEachUserId(consumer);
+        }
+    }
+
+    /**
+     * Starts sending a message to every user known to the bot through its send scheduler, or resumes the broadcast
+     * if the directory holds one which did not complete. The recipients of a new broadcast are collected with
+     * {@link #forEachUserId(LongConsumer)}.
+     *
+     * @param directory The directory in which the progress of the broadcast is stored.
+     * @param message The function creating the message for a user id.
+     * @return The started broadcast job.
+     * @throws IOException If the files of the job cannot be read or written.
+     */
+    @NotNull
+    public BroadcastJob broadcast(@NotNull Path directory, @NotNull LongFunction<? extends BaseRequest<?, ?>> message) throws IOException {
+        BroadcastJob job = BroadcastJob.open(directory, this::forEachUserId);
+        job.start(getSendScheduler(), message);
+        return job;
+    }
+
+    /**
+     * Returns the number of users currently kept by the bot.
+     *
+     * @return The number of resident users.
+     */
+    public int getResidentUserCount(){
+        return botUsers.size();
+    }
+
+    /**
+     * Returns the number of users removed because they were idle for longer than the idle timeout.
+     *
+     * @return The number of expired users.
+     */
+    public long getExpiredUserCount(){
+        return expiredUsers.sum();
+    }
+
+    /**
+     * Returns the number of users removed because the maximum number of users was exceeded.
+     *
+     * @return The number of evicted users.
+     */
+    public long getEvictedUserCount(){
+        return evictedUsers.sum();
+    }
+
+    /**
+     * Removes the least recently active idle user of a random sample until the number of users is within the limit.
+     * Gives up after a few samples without an idle candidate, so busy users can temporarily exceed the limit.
+     */
+    private void evictExcessUsers(BotUser keep){
+        BotUser[] candidate = new BotUser[1];
+        for (int attempt = 0; attempt < EVICTION_SAMPLES && botUsers.size() > maxUsers; attempt++) {
+            candidate[0] = null;
+            botUsers.sample(EVICTION_SAMPLES, (id, botUser) -> {
+                if (botUser != keep && !botUser.isBusy()
+                        && (candidate[0] == null || botUser.getLastAccessTime() - candidate[0].getLastAccessTime() < 0)) {
+                    candidate[0] = botUser;
+                }
+            });
+            if (candidate[0] != null && evict(candidate[0], false)) {
+                attempt = -1;
+            }
+        }
+    }
+
+    /**
+     * Removes the users which have been idle for longer than the idle timeout.
+     */
+    private void removeExpiredUsers(){
+        long timeout = userIdleTimeout;
+        if (timeout <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        botUsers.forEach((id, botUser) -> {
+            if (now - botUser.getLastAccessTime() > timeout && !botUser.isBusy()) {
+                evict(botUser, true);
+            }
+        });
+    }
+
+    private boolean evict(BotUser botUser, boolean expired){
+        // retiring fails if a task was added since the user was chosen, and stops tasks from being added after it
+        if (botUsers.get(botUser.getId()) != botUser || !botUser.getTasks().retire()) {
+            return false;
+        }
+        botUsers.remove(botUser.getId(), botUser);
+        (expired ? expiredUsers : evictedUsers).increment();
+        onUserEvicted(botUser, expired);
+        return true;
+    }
+
+    private synchronized void scheduleSweep(){
+        long interval = Math.min(Math.max(userIdleTimeout / 4, MIN_SWEEP_INTERVAL), MAX_SWEEP_INTERVAL);
+        sweep = TimingWheel.getDefault().schedule(() -> TaskDeque.getDefaultExecutor().execute(() -> {
+            try {
+                removeExpiredUsers();
+            } finally {
+                if (userIdleTimeout > 0) {
+                    scheduleSweep();
+                }
+            }
+        }), interval, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void scheduleSnapshot(){
+        snapshotWrite = TimingWheel.getDefault().schedule(() -> TaskDeque.getDefaultExecutor().execute(() -> {
+            try {
+                snapshot.write();
+            } catch (IOException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                if (snapshotInterval > 0) {
+                    scheduleSnapshot();
+                }
+            }
+        }), snapshotInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the store holding the sessions of the users of the bot. Bots override it to keep
+     * their sessions apart from other bots of the same process. A configured snapshot is opened from
+     * {@link #initComponents()}, so overrides may be called before the bot is constructed.
+     *
+     * @return The session store, {@link SessionStore#getDefault()} unless overridden.
+     */
+    protected SessionStore getSessionStore(){
+        return SessionStore.getDefault();
+    }
+
+    protected Executor getUserExecutor(){
+        Executor executor = userExecutor;
+        if (executor == null) {
+            synchronized (botUsers) {
+                executor = userExecutor;
+                if (executor == null) {
+                    if (getConfiguration() != null && getConfiguration().isVirtualThreads()) {
+                        executor = ExecutorUtil.newVirtualThreadExecutor(USER_THREAD_NAME_PREFIX);
+                    }
+                    if (executor == null) {
+                        executor = TaskDeque.getDefaultExecutor();
+                    }
+                    userExecutor = executor;
+                }
+            }
+        }
+        return executor;
     }
 
 }
@@ -1,6 +1,7 @@
 package org.fbs.mcb.data.meta;
 
 import com.pengrad.telegrambot.model.*;
+import org.fbs.mcb.data.MethodType;
 import org.fbs.mcb.data.entity.Bot;
 import org.fbs.mcb.util.MethodMapper;
 import org.jetbrains.annotations.NotNull;
@@ -78,6 +79,32 @@ final public class Constants {
             Bot.class
     };
     
+    /**
+     * This method returns the array of parameter classes that methods of the specified type can accept.
+     *
+     * @param type The type of the bot method.
+     * @return The parameter set of the method type, in the order the arguments are passed to the method.
+     */
+    @NotNull
+    public static Class<?>[] getParameters(@NotNull MethodType type){
+        switch (type){
+            case UPDATE:
+                return UPDATE_PARAMETERS;
+            case MESSAGE:
+                return MESSAGE_PARAMETERS;
+            case START:
+                return START_PARAMETERS;
+            case ENTITIES:
+                return ENTITIES_PARAMETERS;
+            case CALLBACK_QUERY:
+                return CALLBACK_QUERY_PARAMETERS;
+            case INLINE_QUERY:
+                return INLINE_QUERY_PARAMETERS;
+            default:
+                return COMMAND_PARAMETERS;
+        }
+    }
+
     /**
      * This method returns an array of unique parameter classes used in the bot's event handling methods.
      * The array is constructed by merging the parameter arrays of different event handling methods.
@@ -1,11 +1,53 @@
 package org.fbs.mcb.data.user;
 
+import org.fbs.mcb.annotation.UserMapping;
+import org.fbs.mcb.util.TimingWheel;
+
+import java.util.concurrent.TimeUnit;
+
 /**
- * This abstract class represents a runnable task for a bot. It provides methods to manage and execute the task in a separate thread.
+ * This abstract class represents a runnable task for a bot. It provides methods to manage and execute the task on a shared executor.
+ * <p>
+ * Tasks are usually added to the {@link TaskDeque} of a user, which runs them one after another.
+ * A task class annotated with {@link UserMapping} gets the timeout and the timeout strategy of the annotation:
+ * once the task has run for longer than the timeout, it is interrupted, and with {@link OnTimeoutStrategy#THROW_EXCEPTION}
+ * a {@link TaskTimeoutException} is reported when it returns. Timeouts are tracked by the default {@link TimingWheel}.
  */
 public abstract class BotRunnable {
 
-    private Thread thread;
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static final ClassValue<UserMapping> MAPPINGS = new ClassValue<>() {
+        @Override
+        protected UserMapping computeValue(Class<?> type) {
+            return type.getAnnotation(UserMapping.class);
+        }
+    };
+
+    private Object[] args = NO_ARGS;
+    private Thread runner;
+    private boolean started;
+    private boolean done;
+    private volatile boolean interrupted;
+    private volatile boolean timedOut;
+
+    private long timeout;
+    private OnTimeoutStrategy timeoutStrategy;
+
+    /**
+     * Constructs a new BotRunnable with the timeout and the timeout strategy of the {@link UserMapping}
+     * annotation of its class, or without a timeout if the class is not annotated.
+     */
+    protected BotRunnable() {
+        UserMapping mapping = getUserMapping();
+        if (mapping != null) {
+            timeout = mapping.timeout();
+            timeoutStrategy = mapping.onTimeout();
+        }
+        else {
+            timeoutStrategy = OnTimeoutStrategy.THROW_EXCEPTION;
+        }
+    }
 
     /**
      * This method should be implemented by subclasses to define the logic of the bot's task.
@@ -15,40 +57,85 @@ public abstract class BotRunnable {
     public abstract void invoke(Object... args);
 
     /**
-     * Creates a new thread and sets it to execute the {@link #invoke(Object...)} method with the provided arguments.
+     * Sets the arguments to be passed to the {@link #invoke(Object...)} method and prepares the task for a new execution.
      *
      * @param args The arguments to be passed to the {@link #invoke(Object...)} method.
      */
-    final public void setThread(Object ... args){
-        thread = new Thread(){
-            @Override
-            public void run() {
-                invoke(args);
-            }
-        };
+    final public synchronized void setThread(Object ... args){
+        this.args = args;
+        started = false;
+        done = false;
+        interrupted = false;
+        timedOut = false;
     }
 
     /**
-     * Starts the execution of the task in the separate thread.
+     * Sets the maximum time the task may run, replacing the values of the {@link UserMapping} annotation.
+     *
+     * @param timeout The timeout in milliseconds, {@code 0} or less for no timeout.
+     * @param strategy The strategy applied when the task times out.
+     */
+    final public synchronized void setTimeout(long timeout, OnTimeoutStrategy strategy){
+        this.timeout = timeout;
+        this.timeoutStrategy = strategy;
+    }
+
+    /**
+     * Returns the maximum time the task may run.
+     *
+     * @return The timeout in milliseconds, {@code 0} or less if the task has no timeout.
+     */
+    final public long getTimeout(){
+        return timeout;
+    }
+
+    /**
+     * Returns the strategy applied when the task times out.
+     *
+     * @return The timeout strategy.
+     */
+    final public OnTimeoutStrategy getTimeoutStrategy(){
+        return timeoutStrategy;
+    }
+
+    /**
+     * Returns the {@link UserMapping} annotation of the class of this task.
+     *
+     * @return The annotation, or {@code null} if the class is not annotated.
+     */
+    final public UserMapping getUserMapping(){
+        return MAPPINGS.get(getClass());
+    }
+
+    /**
+     * Starts the execution of the task on the default executor of {@link TaskDeque}.
+     *
+     * @see TaskDeque#getDefaultExecutor()
      */
     final public void run(){
-        thread.start();
+        queued();
+        TaskDeque.getDefaultExecutor().execute(this::execute);
     }
 
     /**
-     * Waits for the task to finish execution.
+     * Waits for the task to finish execution. Returns immediately if the task was not started.
      *
      * @throws InterruptedException If the current thread is interrupted while waiting for the task to finish.
      */
-    final public void join() throws InterruptedException {
-        thread.join();
+    final public synchronized void join() throws InterruptedException {
+        while (started && !done) {
+            wait();
+        }
     }
 
     /**
-     * Interrupts the task's execution.
+     * Interrupts the task's execution. A task which has not started yet will not run.
      */
-    final public void interrupt(){
-        thread.interrupt();
+    final public synchronized void interrupt(){
+        interrupted = true;
+        if (runner != null) {
+            runner.interrupt();
+        }
     }
 
     /**
@@ -57,7 +144,85 @@ public abstract class BotRunnable {
      * @return {@code true} if the task's execution has been interrupted; {@code false} otherwise.
      */
     final public boolean isInterrupted(){
-        return thread.isInterrupted();
+        return interrupted;
+    }
+
+    /**
+     * Checks if the task's execution was interrupted because it exceeded its timeout.
+     *
+     * @return {@code true} if the task timed out; {@code false} otherwise.
+     */
+    final public boolean isTimedOut(){
+        return timedOut;
+    }
+
+    /**
+     * Marks the task as started, so {@link #join()} waits for it.
+     */
+    final synchronized void queued(){
+        started = true;
+        done = false;
+    }
+
+    /**
+     * Cancels the task before it runs.
+     */
+    final synchronized void cancel(){
+        interrupted = true;
+        finish();
+    }
+
+    /**
+     * Interrupts the task because it exceeded its timeout, called by the timer thread.
+     */
+    private void onTimeout(){
+        timedOut = true;
+        interrupt();
+    }
+
+    /**
+     * Runs the task on the current thread unless it was interrupted before. Exceptions thrown by the task are
+     * passed to the uncaught exception handler of the current thread, and the interrupt status of the thread is cleared
+     * afterwards so it does not leak into the next task executed by the same thread.
+     */
+    final void execute(){
+        Object[] args;
+        long timeout;
+        synchronized (this) {
+            if (interrupted) {
+                finish();
+                return;
+            }
+            runner = Thread.currentThread();
+            args = this.args;
+            timeout = this.timeout;
+        }
+        TimingWheel.Timeout timer = timeout > 0
+                ? TimingWheel.getDefault().schedule(this::onTimeout, timeout, TimeUnit.MILLISECONDS)
+                : null;
+        Thread thread = Thread.currentThread();
+        try {
+            invoke(args);
+        } catch (Throwable e) {
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        } finally {
+            if (timer != null) {
+                timer.cancel();
+            }
+            synchronized (this) {
+                runner = null;
+                finish();
+            }
+            Thread.interrupted();
+        }
+        if (timedOut && timeoutStrategy == OnTimeoutStrategy.THROW_EXCEPTION) {
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, new TaskTimeoutException(this, timeout));
+        }
+    }
+
+    private void finish(){
+        done = true;
+        notifyAll();
     }
 
 }
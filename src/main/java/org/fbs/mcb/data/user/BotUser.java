@@ -1,6 +1,9 @@
 package org.fbs.mcb.data.user;
 
 import com.pengrad.telegrambot.model.User;
+import org.fbs.mcb.annotation.UserMapping;
+
+import java.util.concurrent.Executor;
 
 /**
  * Represents a user in the application.
@@ -11,16 +14,45 @@ public class BotUser {
 
     private final UserThreadSet threadSet;
 
-    private final TaskDeque tasks = new TaskDeque();
+    private final TaskDeque tasks;
+
+    private final Session session;
+
+    private volatile long lastAccessTime = System.nanoTime();
 
     /**
-     * Constructs a new BotUser object.
+     * Constructs a new BotUser object whose tasks run on the default executor of {@link TaskDeque}.
      *
      * @param user The Telegram user associated with this user.
      */
     public BotUser(User user){
+        this(user, null);
+    }
+
+    /**
+     * Constructs a new BotUser object whose tasks run on the given executor.
+     *
+     * @param user The Telegram user associated with this user.
+     * @param executor The executor running the tasks of the user, or {@code null} to use the default executor.
+     */
+    public BotUser(User user, Executor executor){
+        this(user, executor, null);
+    }
+
+    /**
+     * Constructs a new BotUser object whose tasks run on the given executor and whose session is kept in the given store.
+     *
+     * @param user The Telegram user associated with this user.
+     * @param executor The executor running the tasks of the user, or {@code null} to use the default executor.
+     * @param sessionStore The store holding the session of the user, or {@code null} to use the default store.
+     *
+     * @see SessionStore#getDefault()
+     */
+    public BotUser(User user, Executor executor, SessionStore sessionStore){
         this.user = user;
-        threadSet = new UserThreadSet(user.id());
+        tasks = new TaskDeque(executor);
+        threadSet = new UserThreadSet(user.id(), tasks);
+        session = (sessionStore != null ? sessionStore : SessionStore.getDefault()).session(user.id());
     }
 
     /**
@@ -41,13 +73,52 @@ public class BotUser {
      * @param task The task to be added to the queue. This should be an instance of {@link BotRunnable}.
      * @param addStrategy The strategy to determine where in the queue the task should be added.
      *                    This should be an instance of {@link OnAddStrategy}.
+     * @return {@code true} if the task was queued, {@code false} if it was ignored by the strategy.
+     * @throws java.util.concurrent.RejectedExecutionException If the user was removed from its bot, in which case
+     *                                                         the task should be added to the user the bot returns now.
      *
      * @see BotRunnable
      * @see OnAddStrategy
+     * @see TaskDeque#add(BotRunnable, OnAddStrategy)
+     */
+    final public boolean addTask(BotRunnable task, OnAddStrategy addStrategy){
+        return tasks.add(task, addStrategy);
+    }
+
+    /**
+     * Adds a task to the user's task queue with the add strategy of the {@link org.fbs.mcb.annotation.UserMapping}
+     * annotation of the task class, or {@link OnAddStrategy#INTERRUPT} if the class is not annotated.
+     *
+     * @param task The task to be added to the queue.
+     * @return {@code true} if the task was queued, {@code false} if it was ignored by the strategy.
+     * @throws java.util.concurrent.RejectedExecutionException If the user was removed from its bot.
+     *
+     * @see #addTask(BotRunnable, OnAddStrategy)
+     */
+    final public boolean addTask(BotRunnable task){
+        UserMapping mapping = task.getUserMapping();
+        return tasks.add(task, mapping != null ? mapping.onAdd() : OnAddStrategy.INTERRUPT);
+    }
+
+    /**
+     * Returns the task queue of the user.
+     *
+     * @return The task queue of the user.
+     *
+     * @see TaskDeque
+     */
+    final public TaskDeque getTasks(){
+        return tasks;
+    }
+
+    /**
+     * Returns the session of the user, whose values are kept off-heap in a {@link SessionStore}
+     * and survive the removal of this object.
+     *
+     * @return The session of the user.
      */
-    final public void addTask(BotRunnable task, OnAddStrategy addStrategy){
-        tasks.add(task, addStrategy);
-        
+    final public Session session(){
+        return session;
     }
 
     /**
@@ -64,6 +135,41 @@ public class BotUser {
         return threadSet;
     }
 
+    /**
+     * Records that the user was accessed now, which resets the idle time of the user.
+     */
+    final public void touch(){
+        lastAccessTime = System.nanoTime();
+    }
+
+    /**
+     * Returns the time the user was last accessed.
+     *
+     * @return The value of {@link System#nanoTime()} at the last access.
+     */
+    final public long getLastAccessTime(){
+        return lastAccessTime;
+    }
+
+    /**
+     * Checks whether the user has queued or running tasks.
+     *
+     * @return {@code true} if a task of the user is queued or running.
+     */
+    final public boolean isBusy(){
+        return tasks.isActive();
+    }
+
+    /**
+     * Checks whether the user was removed from its bot and rejects new tasks.
+     *
+     * @return {@code true} if the task queue of the user is retired.
+     * @see TaskDeque#retire()
+     */
+    final public boolean isRetired(){
+        return tasks.isRetired();
+    }
+
     /**
      * Returns the ID of the Telegram user associated with this user.
      *
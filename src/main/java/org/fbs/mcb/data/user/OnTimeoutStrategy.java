@@ -7,11 +7,13 @@ public enum OnTimeoutStrategy {
 
     /**
      * Throws an exception when a timeout occurs.
+     * The task is interrupted and a {@link TaskTimeoutException} is reported once it returns.
      */
     THROW_EXCEPTION,
 
     /**
      * Ends the communication when a timeout occurs.
+     * The task is interrupted without reporting an exception, and the tasks queued after it are cancelled.
      */
     END
 
@@ -0,0 +1,132 @@
+package org.fbs.mcb.data.user;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The session of a user, a view of the user's record in a {@link SessionStore}.
+ * <p>
+ * A session holds no data itself, every accessor reads or writes the off-heap record of the user,
+ * so the session outlives the {@link BotUser} it was obtained from.
+ *
+ * @see BotUser#session()
+ */
+public final class Session {
+
+    private final SessionStore store;
+    private final long userId;
+
+    Session(@NotNull SessionStore store, long userId) {
+        this.store = store;
+        this.userId = userId;
+    }
+
+    /**
+     * Returns the store holding the session.
+     *
+     * @return The session store.
+     */
+    @NotNull
+    public SessionStore getStore() {
+        return store;
+    }
+
+    /**
+     * Returns the id of the user the session belongs to.
+     *
+     * @return The id of the user.
+     */
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Checks whether a value was written to the session.
+     *
+     * @return {@code true} if the session has a record in the store.
+     */
+    public boolean exists() {
+        return store.contains(userId);
+    }
+
+    /**
+     * Returns the length of the session record.
+     *
+     * @return The length in bytes.
+     */
+    public int length() {
+        return store.length(userId);
+    }
+
+    public byte getByte(int offset) {
+        return store.getByte(userId, offset);
+    }
+
+    public void putByte(int offset, byte value) {
+        store.putByte(userId, offset, value);
+    }
+
+    public boolean getBoolean(int offset) {
+        return store.getByte(userId, offset) != 0;
+    }
+
+    public void putBoolean(int offset, boolean value) {
+        store.putByte(userId, offset, (byte) (value ? 1 : 0));
+    }
+
+    public int getInt(int offset) {
+        return store.getInt(userId, offset);
+    }
+
+    public void putInt(int offset, int value) {
+        store.putInt(userId, offset, value);
+    }
+
+    public long getLong(int offset) {
+        return store.getLong(userId, offset);
+    }
+
+    public void putLong(int offset, long value) {
+        store.putLong(userId, offset, value);
+    }
+
+    public double getDouble(int offset) {
+        return store.getDouble(userId, offset);
+    }
+
+    public void putDouble(int offset, double value) {
+        store.putDouble(userId, offset, value);
+    }
+
+    @NotNull
+    public byte[] getBytes(int offset, int length) {
+        return store.getBytes(userId, offset, length);
+    }
+
+    public void putBytes(int offset, @NotNull byte[] bytes) {
+        store.putBytes(userId, offset, bytes);
+    }
+
+    /**
+     * @see SessionStore#getString(long, int)
+     */
+    public String getString(int offset) {
+        return store.getString(userId, offset);
+    }
+
+    /**
+     * @see SessionStore#putString(long, int, String)
+     */
+    public void putString(int offset, String value) {
+        store.putString(userId, offset, value);
+    }
+
+    /**
+     * Removes the session record, every value reads as zero afterwards.
+     *
+     * @return {@code true} if the session had a record.
+     */
+    public boolean clear() {
+        return store.remove(userId);
+    }
+
+}
@@ -0,0 +1,596 @@
+package org.fbs.mcb.data.user;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A memory-mapped snapshot of the sessions of a {@link SessionStore}, which survives restarts of the bot.
+ * <p>
+ * The snapshot file is a sequence of segments. Every segment holds records, each with its user id, length and CRC-32C
+ * checksum, followed by an open addressing table of user ids and record offsets, and starts with a checksummed header
+ * which is written last, so a segment torn by a crash is detected and discarded. A full segment holds every session,
+ * an incremental segment only the sessions written and removed since the previous segment. When the incremental
+ * segments grow larger than the full segment, the snapshot is rewritten as a single full segment.
+ * <p>
+ * Opening a snapshot only validates the segment headers and maps the segments, so it takes the same time regardless
+ * of the number of sessions. A session is copied from the mapping into the store when it is first needed,
+ * see {@link #restore(long)}, and its checksum is verified then; sessions with a wrong checksum are skipped.
+ */
+public class SessionSnapshot implements AutoCloseable {
+
+    private static final int MAGIC = 0x4D435353;
+    private static final int FULL = 1;
+
+    private static final int HEADER_SIZE = 48;
+    private static final int HEADER_FLAGS = 4;
+    private static final int HEADER_LENGTH = 8;
+    private static final int HEADER_DATA_LENGTH = 16;
+    private static final int HEADER_ENTRIES = 24;
+    private static final int HEADER_TABLE_CAPACITY = 28;
+    private static final int HEADER_SEQUENCE = 32;
+    private static final int HEADER_CRC = 44;
+
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int TOMBSTONE = -1;
+    private static final int TABLE_ENTRY_SIZE = 16;
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final SessionStore store;
+
+    private FileChannel channel;
+    private volatile Segment[] segments;
+    private long fileEnd;
+    private long sequence;
+    private boolean fullRequired;
+
+    private final LongAdder restored = new LongAdder();
+    private final LongAdder corrupted = new LongAdder();
+
+    private SessionSnapshot(Path file, SessionStore store) {
+        this.file = file;
+        this.store = store;
+    }
+
+    /**
+     * Opens the snapshot file of the store, creating it if it does not exist, and maps its valid segments.
+     * From now on, the store remembers removed sessions until they are written to the snapshot.
+     *
+     * @param file The snapshot file.
+     * @param store The store whose sessions are persisted in the snapshot.
+     * @return The opened snapshot.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    @NotNull
+    public static SessionSnapshot open(@NotNull Path file, @NotNull SessionStore store) throws IOException {
+        SessionSnapshot snapshot = new SessionSnapshot(file, store);
+        snapshot.map();
+        store.trackRemovals();
+        return snapshot;
+    }
+
+    /**
+     * Copies the session of the user from the snapshot into the store, unless the store already holds a session
+     * of the user. Should be called before the session of the user is first accessed after a restart.
+     *
+     * @param userId The id of the user.
+     * @return {@code true} if the session was restored.
+     */
+    public boolean restore(long userId) {
+        Segment[] segments = this.segments;
+        for (int i = segments.length - 1; i >= 0; i--) {
+            ByteBuffer buffer = segments[i].buffer;
+            int record = segments[i].find(userId);
+            if (record == 0) {
+                continue;
+            }
+            if (record < HEADER_SIZE || record > buffer.capacity() - RECORD_HEADER_SIZE) {
+                corrupted.increment();
+                return false;
+            }
+            int length = buffer.getInt(record + 8);
+            if (length == TOMBSTONE) {
+                return false;
+            }
+            if (!verify(buffer, record, userId)) {
+                corrupted.increment();
+                return false;
+            }
+            if (store.load(userId, buffer, record + RECORD_HEADER_SIZE, length)) {
+                restored.increment();
+                return true;
+            }
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * Passes the id of every user with a session in the snapshot to the consumer, whether or not the session was
+     * restored. Users whose session was removed in a later segment are skipped.
+     *
+     * @param consumer The consumer of the user ids.
+     */
+    public void forEachUserId(@NotNull LongConsumer consumer) {
+        Segment[] segments = this.segments;
+        for (int i = segments.length - 1; i >= 0; i--) {
+            Segment segment = segments[i];
+            ByteBuffer buffer = segment.buffer;
+            for (int entry = segment.table; entry <= segment.table + segment.mask * TABLE_ENTRY_SIZE; entry += TABLE_ENTRY_SIZE) {
+                int record = (int) buffer.getLong(entry + 8);
+                if (record == 0) {
+                    continue;
+                }
+                long userId = buffer.getLong(entry);
+                if (record < HEADER_SIZE || record > buffer.capacity() - RECORD_HEADER_SIZE
+                        || buffer.getInt(record + 8) == TOMBSTONE || isOverwritten(segments, i, userId)) {
+                    continue;
+                }
+                consumer.accept(userId);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a segment written after the given one holds a record or a removal of the user.
+     */
+    private static boolean isOverwritten(Segment[] segments, int segment, long userId) {
+        for (int i = segment + 1; i < segments.length; i++) {
+            if (segments[i].find(userId) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the sessions written and removed since the previous write as an incremental segment,
+     * or rewrites the whole snapshot when the incremental segments have grown too large.
+     *
+     * @return The number of bytes written.
+     * @throws IOException If the snapshot cannot be written, the next write rewrites the whole snapshot.
+     */
+    public synchronized long write() throws IOException {
+        Segment[] current = segments;
+        long incremental = 0;
+        for (int i = 1; i < current.length; i++) {
+            incremental += current[i].buffer.capacity();
+        }
+        boolean full = fullRequired || current.length == 0 || current.length >= MAX_SEGMENTS
+                || incremental > current[0].buffer.capacity();
+        return full ? writeFull() : writeIncremental();
+    }
+
+    /**
+     * Rewrites the snapshot as a single full segment holding the sessions of the store and the sessions
+     * of the previous snapshot which have not been restored yet.
+     *
+     * @return The number of bytes written.
+     * @throws IOException If the snapshot cannot be written, the next write rewrites the whole snapshot.
+     */
+    public synchronized long writeFull() throws IOException {
+        fullRequired = true;
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        long written;
+        try (FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SegmentWriter writer = new SegmentWriter(target, 0, sequence + 1, true);
+            writer.drainStore(true);
+            Segment[] previous = segments;
+            for (int i = previous.length - 1; i >= 0; i--) {
+                writer.copyUnknown(previous[i]);
+            }
+            written = writer.finish();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        map();
+        fullRequired = false;
+        return written;
+    }
+
+    private long writeIncremental() throws IOException {
+        fullRequired = true;
+        SegmentWriter writer = new SegmentWriter(channel, fileEnd, sequence + 1, false);
+        writer.drainStore(false);
+        long written = writer.finish();
+        Segment segment = mapSegment(fileEnd, written);
+        Segment[] current = segments;
+        Segment[] appended = Arrays.copyOf(current, current.length + 1);
+        appended[current.length] = segment;
+        segments = appended;
+        fileEnd += written;
+        sequence++;
+        fullRequired = false;
+        return written;
+    }
+
+    /**
+     * Maps the valid segments of the file and truncates a torn segment at its end.
+     */
+    private void map() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        List<Segment> mapped = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            long length = header.getLong(HEADER_LENGTH);
+            int capacity = header.getInt(HEADER_TABLE_CAPACITY);
+            if (header.getInt(0) != MAGIC || header.getInt(HEADER_CRC) != crc(header, HEADER_CRC)
+                    || length > Integer.MAX_VALUE || position + length > size
+                    || capacity <= 0 || Integer.bitCount(capacity) != 1
+                    || length != HEADER_SIZE + header.getLong(HEADER_DATA_LENGTH) + (long) capacity * TABLE_ENTRY_SIZE) {
+                break;
+            }
+            if ((header.getInt(HEADER_FLAGS) & FULL) != 0) {
+                mapped.clear();
+            }
+            mapped.add(mapSegment(position, length));
+            sequence = header.getLong(HEADER_SEQUENCE);
+            position += length;
+        }
+        if (position < size) {
+            channel.truncate(position);
+        }
+        fileEnd = position;
+        segments = mapped.toArray(new Segment[0]);
+    }
+
+    private Segment mapSegment(long position, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return new Segment(buffer);
+    }
+
+    /**
+     * Closes the snapshot file. Restoring sessions from the mapped segments remains possible.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the snapshot file.
+     *
+     * @return The path of the file.
+     */
+    @NotNull
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of valid segments of the snapshot.
+     *
+     * @return The number of segments.
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Returns the number of sessions restored into the store.
+     *
+     * @return The number of restored sessions.
+     */
+    public long getRestoredCount() {
+        return restored.sum();
+    }
+
+    /**
+     * Returns the number of sessions which were not restored because their checksum did not match.
+     *
+     * @return The number of corrupted sessions.
+     */
+    public long getCorruptedCount() {
+        return corrupted.sum();
+    }
+
+    private static boolean verify(ByteBuffer buffer, int record, long userId) {
+        if (buffer.getLong(record) != userId) {
+            return false;
+        }
+        int length = buffer.getInt(record + 8);
+        if (length < 0 || record + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+            return false;
+        }
+        return buffer.getInt(record + 12) == checksum(buffer, record, length);
+    }
+
+    /**
+     * Computes the checksum of a record from its user id, length and contents.
+     */
+    private static int checksum(ByteBuffer buffer, int record, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(record).limit(record + 12));
+        crc.update(buffer.duplicate().position(record + RECORD_HEADER_SIZE).limit(record + RECORD_HEADER_SIZE + length));
+        return (int) crc.getValue();
+    }
+
+    private static int crc(ByteBuffer buffer, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(0).limit(length));
+        return (int) crc.getValue();
+    }
+
+    private static int recordSize(int length) {
+        return RECORD_HEADER_SIZE + ((Math.max(length, 0) + 7) & -8);
+    }
+
+    /**
+     * A mapped segment of the snapshot file.
+     */
+    private static final class Segment {
+
+        private final ByteBuffer buffer;
+        private final int table;
+        private final int mask;
+
+        private Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.table = HEADER_SIZE + (int) buffer.getLong(HEADER_DATA_LENGTH);
+            this.mask = buffer.getInt(HEADER_TABLE_CAPACITY) - 1;
+        }
+
+        /**
+         * Returns the position of the record of the user in the segment, or 0 if the segment has none.
+         */
+        private int find(long userId) {
+            int i = (int) SessionStore.hash(userId) & mask;
+            for (int probes = 0; probes <= mask; probes++, i = (i + 1) & mask) {
+                int entry = table + i * TABLE_ENTRY_SIZE;
+                int record = (int) buffer.getLong(entry + 8);
+                if (record == 0 || buffer.getLong(entry) == userId) {
+                    return record;
+                }
+            }
+            return 0;
+        }
+
+    }
+
+    /**
+     * Writes a segment: the records as they are drained or copied, then the table, and finally the header.
+     * Records drained from the store are collected in memory and written after the stripe is unlocked.
+     */
+    private final class SegmentWriter implements SessionStore.RecordConsumer {
+
+        private final FileChannel target;
+        private final long start;
+        private final long segmentSequence;
+        private final boolean full;
+
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long position = HEADER_SIZE;
+
+        private long[] keys = new long[1024];
+        private long[] offsets = new long[1024];
+        private int entries;
+        private int[] lookup = new int[2048];
+
+        private SegmentWriter(FileChannel target, long start, long segmentSequence, boolean full) {
+            this.target = target;
+            this.start = start;
+            this.segmentSequence = segmentSequence;
+            this.full = full;
+        }
+
+        private void drainStore(boolean all) throws IOException {
+            for (int i = 0; i < store.getStripeCount(); i++) {
+                store.drain(i, all, this);
+                flush();
+            }
+        }
+
+        /**
+         * Copies the records of a previous segment whose users are not in this segment yet,
+         * remembering the removals of the previous segment so older segments do not bring the users back.
+         */
+        private void copyUnknown(Segment segment) throws IOException {
+            ByteBuffer source = segment.buffer;
+            for (int i = 0; i <= segment.mask; i++) {
+                int entry = segment.table + i * TABLE_ENTRY_SIZE;
+                int record = (int) source.getLong(entry + 8);
+                if (record == 0) {
+                    continue;
+                }
+                long userId = source.getLong(entry);
+                if (slot(userId) >= 0) {
+                    continue;
+                }
+                if (record < HEADER_SIZE || record > source.capacity() - RECORD_HEADER_SIZE) {
+                    corrupted.increment();
+                    continue;
+                }
+                int length = source.getInt(record + 8);
+                if (length == TOMBSTONE) {
+                    removed(userId);
+                }
+                else if (verify(source, record, userId)) {
+                    add(userId, position);
+                    write(source.duplicate().position(record).limit(record + recordSize(length)));
+                }
+                else {
+                    corrupted.increment();
+                }
+            }
+        }
+
+        @Override
+        public void removed(long userId) {
+            if (slot(userId) < 0) {
+                add(userId, full ? -1 : position);
+                if (!full) {
+                    ensure(RECORD_HEADER_SIZE);
+                    buffer.putLong(userId).putInt(TOMBSTONE).putInt(0);
+                    position += RECORD_HEADER_SIZE;
+                }
+            }
+        }
+
+        @Override
+        public void record(long userId, ByteBuffer slab, int offset, int length) {
+            int slot = slot(userId);
+            if (slot >= 0) {
+                offsets[slot] = position;
+            }
+            else {
+                add(userId, position);
+            }
+            int size = recordSize(length);
+            ensure(size);
+            int recordStart = buffer.position();
+            buffer.putLong(userId).putInt(length).putInt(0);
+            buffer.put(buffer.position(), slab, offset, length);
+            buffer.position(buffer.position() + length);
+            while (buffer.position() - recordStart < size) {
+                buffer.put((byte) 0);
+            }
+            buffer.putInt(recordStart + 12, checksum(buffer, recordStart, length));
+            position += size;
+        }
+
+        private void ensure(int size) {
+            if (buffer.remaining() < size) {
+                ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + size))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+
+        private void write(ByteBuffer source) throws IOException {
+            flush();
+            position += source.remaining();
+            while (source.hasRemaining()) {
+                target.write(source, start + position - source.remaining());
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            long end = start + position;
+            while (buffer.hasRemaining()) {
+                target.write(buffer, end - buffer.remaining());
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Returns the index of the user in the entry arrays, or -1.
+         */
+        private int slot(long userId) {
+            int mask = lookup.length - 1;
+            for (int i = (int) SessionStore.hash(userId) & mask; lookup[i] != 0; i = (i + 1) & mask) {
+                if (keys[lookup[i] - 1] == userId) {
+                    return lookup[i] - 1;
+                }
+            }
+            return -1;
+        }
+
+        private void add(long userId, long offset) {
+            if (entries == keys.length) {
+                keys = Arrays.copyOf(keys, entries * 2);
+                offsets = Arrays.copyOf(offsets, entries * 2);
+            }
+            keys[entries] = userId;
+            offsets[entries++] = offset;
+            if (entries * 2 > lookup.length) {
+                lookup = new int[lookup.length * 2];
+                for (int i = 0; i < entries; i++) {
+                    index(i);
+                }
+            }
+            else {
+                index(entries - 1);
+            }
+        }
+
+        private void index(int entry) {
+            int mask = lookup.length - 1;
+            int i = (int) SessionStore.hash(keys[entry]) & mask;
+            while (lookup[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            lookup[i] = entry + 1;
+        }
+
+        /**
+         * Writes the table and the header and forces the segment to the disk.
+         *
+         * @return The length of the segment.
+         */
+        private long finish() throws IOException {
+            flush();
+            long dataLength = position - HEADER_SIZE;
+            int live = 0;
+            for (int i = 0; i < entries; i++) {
+                if (offsets[i] >= 0) {
+                    live++;
+                }
+            }
+            int capacity = Integer.highestOneBit(Math.max(4, live * 2 - 1)) << 1;
+            long length = position + (long) capacity * TABLE_ENTRY_SIZE;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot segment of " + length + " bytes exceeds 2 GB");
+            }
+            ByteBuffer table = ByteBuffer.allocate(capacity * TABLE_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < entries; i++) {
+                if (offsets[i] < 0) {
+                    continue;
+                }
+                for (int slot = (int) SessionStore.hash(keys[i]) & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+                    if (table.getLong(slot * TABLE_ENTRY_SIZE + 8) == 0) {
+                        table.putLong(slot * TABLE_ENTRY_SIZE, keys[i]);
+                        table.putLong(slot * TABLE_ENTRY_SIZE + 8, offsets[i]);
+                        break;
+                    }
+                }
+            }
+            write(table);
+            target.force(false);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.putInt(HEADER_FLAGS, full ? FULL : 0);
+            header.putLong(HEADER_LENGTH, length);
+            header.putLong(HEADER_DATA_LENGTH, dataLength);
+            header.putInt(HEADER_ENTRIES, live);
+            header.putInt(HEADER_TABLE_CAPACITY, capacity);
+            header.putLong(HEADER_SEQUENCE, segmentSequence);
+            header.putInt(HEADER_CRC, crc(header, HEADER_CRC));
+            while (header.hasRemaining()) {
+                target.write(header, start + header.position());
+            }
+            target.force(false);
+            return length;
+        }
+
+    }
+
+}
@@ -0,0 +1,843 @@
+package org.fbs.mcb.data.user;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongConsumer;
+
+/**
+ * An off-heap store of per-user session records keyed by the user id.
+ * <p>
+ * Every user has one record of up to {@link #getMaxRecordSize()} bytes, which is read and written with typed accessors
+ * at byte offsets chosen by the bot, like the fields of a struct. Records grow when a value is written past their end,
+ * bytes which were never written read as zero.
+ * <p>
+ * The store is split into stripes by user id. Every stripe keeps its records in direct {@link ByteBuffer} slabs and
+ * its index, an open addressing hash table of user id, address, length and capacity, in a direct buffer as well,
+ * so the sessions of millions of users neither occupy the heap nor are scanned by the garbage collector.
+ * Reads are optimistic and only take the read lock of a stripe if a write interfered, writes lock the stripe.
+ * Records which outgrow their space are moved to the end of the current slab, and the space they leave behind is
+ * reclaimed by compacting the stripe when garbage makes up half of its allocated space.
+ * <p>
+ * Every write stamps the record with the next version of its stripe, which lets a {@link SessionSnapshot}
+ * persist only the records written since its previous snapshot.
+ */
+public class SessionStore {
+
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private static final int ENTRY_SIZE = 32;
+    private static final int KEY = 0;
+    private static final int ADDRESS = 8;
+    private static final int LENGTH = 16;
+    private static final int CAPACITY = 20;
+    private static final int VERSION = 24;
+
+    private static final int MIN_INDEX_ENTRIES = 64;
+    private static final float LOAD_FACTOR = 0.7f;
+    private static final int ALIGNMENT = 8;
+
+    private static volatile SessionStore defaultStore;
+
+    private final Stripe[] stripes;
+    private final int slabSize;
+
+    private volatile boolean trackingRemovals;
+
+    /**
+     * Constructs a new SessionStore with 64 stripes and slabs of 1 MiB.
+     */
+    public SessionStore() {
+        this(DEFAULT_STRIPES, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Constructs a new SessionStore.
+     *
+     * @param stripes The number of stripes, rounded up to a power of two. More stripes allow more concurrent writers.
+     * @param slabSize The size of a slab in bytes, which is also the maximum size of a record.
+     * @throws IllegalArgumentException If the number of stripes or the slab size is not positive.
+     */
+    public SessionStore(int stripes, int slabSize) {
+        if (stripes <= 0 || stripes > 1 << 16) {
+            throw new IllegalArgumentException("The number of stripes must be between 1 and 65536: " + stripes);
+        }
+        if (slabSize < ALIGNMENT) {
+            throw new IllegalArgumentException("Slab size must be at least " + ALIGNMENT + " bytes: " + slabSize);
+        }
+        int count = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[count];
+        this.slabSize = slabSize & -ALIGNMENT;
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Returns the session store shared by users which were not given a store.
+     *
+     * @return The default session store.
+     */
+    @NotNull
+    public static SessionStore getDefault() {
+        SessionStore store = defaultStore;
+        if (store == null) {
+            synchronized (SessionStore.class) {
+                store = defaultStore;
+                if (store == null) {
+                    store = new SessionStore();
+                    defaultStore = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Returns a view of the session of the user.
+     *
+     * @param userId The id of the user.
+     * @return The session of the user.
+     */
+    @NotNull
+    public Session session(long userId) {
+        return new Session(this, userId);
+    }
+
+    /**
+     * Checks whether the user has a session record.
+     *
+     * @param userId The id of the user.
+     * @return {@code true} if a value was written to the session of the user and it was not removed.
+     */
+    public boolean contains(long userId) {
+        Stripe stripe = stripe(userId);
+        long stamp = stripe.lock.readLock();
+        try {
+            return stripe.find(userId) >= 0;
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the length of the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @return The length in bytes, {@code 0} if the user has no record.
+     */
+    public int length(long userId) {
+        Stripe stripe = stripe(userId);
+        long stamp = stripe.lock.readLock();
+        try {
+            int entry = stripe.find(userId);
+            return entry < 0 ? 0 : stripe.index.getInt(entry + LENGTH);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Reads a byte of the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the value in the record.
+     * @return The value, {@code 0} if it was never written.
+     */
+    public byte getByte(long userId, int offset) {
+        return (byte) read(userId, offset, Byte.BYTES);
+    }
+
+    /**
+     * Reads an int of the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the value in the record.
+     * @return The value, {@code 0} if it was never written.
+     */
+    public int getInt(long userId, int offset) {
+        return (int) read(userId, offset, Integer.BYTES);
+    }
+
+    /**
+     * Reads a long of the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the value in the record.
+     * @return The value, {@code 0} if it was never written.
+     */
+    public long getLong(long userId, int offset) {
+        return read(userId, offset, Long.BYTES);
+    }
+
+    /**
+     * Reads a double of the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the value in the record.
+     * @return The value, {@code 0} if it was never written.
+     */
+    public double getDouble(long userId, int offset) {
+        return Double.longBitsToDouble(read(userId, offset, Long.BYTES));
+    }
+
+    /**
+     * Writes a byte to the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the value in the record.
+     * @param value The value.
+     * @throws IllegalArgumentException If the record would exceed the maximum record size.
+     */
+    public void putByte(long userId, int offset, byte value) {
+        write(userId, offset, Byte.BYTES, value);
+    }
+
+    /**
+     * Writes an int to the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the value in the record.
+     * @param value The value.
+     * @throws IllegalArgumentException If the record would exceed the maximum record size.
+     */
+    public void putInt(long userId, int offset, int value) {
+        write(userId, offset, Integer.BYTES, value);
+    }
+
+    /**
+     * Writes a long to the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the value in the record.
+     * @param value The value.
+     * @throws IllegalArgumentException If the record would exceed the maximum record size.
+     */
+    public void putLong(long userId, int offset, long value) {
+        write(userId, offset, Long.BYTES, value);
+    }
+
+    /**
+     * Writes a double to the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the value in the record.
+     * @param value The value.
+     * @throws IllegalArgumentException If the record would exceed the maximum record size.
+     */
+    public void putDouble(long userId, int offset, double value) {
+        write(userId, offset, Long.BYTES, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Reads bytes of the session record of the user. Bytes past the end of the record read as zero.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the first byte in the record.
+     * @param length The number of bytes.
+     * @return The bytes.
+     */
+    @NotNull
+    public byte[] getBytes(long userId, int offset, int length) {
+        checkOffset(offset, length);
+        byte[] bytes = new byte[length];
+        Stripe stripe = stripe(userId);
+        long stamp = stripe.lock.readLock();
+        try {
+            stripe.readBytes(userId, offset, bytes);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes bytes to the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the first byte in the record.
+     * @param bytes The bytes.
+     * @throws IllegalArgumentException If the record would exceed the maximum record size.
+     */
+    public void putBytes(long userId, int offset, @NotNull byte[] bytes) {
+        checkOffset(offset, bytes.length);
+        Stripe stripe = stripe(userId);
+        long stamp = stripe.lock.writeLock();
+        try {
+            ByteBuffer slab = stripe.reserve(userId, offset + bytes.length);
+            int position = stripe.reservedPosition + offset;
+            for (int i = 0; i < bytes.length; i++) {
+                slab.put(position + i, bytes[i]);
+            }
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #putString(long, int, String)}.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the string in the record.
+     * @return The string, or {@code null} if no string was written at the offset.
+     */
+    public String getString(long userId, int offset) {
+        checkOffset(offset, Integer.BYTES);
+        Stripe stripe = stripe(userId);
+        long stamp = stripe.lock.readLock();
+        try {
+            int length = (int) stripe.read(userId, offset, Integer.BYTES);
+            if (length <= 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            stripe.readBytes(userId, offset + Integer.BYTES, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Writes a string to the session record of the user, as its UTF-8 length followed by its UTF-8 bytes.
+     * The string occupies a variable number of bytes, so it should be the last value of the record.
+     *
+     * @param userId The id of the user.
+     * @param offset The offset of the string in the record.
+     * @param value The string, or {@code null}.
+     * @throws IllegalArgumentException If the record would exceed the maximum record size.
+     */
+    public void putString(long userId, int offset, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[Integer.BYTES + bytes.length];
+        ByteBuffer.wrap(record).putInt(value == null ? 0 : bytes.length + 1).put(bytes);
+        putBytes(userId, offset, record);
+    }
+
+    /**
+     * Removes the session record of the user.
+     *
+     * @param userId The id of the user.
+     * @return {@code true} if the user had a record.
+     */
+    public boolean remove(long userId) {
+        Stripe stripe = stripe(userId);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return stripe.remove(userId);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Passes the id of every user with a session record to the consumer. The ids of a stripe are copied while
+     * it is locked and passed after it was unlocked, so the consumer may access the store.
+     *
+     * @param consumer The consumer of the user ids.
+     */
+    public void forEachUserId(@NotNull LongConsumer consumer) {
+        for (Stripe stripe : stripes) {
+            long[] userIds;
+            long stamp = stripe.lock.readLock();
+            try {
+                userIds = new long[stripe.size];
+                int count = 0;
+                for (int entry = 0; entry < stripe.index.capacity(); entry += ENTRY_SIZE) {
+                    if (stripe.index.getInt(entry + CAPACITY) != 0) {
+                        userIds[count++] = stripe.index.getLong(entry + KEY);
+                    }
+                }
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+            for (long userId : userIds) {
+                consumer.accept(userId);
+            }
+        }
+    }
+
+    /**
+     * Compacts every stripe which contains garbage, moving its records into new slabs.
+     */
+    public void compact() {
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.writeLock();
+            try {
+                if (stripe.garbageBytes > 0) {
+                    stripe.compact(0);
+                }
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of session records.
+     *
+     * @return The number of records.
+     */
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the off-heap memory used by the slabs and indexes of the store.
+     *
+     * @return The number of bytes.
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += (long) stripe.slabCount * slabSize + stripe.index.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the space of moved and removed records which has not been reclaimed by compaction yet.
+     *
+     * @return The number of bytes.
+     */
+    public long getGarbageBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.garbageBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the maximum size of a record.
+     *
+     * @return The maximum record size in bytes.
+     */
+    public int getMaxRecordSize() {
+        return slabSize;
+    }
+
+    /**
+     * Starts remembering the ids of removed records until they are drained, so snapshots can persist the removals.
+     */
+    void trackRemovals() {
+        trackingRemovals = true;
+    }
+
+    int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Passes the records of a stripe written since the previous drain, or all of its records, and the ids of the
+     * records removed since the previous drain to the consumer, and marks them as persisted. The stripe is locked
+     * while the consumer runs, so it should only copy the records.
+     *
+     * @param stripeIndex The index of the stripe.
+     * @param all {@code true} to pass all records, {@code false} to pass the records written since the previous drain.
+     * @param consumer The consumer of the records.
+     */
+    void drain(int stripeIndex, boolean all, @NotNull RecordConsumer consumer) {
+        Stripe stripe = stripes[stripeIndex];
+        long stamp = stripe.lock.writeLock();
+        try {
+            stripe.drain(all, consumer);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Creates the record of the user from a persisted copy, unless the user already has a record or the record
+     * was removed since the previous drain. The record is not passed to the next incremental drain.
+     *
+     * @param userId The id of the user.
+     * @param source The buffer holding the record.
+     * @param position The position of the record in the buffer.
+     * @param length The length of the record.
+     * @return {@code true} if the record was created.
+     */
+    boolean load(long userId, @NotNull ByteBuffer source, int position, int length) {
+        checkOffset(0, length);
+        Stripe stripe = stripe(userId);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return stripe.load(userId, source, position, length);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    private long read(long userId, int offset, int width) {
+        checkOffset(offset, width);
+        Stripe stripe = stripe(userId);
+        long stamp = stripe.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                long value = stripe.read(userId, offset, width);
+                if (stripe.lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException ignored) {
+                // the stripe was modified while reading, retried under the read lock
+            }
+        }
+        stamp = stripe.lock.readLock();
+        try {
+            return stripe.read(userId, offset, width);
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    private void write(long userId, int offset, int width, long value) {
+        checkOffset(offset, width);
+        Stripe stripe = stripe(userId);
+        long stamp = stripe.lock.writeLock();
+        try {
+            ByteBuffer slab = stripe.reserve(userId, offset + width);
+            int position = stripe.reservedPosition + offset;
+            switch (width) {
+                case Byte.BYTES:
+                    slab.put(position, (byte) value);
+                    break;
+                case Integer.BYTES:
+                    slab.putInt(position, (int) value);
+                    break;
+                default:
+                    slab.putLong(position, value);
+                    break;
+            }
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    private void checkOffset(int offset, int length) {
+        if (offset < 0 || length < 0 || (long) offset + length > slabSize) {
+            throw new IllegalArgumentException("Offset " + offset + " and length " + length
+                    + " exceed the maximum record size of " + slabSize + " bytes");
+        }
+    }
+
+    private Stripe stripe(long userId) {
+        return stripes[(int) (hash(userId) >>> 40) & (stripes.length - 1)];
+    }
+
+    static long hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static int align(int size) {
+        return Math.max(ALIGNMENT, (size + ALIGNMENT - 1) & -ALIGNMENT);
+    }
+
+    /**
+     * Receives the records and removals drained from a stripe.
+     */
+    interface RecordConsumer {
+
+        void removed(long userId);
+
+        void record(long userId, ByteBuffer slab, int position, int length);
+
+    }
+
+    /**
+     * A part of the store with its own index, slabs and lock. All fields are guarded by the lock,
+     * optimistic readers validate the stamp after reading them.
+     */
+    private final class Stripe {
+
+        private final StampedLock lock = new StampedLock();
+
+        private ByteBuffer index = ByteBuffer.allocateDirect(MIN_INDEX_ENTRIES * ENTRY_SIZE);
+        private int indexMask = MIN_INDEX_ENTRIES - 1;
+        private int size;
+
+        private ByteBuffer[] slabs = new ByteBuffer[4];
+        private int slabCount;
+        private int slabPosition;
+        private long allocatedBytes;
+        private long garbageBytes;
+
+        private long version;
+        private long drainedVersion;
+        private long[] removed;
+        private int removedCount;
+
+        /**
+         * The position of the record reserved by the last call of {@link #reserve(long, int)} in the returned slab.
+         */
+        private int reservedPosition;
+
+        /**
+         * Returns the position of the index entry of the user, or -1 if the user has no record.
+         */
+        private int find(long userId) {
+            ByteBuffer index = this.index;
+            int mask = indexMask;
+            for (int i = (int) hash(userId) & mask; ; i = (i + 1) & mask) {
+                int entry = i * ENTRY_SIZE;
+                if (index.getInt(entry + CAPACITY) == 0) {
+                    return -1;
+                }
+                if (index.getLong(entry + KEY) == userId) {
+                    return entry;
+                }
+            }
+        }
+
+        private long read(long userId, int offset, int width) {
+            int entry = find(userId);
+            if (entry < 0 || offset + width > index.getInt(entry + LENGTH)) {
+                return 0;
+            }
+            long address = index.getLong(entry + ADDRESS);
+            ByteBuffer slab = slabs[(int) (address >>> 32)];
+            int position = (int) address + offset;
+            switch (width) {
+                case Byte.BYTES:
+                    return slab.get(position);
+                case Integer.BYTES:
+                    return slab.getInt(position);
+                default:
+                    return slab.getLong(position);
+            }
+        }
+
+        private void readBytes(long userId, int offset, byte[] bytes) {
+            int entry = find(userId);
+            if (entry < 0) {
+                return;
+            }
+            int available = Math.min(bytes.length, index.getInt(entry + LENGTH) - offset);
+            long address = index.getLong(entry + ADDRESS);
+            ByteBuffer slab = slabs[(int) (address >>> 32)];
+            int position = (int) address + offset;
+            for (int i = 0; i < available; i++) {
+                bytes[i] = slab.get(position + i);
+            }
+        }
+
+        /**
+         * Makes sure the record of the user exists and is at least the specified length, creating, growing or moving it
+         * as necessary. Must be called with the write lock held.
+         *
+         * @return The slab of the record, the position of the record is stored in {@link #reservedPosition}.
+         */
+        private ByteBuffer reserve(long userId, int length) {
+            int entry = find(userId);
+            if (entry < 0) {
+                long address = allocate(align(length), 0);
+                entry = insert(userId, address, align(length));
+            }
+            else if (index.getInt(entry + CAPACITY) < length) {
+                int capacity = Math.min(slabSize, align(Math.max(length, index.getInt(entry + CAPACITY) * 2)));
+                long address = allocate(capacity, capacity);
+                entry = find(userId);
+                move(entry, address, capacity);
+            }
+            if (index.getInt(entry + LENGTH) < length) {
+                index.putInt(entry + LENGTH, length);
+            }
+            index.putLong(entry + VERSION, ++version);
+            long address = index.getLong(entry + ADDRESS);
+            reservedPosition = (int) address;
+            return slabs[(int) (address >>> 32)];
+        }
+
+        /**
+         * Allocates space at the end of the current slab. When a new slab is needed and garbage makes up
+         * half of the allocated space, the stripe is compacted first.
+         *
+         * @param capacity The aligned size of the space.
+         * @param reserve Additional space which must be left in the slab after compaction, for a record being moved.
+         * @return The address of the space.
+         */
+        private long allocate(int capacity, int reserve) {
+            if (slabCount == 0 || slabPosition + capacity > slabSize) {
+                if (garbageBytes > 0 && garbageBytes * 2 >= allocatedBytes) {
+                    compact(reserve);
+                }
+            }
+            return bump(capacity);
+        }
+
+        private long bump(int capacity) {
+            if (slabCount == 0 || slabPosition + capacity > slabSize) {
+                if (slabCount == slabs.length) {
+                    slabs = Arrays.copyOf(slabs, slabs.length * 2);
+                }
+                slabs[slabCount++] = ByteBuffer.allocateDirect(slabSize);
+                slabPosition = 0;
+            }
+            long address = ((long) (slabCount - 1) << 32) | slabPosition;
+            slabPosition += capacity;
+            allocatedBytes += capacity;
+            return address;
+        }
+
+        private void move(int entry, long address, int capacity) {
+            long oldAddress = index.getLong(entry + ADDRESS);
+            int length = index.getInt(entry + LENGTH);
+            copy(slabs[(int) (oldAddress >>> 32)], (int) oldAddress, slabs[(int) (address >>> 32)], (int) address, length);
+            garbageBytes += index.getInt(entry + CAPACITY);
+            index.putLong(entry + ADDRESS, address);
+            index.putInt(entry + CAPACITY, capacity);
+        }
+
+        /**
+         * Copies the live records into new slabs, shrinking their capacity to their length, and drops the old slabs.
+         *
+         * @param reserve Space which must be left in the last slab, so the caller does not immediately need another slab.
+         */
+        private void compact(int reserve) {
+            ByteBuffer[] oldSlabs = slabs;
+            slabs = new ByteBuffer[Math.max(4, slabCount)];
+            slabCount = 0;
+            slabPosition = 0;
+            allocatedBytes = 0;
+            garbageBytes = 0;
+            for (int entry = 0; entry < index.capacity(); entry += ENTRY_SIZE) {
+                if (index.getInt(entry + CAPACITY) == 0) {
+                    continue;
+                }
+                int length = index.getInt(entry + LENGTH);
+                int capacity = align(length);
+                long oldAddress = index.getLong(entry + ADDRESS);
+                long address = bump(capacity);
+                copy(oldSlabs[(int) (oldAddress >>> 32)], (int) oldAddress, slabs[(int) (address >>> 32)], (int) address, length);
+                index.putLong(entry + ADDRESS, address);
+                index.putInt(entry + CAPACITY, capacity);
+            }
+            if (slabCount > 0 && slabPosition + reserve > slabSize) {
+                slabPosition = slabSize;
+            }
+        }
+
+        private void copy(ByteBuffer from, int fromPosition, ByteBuffer to, int toPosition, int length) {
+            int i = 0;
+            for (; i + Long.BYTES <= length; i += Long.BYTES) {
+                to.putLong(toPosition + i, from.getLong(fromPosition + i));
+            }
+            for (; i < length; i++) {
+                to.put(toPosition + i, from.get(fromPosition + i));
+            }
+        }
+
+        private int insert(long userId, long address, int capacity) {
+            if (size + 1 > (indexMask + 1) * LOAD_FACTOR) {
+                resizeIndex();
+            }
+            int entry = freeEntry(index, indexMask, userId);
+            index.putLong(entry + KEY, userId);
+            index.putLong(entry + ADDRESS, address);
+            index.putInt(entry + LENGTH, 0);
+            index.putInt(entry + CAPACITY, capacity);
+            size++;
+            return entry;
+        }
+
+        private int freeEntry(ByteBuffer index, int mask, long userId) {
+            for (int i = (int) hash(userId) & mask; ; i = (i + 1) & mask) {
+                if (index.getInt(i * ENTRY_SIZE + CAPACITY) == 0) {
+                    return i * ENTRY_SIZE;
+                }
+            }
+        }
+
+        private void resizeIndex() {
+            int entries = (indexMask + 1) * 2;
+            ByteBuffer resized = ByteBuffer.allocateDirect(entries * ENTRY_SIZE);
+            for (int entry = 0; entry < index.capacity(); entry += ENTRY_SIZE) {
+                if (index.getInt(entry + CAPACITY) != 0) {
+                    int target = freeEntry(resized, entries - 1, index.getLong(entry + KEY));
+                    for (int i = 0; i < ENTRY_SIZE; i += Integer.BYTES) {
+                        resized.putInt(target + i, index.getInt(entry + i));
+                    }
+                }
+            }
+            index = resized;
+            indexMask = entries - 1;
+        }
+
+        /**
+         * Removes the entry of the user, shifting the following entries of its probe sequence back,
+         * so the index never contains tombstones.
+         */
+        private boolean remove(long userId) {
+            int entry = find(userId);
+            if (entry < 0) {
+                return false;
+            }
+            garbageBytes += index.getInt(entry + CAPACITY);
+            size--;
+            if (trackingRemovals) {
+                if (removed == null) {
+                    removed = new long[16];
+                }
+                else if (removedCount == removed.length) {
+                    removed = Arrays.copyOf(removed, removedCount * 2);
+                }
+                removed[removedCount++] = userId;
+            }
+            int hole = entry / ENTRY_SIZE;
+            for (int i = (hole + 1) & indexMask; index.getInt(i * ENTRY_SIZE + CAPACITY) != 0; i = (i + 1) & indexMask) {
+                int home = (int) hash(index.getLong(i * ENTRY_SIZE + KEY)) & indexMask;
+                if (((i - home) & indexMask) >= ((i - hole) & indexMask)) {
+                    for (int j = 0; j < ENTRY_SIZE; j += Integer.BYTES) {
+                        index.putInt(hole * ENTRY_SIZE + j, index.getInt(i * ENTRY_SIZE + j));
+                    }
+                    hole = i;
+                }
+            }
+            index.putInt(hole * ENTRY_SIZE + CAPACITY, 0);
+            return true;
+        }
+
+        private void drain(boolean all, RecordConsumer consumer) {
+            for (int i = 0; i < removedCount; i++) {
+                consumer.removed(removed[i]);
+            }
+            for (int entry = 0; entry < index.capacity(); entry += ENTRY_SIZE) {
+                if (index.getInt(entry + CAPACITY) != 0 && (all || index.getLong(entry + VERSION) > drainedVersion)) {
+                    long address = index.getLong(entry + ADDRESS);
+                    consumer.record(index.getLong(entry + KEY), slabs[(int) (address >>> 32)], (int) address,
+                            index.getInt(entry + LENGTH));
+                }
+            }
+            drainedVersion = version;
+            removedCount = 0;
+            removed = null;
+        }
+
+        private boolean load(long userId, ByteBuffer source, int position, int length) {
+            if (find(userId) >= 0) {
+                return false;
+            }
+            for (int i = 0; i < removedCount; i++) {
+                if (removed[i] == userId) {
+                    return false;
+                }
+            }
+            long address = allocate(align(length), 0);
+            int entry = insert(userId, address, align(length));
+            slabs[(int) (address >>> 32)].put((int) address, source, position, length);
+            index.putInt(entry + LENGTH, length);
+            index.putLong(entry + VERSION, 0);
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,275 @@
+package org.fbs.mcb.data.user;
+
+import org.fbs.mcb.util.ExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A mailbox of the tasks of one user.
+ * <p>
+ * The tasks of a deque are executed one after another on a shared executor, so a user never has more than one
+ * running task and no thread is owned by an idle user. What happens to a new task while another one is queued or running
+ * is defined by its {@link OnAddStrategy}. When a task times out with {@link OnTimeoutStrategy#END},
+ * the tasks queued after it are cancelled.
+ * <p>
+ * An idle deque holds no queue, which keeps it at a few dozen bytes, so millions of users can each have one.
+ * An idle deque can be {@link #retire() retired} when its user is removed, after which it accepts no more tasks.
+ */
+public class TaskDeque {
+
+    private static final String THREAD_NAME_PREFIX = "mcb-task-";
+
+    private static volatile Executor defaultExecutor;
+
+    private final Executor executor;
+
+    private ArrayDeque<BotRunnable> pending;
+    private BotRunnable running;
+    private boolean active;
+    private boolean retired;
+
+    /**
+     * Constructs a new TaskDeque executing its tasks on the default executor.
+     *
+     * @see #getDefaultExecutor()
+     */
+    public TaskDeque() {
+        this(null);
+    }
+
+    /**
+     * Constructs a new TaskDeque executing its tasks on the specified executor.
+     *
+     * @param executor The executor running the tasks, or {@code null} to use the default executor.
+     */
+    public TaskDeque(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a task to the deque according to the strategy.
+     * <ul>
+     *     <li>{@link OnAddStrategy#INTERRUPT} - the queued tasks are cancelled, the running task is interrupted,
+     *     and the new task runs as soon as the running task returns.</li>
+     *     <li>{@link OnAddStrategy#STACK_ADDITION} - the new task runs after all tasks added before it.</li>
+     *     <li>{@link OnAddStrategy#IGNORING_WHILE_IN_PROGRESS} - the new task is ignored if a task is queued or running.</li>
+     * </ul>
+     *
+     * @param task The task to be added.
+     * @param strategy The strategy to apply to the task.
+     * @return {@code true} if the task was queued, {@code false} if it was ignored.
+     * @throws RejectedExecutionException If the deque is retired or the executor does not accept the deque.
+     */
+    public boolean add(@NotNull BotRunnable task, @NotNull OnAddStrategy strategy) {
+        synchronized (this) {
+            if (retired) {
+                throw new RejectedExecutionException("The task deque is retired");
+            }
+            switch (strategy) {
+                case IGNORING_WHILE_IN_PROGRESS:
+                    if (active) {
+                        return false;
+                    }
+                    break;
+                case INTERRUPT:
+                    cancelPending();
+                    if (running != null) {
+                        running.interrupt();
+                    }
+                    break;
+                default:
+                    break;
+            }
+            task.queued();
+            if (pending == null) {
+                pending = new ArrayDeque<>(2);
+            }
+            pending.add(task);
+            if (active) {
+                return true;
+            }
+            active = true;
+        }
+        try {
+            getExecutor().execute(this::drain);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                cancelPending();
+                active = false;
+                pending = null;
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Runs the queued tasks until the deque is empty, then releases the queue.
+     */
+    private void drain() {
+        while (true) {
+            BotRunnable task;
+            synchronized (this) {
+                task = pending == null ? null : pending.poll();
+                running = task;
+                if (task == null) {
+                    pending = null;
+                    active = false;
+                    return;
+                }
+            }
+            task.execute();
+            if (task.isTimedOut() && task.getTimeoutStrategy() == OnTimeoutStrategy.END) {
+                clear();
+            }
+        }
+    }
+
+    /**
+     * Cancels the queued tasks and interrupts the running one.
+     */
+    public synchronized void interrupt() {
+        cancelPending();
+        if (running != null) {
+            running.interrupt();
+        }
+    }
+
+    /**
+     * Cancels the queued tasks, the running task is not affected.
+     */
+    public synchronized void clear() {
+        cancelPending();
+    }
+
+    /**
+     * Interrupts the running task at index {@code 0}, or cancels the queued task at the index.
+     *
+     * @param index The position of the task, counting the running task first.
+     * @return {@code false} if the index does not refer to a queued or running task.
+     */
+    synchronized boolean cancel(int index) {
+        if (running != null) {
+            if (index == 0) {
+                running.interrupt();
+                return true;
+            }
+            index--;
+        }
+        if (pending == null || index < 0 || index >= pending.size()) {
+            return false;
+        }
+        Iterator<BotRunnable> iterator = pending.iterator();
+        for (int i = 0; i < index; i++) {
+            iterator.next();
+        }
+        iterator.next().cancel();
+        iterator.remove();
+        return true;
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            for (BotRunnable task : pending) {
+                task.cancel();
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Retires the deque if it is idle, so it rejects every task added after it. Checking that the deque is idle and
+     * retiring it is atomic, so no task can be added between both.
+     *
+     * @return {@code true} if the deque was retired by this call, {@code false} if a task is queued or running
+     *         or the deque was already retired.
+     */
+    public synchronized boolean retire() {
+        if (active || retired) {
+            return false;
+        }
+        retired = true;
+        return true;
+    }
+
+    /**
+     * Checks whether the deque was retired and rejects new tasks.
+     *
+     * @return {@code true} if the deque is retired.
+     */
+    public synchronized boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Checks whether a task of this deque is queued or running.
+     *
+     * @return {@code true} if the deque is not idle.
+     */
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Returns the number of queued tasks, not including the running task.
+     *
+     * @return The number of queued tasks.
+     */
+    public synchronized int size() {
+        return pending == null ? 0 : pending.size();
+    }
+
+    private Executor getExecutor() {
+        return executor != null ? executor : getDefaultExecutor();
+    }
+
+    /**
+     * Returns the executor shared by all deques created without an executor.
+     * Unless replaced, it is a pool of twice as many named daemon threads as there are available processors (at least four),
+     * which stop after a minute without tasks. Bots whose tasks block for a long time should replace it with a larger executor.
+     *
+     * @return The default executor.
+     */
+    @NotNull
+    public static Executor getDefaultExecutor() {
+        Executor executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (TaskDeque.class) {
+                executor = defaultExecutor;
+                if (executor == null) {
+                    executor = createDefaultExecutor();
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Replaces the executor shared by all deques created without an executor.
+     * Tasks which are already running are not affected.
+     *
+     * @param executor The new default executor.
+     */
+    public static void setDefaultExecutor(@NotNull Executor executor) {
+        defaultExecutor = executor;
+    }
+
+    @NotNull
+    private static ExecutorService createDefaultExecutor() {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                ExecutorUtil.daemonThreadFactory(THREAD_NAME_PREFIX));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+}
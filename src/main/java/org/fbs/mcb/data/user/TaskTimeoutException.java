@@ -0,0 +1,33 @@
+package org.fbs.mcb.data.user;
+
+/**
+ * Thrown when a task runs longer than the timeout of its {@link org.fbs.mcb.annotation.UserMapping}
+ * and its timeout strategy is {@link OnTimeoutStrategy#THROW_EXCEPTION}.
+ * <p>
+ * The exception is passed to the uncaught exception handler of the thread which ran the task, once the task has returned.
+ */
+public class TaskTimeoutException extends RuntimeException {
+
+    private final long timeout;
+
+    /**
+     * Constructs a new TaskTimeoutException.
+     *
+     * @param task The task which timed out.
+     * @param timeout The timeout of the task in milliseconds.
+     */
+    public TaskTimeoutException(BotRunnable task, long timeout) {
+        super("Task " + task.getClass().getName() + " timed out after " + timeout + " ms");
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the timeout the task exceeded.
+     *
+     * @return The timeout in milliseconds.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+}
@@ -3,7 +3,11 @@ package org.fbs.mcb.data.user;
 /**
  * This class represents a client thread that extends the standard Java Thread class.
  * It is responsible for handling client-related operations.
+ *
+ * @deprecated The tasks of a user run in the {@link TaskDeque} of the user instead of threads of their own,
+ *             see {@link UserThreadSet}.
  */
+@Deprecated
 public class UserThread extends Thread {
 
     /**
@@ -1,46 +1,52 @@
 package org.fbs.mcb.data.user;
 
-import java.util.ArrayList;
+import org.jetbrains.annotations.NotNull;
 
 /**
- * This class manages a collection of client threads associated with a specific user.
+ * This class manages the tasks running on behalf of a specific user.
+ * <p>
+ * The tasks are not given threads of their own: they are added to the {@link TaskDeque} of the user, which runs them
+ * one after another on a shared executor, like the mailbox of an actor. An idle set holds no threads and no queue.
  */
 public class UserThreadSet {
 
     private final long userId;
-    private final ArrayList<UserThread> threads = new ArrayList<>();
+    private final TaskDeque mailbox;
 
     /**
-     * Constructs a new instance of ClientThreads for the given user ID.
+     * Constructs a new instance of ClientThreads for the given user ID, with its own mailbox on the default executor.
      *
      * @param userId The unique identifier of the user.
      */
     public UserThreadSet(long userId){
-        this.userId = userId;
+        this(userId, new TaskDeque());
     }
 
     /**
-     * Adds a new client thread to the collection. The new thread is created from the given Runnable.
+     * Constructs a new instance of ClientThreads for the given user ID, running its tasks in the given mailbox.
      *
-     * @param runnable The Runnable to be executed by the new client thread.
+     * @param userId The unique identifier of the user.
+     * @param mailbox The task queue of the user.
      */
-    public void addClientThread(Runnable runnable){
-        threads.add(new UserThread(userId + ""){
-            @Override
-            public void run() {
-                runnable.run();
-            }
-        });
+    public UserThreadSet(long userId, @NotNull TaskDeque mailbox){
+        this.userId = userId;
+        this.mailbox = mailbox;
     }
 
     /**
-     * Retrieves the client thread at the specified index.
+     * Adds a new task to the mailbox of the user. The task runs after the tasks added before it.
      *
-     * @param i The index of the client thread to retrieve.
-     * @return The client thread at the specified index.
+     * @param runnable The Runnable to be executed on behalf of the user.
      */
-    public UserThread get(int i){
-        return threads.get(i);
+    public void addClientThread(Runnable runnable){
+        BotRunnable task = new BotRunnable() {
+            @Override
+            public void invoke(Object... args) {
+                runnable.run();
+            }
+        };
+        task.setThread();
+        mailbox.add(task, OnAddStrategy.STACK_ADDITION);
     }
 
     /**
@@ -53,37 +59,41 @@ public class UserThreadSet {
     }
 
     /**
-     * Removes the specified client thread from the collection.
+     * Returns the mailbox the tasks of the user are running in.
      *
-     * @param thread The client thread to remove.
+     * @return The task queue of the user.
      */
-    public void removeClientThread(UserThread thread){
-        threads.remove(thread);
+    public TaskDeque getMailbox() {
+        return mailbox;
     }
 
     /**
-     * Removes the client thread at the specified index from the collection.
+     * Removes the task at the specified index: the running task at index {@code 0} is interrupted, a queued task is
+     * cancelled.
      *
-     * @param i The index of the client thread to remove.
+     * @param i The index of the task to remove, counting the running task first.
+     * @throws IndexOutOfBoundsException If no task of the user is queued or running at the index.
      */
     public void removeClientThread(int i){
-        threads.remove(i);
+        if (!mailbox.cancel(i)) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for " + size() + " tasks");
+        }
     }
 
     /**
-     * Removes all client threads from the collection.
+     * Cancels the queued tasks of the user and interrupts the running one.
      */
     public void removeAllThreads(){
-        threads.clear();
+        mailbox.interrupt();
     }
 
     /**
-     * Retrieves the number of client threads in the collection.
+     * Retrieves the number of tasks of the user which are queued or running.
      *
-     * @return The number of client threads.
+     * @return The number of tasks.
      */
     public int size(){
-        return threads.size();
+        return mailbox.size() + (mailbox.isActive() ? 1 : 0);
     }
 
 }
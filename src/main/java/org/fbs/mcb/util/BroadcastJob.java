@@ -0,0 +1,613 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.response.BaseResponse;
+import org.fbs.mcb.data.user.TaskDeque;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32C;
+
+/**
+ * Sends a message to every recipient of a list, and resumes where it stopped after a restart.
+ * <p>
+ * When a job is opened for the first time, the recipient ids are collected, sorted, deduplicated and written to the
+ * {@code recipients} file of the job directory, so a resumed job sends to exactly the same recipients in the same order.
+ * A feeder thread reads the recipients in batches and submits their messages to a {@link SendScheduler}, which paces
+ * them to the rate limits of the bot. At most a fixed window of messages is outstanding beyond the first recipient
+ * whose message has not completed yet, and this position is written to the {@code checkpoint} file of the job every
+ * second together with the number of messages per {@link Outcome}. After a crash the job continues from the last
+ * checkpoint, so recipients whose messages completed after it may receive their message twice, at most a window of them.
+ */
+public class BroadcastJob implements AutoCloseable {
+
+    private static final String THREAD_NAME = "mcb-broadcast";
+
+    private static final String RECIPIENTS_FILE = "recipients";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int RECIPIENTS_MAGIC = 0x4D434252;
+    private static final int CHECKPOINT_MAGIC = 0x4D434243;
+    private static final int HEADER_SIZE = 16;
+    private static final int CHECKPOINT_SIZE = 16 + Outcome.values().length * Long.BYTES + Integer.BYTES;
+
+    private static final int BATCH_SIZE = 4096;
+    private static final int WINDOW = 1024;
+    private static final long CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int ERROR_FORBIDDEN = 403;
+    private static final int ERROR_TOO_MANY_REQUESTS = 429;
+
+    private final Path directory;
+    private final FileChannel recipients;
+    private final long recipientCount;
+
+    /**
+     * The number of messages per outcome, guarded by the job. The counts are those of the recipients before
+     * {@link #position}, so they match the position in the checkpoint.
+     */
+    private final long[] outcomes = new long[Outcome.values().length];
+    private final byte[] window = new byte[WINDOW];
+    private final CompletableFuture<?>[] requests = new CompletableFuture<?>[WINDOW];
+    private final Semaphore permits = new Semaphore(WINDOW);
+
+    /**
+     * The index of the first recipient whose message has not completed, guarded by the job.
+     */
+    private long position;
+    private long checkpointedPosition = -1;
+    private int outstanding;
+
+    private final LongAdder submitted = new LongAdder();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private volatile boolean stopped;
+    private volatile Thread feeder;
+    private volatile TimingWheel.Timeout checkpoint;
+    private volatile long startTime;
+    private volatile long startPosition;
+
+    private BroadcastJob(Path directory, FileChannel recipients, long recipientCount) {
+        this.directory = directory;
+        this.recipients = recipients;
+        this.recipientCount = recipientCount;
+    }
+
+    /**
+     * Opens the job in the directory. If the directory holds a job, it is resumed from its checkpoint and the
+     * recipients are not collected again, otherwise the recipients are collected and the job starts from the first.
+     *
+     * @param directory The directory of the job, created if it does not exist.
+     * @param recipients The source of the recipient ids, which may pass an id more than once.
+     * @return The opened job, which does not send until it is {@link #start(SendScheduler, LongFunction) started}.
+     * @throws IOException If the job files cannot be read or written.
+     */
+    @NotNull
+    public static BroadcastJob open(@NotNull Path directory, @NotNull RecipientSource recipients) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(RECIPIENTS_FILE);
+        if (!Files.exists(file)) {
+            writeRecipients(file, recipients);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            long count = header.getLong(8);
+            if (header.getInt(0) != RECIPIENTS_MAGIC || count < 0 || HEADER_SIZE + count * Long.BYTES != channel.size()) {
+                throw new IOException("Invalid broadcast recipients file: " + file);
+            }
+            BroadcastJob job = new BroadcastJob(directory, channel, count);
+            job.readCheckpoint();
+            return job;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a source reading the recipient ids from a text file with one id per line. Blank lines are skipped.
+     *
+     * @param file The text file.
+     * @return The recipient source.
+     */
+    @NotNull
+    public static RecipientSource fromFile(@NotNull Path file) {
+        return consumer -> {
+            try (BufferedReader reader = Files.newBufferedReader(file)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        consumer.accept(Long.parseLong(line));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid recipient id in " + file, e);
+            }
+        };
+    }
+
+    /**
+     * Starts sending from the checkpoint of the job. The job completes when every recipient was sent its message,
+     * or when it is stopped.
+     *
+     * @param scheduler The scheduler sending the messages, usually the {@link org.fbs.mcb.data.entity.Bot#getSendScheduler()
+     *                  send scheduler} of the bot.
+     * @param message The function creating the message for a recipient id.
+     * @return The future completed when all recipients were processed, or exceptionally if the job was stopped
+     *         or its files could not be read or written.
+     * @throws IllegalStateException If the job was already started.
+     */
+    @NotNull
+    public synchronized CompletableFuture<Void> start(@NotNull SendScheduler scheduler,
+                                                      @NotNull LongFunction<? extends BaseRequest<?, ?>> message) {
+        if (feeder != null) {
+            throw new IllegalStateException("The broadcast job was already started");
+        }
+        startTime = System.nanoTime();
+        startPosition = position;
+        Thread thread = new Thread(() -> feed(scheduler, message), THREAD_NAME);
+        thread.setDaemon(true);
+        feeder = thread;
+        thread.start();
+        scheduleCheckpoint();
+        return completion;
+    }
+
+    /**
+     * Stops submitting messages, cancels the submitted messages which are still queued in the scheduler, waits for
+     * the messages being sent to complete and writes the checkpoint. The job resumes from the first message which had
+     * not completed when it was stopped.
+     *
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    public void stop() throws IOException {
+        stopped = true;
+        Thread thread = feeder;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        cancelRequests();
+        awaitOutstanding();
+        TimingWheel.Timeout timeout = checkpoint;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        writeCheckpoint();
+        completion.completeExceptionally(new CancellationException("The broadcast job was stopped"));
+    }
+
+    /**
+     * Stops the job and closes the recipients file.
+     *
+     * @throws IOException If the checkpoint cannot be written or the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            stop();
+        } finally {
+            recipients.close();
+        }
+    }
+
+    /**
+     * Returns the directory of the job.
+     *
+     * @return The path of the directory.
+     */
+    @NotNull
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the number of distinct recipients of the job.
+     *
+     * @return The number of recipients.
+     */
+    public long getRecipientCount() {
+        return recipientCount;
+    }
+
+    /**
+     * Returns the number of recipients before the first one whose message has not completed yet.
+     *
+     * @return The number of processed recipients, including those processed before the job was resumed.
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the number of processed recipients with the outcome, including those processed before the job was resumed.
+     *
+     * @param outcome The outcome.
+     * @return The number of messages with the outcome.
+     */
+    public synchronized long getCount(@NotNull Outcome outcome) {
+        return outcomes[outcome.ordinal()];
+    }
+
+    /**
+     * Returns the number of messages submitted to the scheduler since the job was started.
+     *
+     * @return The number of submitted messages.
+     */
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * Returns the number of recipients processed per second since the job was started.
+     *
+     * @return The throughput in messages per second, or {@code 0} if the job was not started.
+     */
+    public synchronized double getThroughput() {
+        long elapsed = System.nanoTime() - startTime;
+        if (feeder == null || elapsed <= 0) {
+            return 0;
+        }
+        return (position - startPosition) / (elapsed / 1e9);
+    }
+
+    private void feed(SendScheduler scheduler, LongFunction<? extends BaseRequest<?, ?>> message) {
+        ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long index;
+        synchronized (this) {
+            index = position;
+        }
+        try {
+            while (index < recipientCount && !stopped) {
+                int count = (int) Math.min(BATCH_SIZE, recipientCount - index);
+                batch.clear().limit(count * Long.BYTES);
+                long offset = HEADER_SIZE + index * Long.BYTES;
+                while (batch.hasRemaining()) {
+                    if (recipients.read(batch, offset + batch.position()) < 0) {
+                        throw new IOException("Unexpected end of the broadcast recipients file");
+                    }
+                }
+                for (int i = 0; i < count && !stopped; i++, index++) {
+                    permits.acquire();
+                    long recipient = batch.getLong(i * Long.BYTES);
+                    long current = index;
+                    synchronized (this) {
+                        outstanding++;
+                    }
+                    CompletableFuture<BaseResponse> request;
+                    try {
+                        request = submit(scheduler, message.apply(recipient));
+                    } catch (RuntimeException e) {
+                        synchronized (this) {
+                            if (--outstanding == 0) {
+                                notifyAll();
+                            }
+                        }
+                        permits.release();
+                        throw e;
+                    }
+                    synchronized (this) {
+                        requests[(int) (current % WINDOW)] = request;
+                    }
+                    request.whenComplete((response, e) -> complete(current, response, e));
+                    submitted.increment();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static CompletableFuture<BaseResponse> submit(SendScheduler scheduler, BaseRequest<?, ?> request) {
+        return scheduler.submit((BaseRequest) request);
+    }
+
+    /**
+     * Records the outcome of the message of the recipient and advances the position over the completed messages.
+     */
+    private void complete(long index, BaseResponse response, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof CancellationException) {
+            stopped = true;
+            completion.completeExceptionally(cause);
+            synchronized (this) {
+                requests[(int) (index % WINDOW)] = null;
+                if (--outstanding == 0) {
+                    notifyAll();
+                }
+            }
+            return;
+        }
+        Outcome outcome = response != null ? Outcome.of(response) : Outcome.FAILED;
+        boolean done;
+        synchronized (this) {
+            if (--outstanding == 0) {
+                notifyAll();
+            }
+            requests[(int) (index % WINDOW)] = null;
+            window[(int) (index % WINDOW)] = (byte) (outcome.ordinal() + 1);
+            int advanced = 0;
+            while (position < recipientCount) {
+                int slot = (int) (position % WINDOW);
+                if (window[slot] == 0) {
+                    break;
+                }
+                outcomes[window[slot] - 1]++;
+                window[slot] = 0;
+                position++;
+                advanced++;
+            }
+            permits.release(advanced);
+            done = position == recipientCount;
+        }
+        if (done) {
+            finish();
+        }
+    }
+
+    /**
+     * Cancels the submitted messages which the scheduler has not started to send, so they are sent when the job
+     * is resumed. Messages being sent cannot be cancelled and complete normally.
+     */
+    private void cancelRequests() {
+        CompletableFuture<?>[] pending;
+        synchronized (this) {
+            pending = requests.clone();
+        }
+        for (CompletableFuture<?> request : pending) {
+            if (request != null) {
+                request.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Waits until every submitted message completed or was cancelled.
+     */
+    private synchronized void awaitOutstanding() {
+        try {
+            while (outstanding > 0) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void finish() {
+        try {
+            writeCheckpoint();
+            completion.complete(null);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Exception e) {
+        stopped = true;
+        completion.completeExceptionally(e);
+    }
+
+    private void scheduleCheckpoint() {
+        if (stopped || completion.isDone()) {
+            return;
+        }
+        checkpoint = TimingWheel.getDefault().schedule(() -> TaskDeque.getDefaultExecutor().execute(() -> {
+            try {
+                writeCheckpoint();
+            } catch (IOException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                scheduleCheckpoint();
+            }
+        }), CHECKPOINT_INTERVAL, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Writes the position and the outcome counts to a temporary file, which then atomically replaces the checkpoint.
+     * Does nothing if the position has not changed since the previous checkpoint.
+     */
+    private synchronized void writeCheckpoint() throws IOException {
+        if (position == checkpointedPosition) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKPOINT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(CHECKPOINT_MAGIC).putInt(0).putLong(position);
+        for (long count : outcomes) {
+            buffer.putLong(count);
+        }
+        buffer.putInt(crc(buffer, CHECKPOINT_SIZE - Integer.BYTES));
+        buffer.flip();
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        Path temporary = directory.resolve(CHECKPOINT_FILE + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointedPosition = position;
+    }
+
+    /**
+     * Reads the checkpoint of the job, if there is a valid one.
+     */
+    private synchronized void readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() != CHECKPOINT_SIZE || buffer.getInt(0) != CHECKPOINT_MAGIC
+                || buffer.getInt(CHECKPOINT_SIZE - Integer.BYTES) != crc(buffer, CHECKPOINT_SIZE - Integer.BYTES)) {
+            throw new IOException("Invalid broadcast checkpoint file: " + file);
+        }
+        long checkpointed = buffer.getLong(8);
+        if (checkpointed < 0 || checkpointed > recipientCount) {
+            throw new IOException("Broadcast checkpoint beyond the recipients: " + checkpointed);
+        }
+        position = checkpointed;
+        checkpointedPosition = checkpointed;
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = buffer.getLong(16 + i * Long.BYTES);
+        }
+    }
+
+    /**
+     * Collects the recipients, sorts and deduplicates them, and writes them to a temporary file which then replaces
+     * the recipients file, so an interrupted collection is started again.
+     */
+    private static void writeRecipients(Path file, RecipientSource source) throws IOException {
+        long[][] ids = {new long[BATCH_SIZE]};
+        int[] count = {0};
+        source.forEach(id -> {
+            if (count[0] == ids[0].length) {
+                ids[0] = Arrays.copyOf(ids[0], ids[0].length * 2);
+            }
+            ids[0][count[0]++] = id;
+        });
+        long[] sorted = ids[0];
+        Arrays.sort(sorted, 0, count[0]);
+        int distinct = 0;
+        for (int i = 0; i < count[0]; i++) {
+            if (distinct == 0 || sorted[i] != sorted[distinct - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+
+        Path temporary = file.resolveSibling(RECIPIENTS_FILE + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_SIZE * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(RECIPIENTS_MAGIC).putInt(0).putLong(distinct);
+            for (int i = 0; i < distinct; i++) {
+                if (!buffer.hasRemaining()) {
+                    write(channel, buffer);
+                }
+                buffer.putLong(sorted[i]);
+            }
+            write(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static int crc(ByteBuffer buffer, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(0).limit(length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The outcome of the message to a recipient.
+     */
+    public enum Outcome {
+
+        /**
+         * The message was sent.
+         */
+        SENT,
+
+        /**
+         * The recipient blocked the bot.
+         */
+        BLOCKED,
+
+        /**
+         * The account of the recipient was deleted.
+         */
+        DEACTIVATED,
+
+        /**
+         * The Bot API still answered with {@code 429 Too Many Requests} after the scheduler retried the message.
+         */
+        TOO_MANY_REQUESTS,
+
+        /**
+         * The message failed for another reason, for example because the chat does not exist or the request could not
+         * be sent.
+         */
+        FAILED;
+
+        /**
+         * Classifies the response of the Bot API.
+         *
+         * @param response The response.
+         * @return The outcome of the message.
+         */
+        @NotNull
+        public static Outcome of(@NotNull BaseResponse response) {
+            if (response.isOk()) {
+                return SENT;
+            }
+            String description = response.description() != null ? response.description() : "";
+            if (response.errorCode() == ERROR_FORBIDDEN && description.contains("blocked")) {
+                return BLOCKED;
+            }
+            if (response.errorCode() == ERROR_FORBIDDEN && description.contains("deactivated")) {
+                return DEACTIVATED;
+            }
+            if (response.errorCode() == ERROR_TOO_MANY_REQUESTS) {
+                return TOO_MANY_REQUESTS;
+            }
+            return FAILED;
+        }
+
+    }
+
+    /**
+     * A source of recipient ids, such as the users of a bot or a file.
+     */
+    @FunctionalInterface
+    public interface RecipientSource {
+
+        /**
+         * Passes every recipient id to the consumer.
+         *
+         * @param consumer The consumer of the ids.
+         * @throws IOException If the ids cannot be read.
+         */
+        void forEach(@NotNull LongConsumer consumer) throws IOException;
+
+    }
+
+}
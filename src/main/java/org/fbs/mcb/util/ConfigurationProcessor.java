@@ -6,6 +6,7 @@ import org.fbs.mcb.annotation.Command;
 import org.fbs.mcb.annotation.Feedback;
 import org.fbs.mcb.data.BotMethod;
 import org.fbs.mcb.data.BotMethodSet;
+import org.fbs.mcb.data.OverflowPolicy;
 import org.fbs.mcb.data.entity.AbstractBot;
 import org.fbs.mcb.data.entity.Bot;
 import org.fbs.mcb.data.meta.Constants;
@@ -16,6 +17,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Set;
 
 import static org.fbs.mcb.util.AnnotationUtil.getAnnotation;
 
@@ -55,8 +57,10 @@ public class ConfigurationProcessor extends AbstractConfigurationProcessor {
     /**
      * Holds the reference to the {@link UpdateManager} instance responsible for managing and processing updates.
      * This instance is created during the construction of the {@link ConfigurationProcessor} instance.
+     * If {@link BotConfiguration#dispatchShards()} is set, the specified update manager is wrapped into a {@link ShardedUpdateManager}.
      *
      * @see UpdateManager
+     * @see ShardedUpdateManager
      */
     private final AbstractUpdateManager updateManager;
 
@@ -68,6 +72,29 @@ public class ConfigurationProcessor extends AbstractConfigurationProcessor {
      */
     private final BotMethodSet methodSet;
 
+    /**
+     * Holds the executor running the handlers if {@link BotConfiguration#threadSeparation()} is enabled, otherwise null.
+     *
+     * @see HandlerExecutor
+     */
+    private final HandlerExecutor handlerExecutor;
+
+    /**
+     * Holds the flood control rejecting updates of users and chats exceeding their rate,
+     * or null if neither {@link BotConfiguration#userRateLimit()} nor {@link BotConfiguration#chatRateLimit()} is set.
+     *
+     * @see FloodControl
+     */
+    private final FloodControl floodControl;
+
+    /**
+     * Holds the filter suppressing updates delivered more than once, applied by the bot before the update is
+     * handled, or null if {@link BotConfiguration#duplicateWindow()} is not set.
+     *
+     * @see DuplicateFilter
+     */
+    private final DuplicateFilter duplicateFilter;
+
     /**
      * Constructs a new instance of AnnotationHandler for the specified class.
      *
@@ -88,7 +115,32 @@ public class ConfigurationProcessor extends AbstractConfigurationProcessor {
                 configurationObject = null;
             }
             methodSet = new BotMethodSet(this);
-            this.updateManager = updateManager;
+            if (configuration.threadSeparation()) {
+                handlerExecutor = new HandlerExecutor(configuration.handlerThreads(), configuration.handlerQueueCapacity(),
+                        configuration.handlerRejectionPolicy(), configuration.virtualThreads());
+            }
+            else {
+                handlerExecutor = null;
+            }
+            if (configuration.userRateLimit() > 0 || configuration.chatRateLimit() > 0) {
+                floodControl = new FloodControl(configuration.userRateLimit(), configuration.userBurst(),
+                        configuration.chatRateLimit(), configuration.chatBurst());
+            }
+            else {
+                floodControl = null;
+            }
+            if (configuration.duplicateWindow() > 0) {
+                duplicateFilter = new DuplicateFilter(configuration.duplicateWindow());
+            }
+            else {
+                duplicateFilter = null;
+            }
+            if (configuration.dispatchShards() != 0) {
+                this.updateManager = new ShardedUpdateManager(updateManager, configuration.dispatchShards(), configuration.shardQueueDepth());
+            }
+            else {
+                this.updateManager = updateManager;
+            }
             this.updateManager.setProcessor(this);
 
             methodMapper.setProcessor(this);
@@ -118,7 +170,32 @@ public class ConfigurationProcessor extends AbstractConfigurationProcessor {
         else {
             throw new RuntimeException("This update handler must take a non-null AbstractBot value as its second argument");
         }
-        updateManager.processUpdate(update, bot);
+        if (floodControl != null && !floodControl.tryAcquire(update)) {
+            return;
+        }
+        if (args.length > 2 && args[2] instanceof Runnable) {
+            // runs after the handlers on the thread processing the update, which is a shard if updates are sharded
+            updateManager.processUpdate(update, bot, args[2]);
+        }
+        else {
+            updateManager.processUpdate(update, bot);
+        }
+    }
+
+    /**
+     * Stops the dispatch shards after the updates queued to them are processed, and stops accepting handler calls
+     * on the handler threads.
+     *
+     * @see ShardedUpdateManager#shutdown()
+     * @see HandlerExecutor#shutdown()
+     */
+    public void shutdown() {
+        if (updateManager instanceof ShardedUpdateManager) {
+            ((ShardedUpdateManager) updateManager).shutdown();
+        }
+        if (handlerExecutor != null) {
+            handlerExecutor.shutdown();
+        }
     }
 
     /**
@@ -228,6 +305,40 @@ public class ConfigurationProcessor extends AbstractConfigurationProcessor {
         return configuration.threadSeparation();
     }
     
+    /**
+     * Retrieves the number of shards processing updates of different chats in parallel.
+     *
+     * @return the number of dispatch shards, {@code 0} if sharding is disabled.
+     *
+     * @see BotConfiguration#dispatchShards()
+     */
+    public int getDispatchShards(){
+        return configuration.dispatchShards();
+    }
+
+    /**
+     * Checks if the bot's configuration requests virtual threads for handlers and user tasks.
+     *
+     * @return {@code true} if virtual threads should be used where the runtime supports them.
+     *
+     * @see BotConfiguration#virtualThreads()
+     */
+    public boolean isVirtualThreads(){
+        return configuration.virtualThreads();
+    }
+
+    /**
+     * Retrieves the executor running the handlers of the bot.
+     *
+     * @return the handler executor, or {@code null} if thread separation is disabled and handlers run on the dispatching thread.
+     *
+     * @see BotConfiguration#threadSeparation()
+     * @see HandlerExecutor
+     */
+    public HandlerExecutor getHandlerExecutor() {
+        return handlerExecutor;
+    }
+
     /**
      * Retrieves the start command specified in the bot's configuration.
      * The start command is used to initiate specific actions when a user sends it.
@@ -241,6 +352,348 @@ public class ConfigurationProcessor extends AbstractConfigurationProcessor {
         return configuration.startCommand();
     }
 
+    /**
+     * Retrieves the capacity of the update queue specified in the bot's configuration.
+     *
+     * @return the capacity of the update queue, or 0 if updates are not queued.
+     *
+     * @see BotConfiguration#updateQueueCapacity()
+     */
+    public int getUpdateQueueCapacity() {
+        return configuration.updateQueueCapacity();
+    }
+
+    /**
+     * Retrieves the strategy applied to new updates when the update queue is full.
+     *
+     * @return the overflow policy specified in the bot's configuration.
+     *
+     * @see BotConfiguration#overflowPolicy()
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return configuration.overflowPolicy();
+    }
+
+    /**
+     * Retrieves the update types which may be dropped when the update queue is full.
+     *
+     * @return the set of droppable update types specified in the bot's configuration.
+     *
+     * @see BotConfiguration#droppableUpdates()
+     */
+    public Set<String> getDroppableUpdates() {
+        return Set.of(configuration.droppableUpdates());
+    }
+
+    /**
+     * Retrieves the time after which idle users are removed from a multi-user bot.
+     *
+     * @return the idle timeout in milliseconds, or 0 if idle users are kept.
+     *
+     * @see BotConfiguration#userIdleTimeout()
+     */
+    public long getUserIdleTimeout() {
+        return configuration.userIdleTimeout();
+    }
+
+    /**
+     * Retrieves the maximum number of users kept by a multi-user bot.
+     *
+     * @return the maximum number of users, or 0 if the number is not limited.
+     *
+     * @see BotConfiguration#maxUsers()
+     */
+    public int getMaxUsers() {
+        return configuration.maxUsers();
+    }
+
+    /**
+     * Retrieves the flood control which drops updates of users and chats exceeding their rate, and provides its metrics.
+     *
+     * @return the flood control, or null if the rate of users and chats is not limited.
+     *
+     * @see BotConfiguration#userRateLimit()
+     * @see BotConfiguration#chatRateLimit()
+     */
+    public FloodControl getFloodControl() {
+        return floodControl;
+    }
+
+    /**
+     * Retrieves the filter which suppresses updates delivered more than once, and provides its metrics.
+     *
+     * @return the duplicate filter, or null if updates are not deduplicated.
+     *
+     * @see BotConfiguration#duplicateWindow()
+     */
+    public DuplicateFilter getDuplicateFilter() {
+        return duplicateFilter;
+    }
+
+    /**
+     * Retrieves the number of update_ids among which duplicate updates are suppressed.
+     *
+     * @return the duplicate window, or 0 if updates are not deduplicated.
+     *
+     * @see BotConfiguration#duplicateWindow()
+     */
+    public int getDuplicateWindow() {
+        return configuration.duplicateWindow();
+    }
+
+    /**
+     * Retrieves the number of updates per second a user may send.
+     *
+     * @return the rate, or 0 if the rate of users is not limited.
+     *
+     * @see BotConfiguration#userRateLimit()
+     */
+    public double getUserRateLimit() {
+        return configuration.userRateLimit();
+    }
+
+    /**
+     * Retrieves the number of updates a user may send at once.
+     *
+     * @return the burst of a user.
+     *
+     * @see BotConfiguration#userBurst()
+     */
+    public int getUserBurst() {
+        return configuration.userBurst();
+    }
+
+    /**
+     * Retrieves the number of updates per second accepted from a chat.
+     *
+     * @return the rate, or 0 if the rate of chats is not limited.
+     *
+     * @see BotConfiguration#chatRateLimit()
+     */
+    public double getChatRateLimit() {
+        return configuration.chatRateLimit();
+    }
+
+    /**
+     * Retrieves the number of updates accepted at once from a chat.
+     *
+     * @return the burst of a chat.
+     *
+     * @see BotConfiguration#chatBurst()
+     */
+    public int getChatBurst() {
+        return configuration.chatBurst();
+    }
+
+    /**
+     * Retrieves the maximum number of requests per second sent through the send scheduler.
+     *
+     * @return the global send rate.
+     *
+     * @see BotConfiguration#globalSendRate()
+     */
+    public double getGlobalSendRate() {
+        return configuration.globalSendRate();
+    }
+
+    /**
+     * Retrieves the minimum time between two requests sent to the same private chat.
+     *
+     * @return the interval in milliseconds.
+     *
+     * @see BotConfiguration#chatSendInterval()
+     */
+    public long getChatSendInterval() {
+        return configuration.chatSendInterval();
+    }
+
+    /**
+     * Retrieves the minimum time between two requests sent to the same group or channel.
+     *
+     * @return the interval in milliseconds.
+     *
+     * @see BotConfiguration#groupSendInterval()
+     */
+    public long getGroupSendInterval() {
+        return configuration.groupSendInterval();
+    }
+
+    /**
+     * Retrieves the maximum number of requests the send scheduler sends at the same time.
+     *
+     * @return the number of requests in flight.
+     *
+     * @see BotConfiguration#maxSendsInFlight()
+     */
+    public int getMaxSendsInFlight() {
+        return configuration.maxSendsInFlight();
+    }
+
+    /**
+     * Retrieves the maximum number of requests to the Bot API in flight at the same time.
+     *
+     * @return the maximum number of requests in flight.
+     *
+     * @see BotConfiguration#maxRequestsInFlight()
+     */
+    public int getMaxRequestsInFlight() {
+        return configuration.maxRequestsInFlight();
+    }
+
+    /**
+     * Retrieves the public URL Telegram posts updates to.
+     *
+     * @return the webhook URL, or an empty string if the bot uses long polling.
+     *
+     * @see BotConfiguration#webhookUrl()
+     */
+    public String getWebhookUrl() {
+        return configuration.webhookUrl();
+    }
+
+    /**
+     * Retrieves the local port of the webhook server.
+     *
+     * @return the webhook port.
+     *
+     * @see BotConfiguration#webhookPort()
+     */
+    public int getWebhookPort() {
+        return configuration.webhookPort();
+    }
+
+    /**
+     * Retrieves the secret token Telegram sends with every update to the webhook.
+     *
+     * @return the secret token, or an empty string if a random token is generated.
+     *
+     * @see BotConfiguration#webhookSecretToken()
+     */
+    public String getWebhookSecretToken() {
+        return configuration.webhookSecretToken();
+    }
+
+    /**
+     * Retrieves the maximum number of connections Telegram opens to the webhook at the same time.
+     *
+     * @return the maximum number of webhook connections.
+     *
+     * @see BotConfiguration#webhookMaxConnections()
+     */
+    public int getWebhookMaxConnections() {
+        return configuration.webhookMaxConnections();
+    }
+
+    /**
+     * Retrieves the update types the bot receives, if they are specified explicitly.
+     *
+     * @return the update types, or an empty array if they are derived from the handlers.
+     *
+     * @see BotConfiguration#allowedUpdates()
+     */
+    public String[] getAllowedUpdates() {
+        return configuration.allowedUpdates();
+    }
+
+    /**
+     * Retrieves the maximum number of updates fetched by one getUpdates request.
+     *
+     * @return the polling limit.
+     *
+     * @see BotConfiguration#pollingLimit()
+     */
+    public int getPollingLimit() {
+        return configuration.pollingLimit();
+    }
+
+    /**
+     * Retrieves the time a getUpdates request waits for updates when there are none.
+     *
+     * @return the polling timeout in seconds.
+     *
+     * @see BotConfiguration#pollingTimeout()
+     */
+    public int getPollingTimeout() {
+        return configuration.pollingTimeout();
+    }
+
+    /**
+     * Retrieves how many times a polled update whose processing throws is processed before it is given up.
+     *
+     * @return the maximum number of attempts.
+     *
+     * @see BotConfiguration#maxUpdateAttempts()
+     */
+    public int getMaxUpdateAttempts() {
+        return configuration.maxUpdateAttempts();
+    }
+
+    /**
+     * Retrieves the directory of the log the received updates are recorded to.
+     *
+     * @return the update log directory, or an empty string if updates are not recorded.
+     *
+     * @see BotConfiguration#updateLogDirectory()
+     */
+    public String getUpdateLogDirectory() {
+        return configuration.updateLogDirectory();
+    }
+
+    /**
+     * Retrieves the file in which the update_id of the last processed update is persisted.
+     *
+     * @return the path of the offset file, or an empty string if the offset is not persisted.
+     *
+     * @see BotConfiguration#offsetFile()
+     */
+    public String getOffsetFile() {
+        return configuration.offsetFile();
+    }
+
+    /**
+     * Retrieves the time between two writes of the offset file to the storage device.
+     *
+     * @return the sync interval in milliseconds, or 0 if the file is written after every update.
+     *
+     * @see BotConfiguration#offsetSyncInterval()
+     */
+    public long getOffsetSyncInterval() {
+        return configuration.offsetSyncInterval();
+    }
+
+    /**
+     * Retrieves the age above which received updates are confirmed without being dispatched.
+     *
+     * @return the age in seconds, or 0 if no updates are skipped.
+     *
+     * @see BotConfiguration#skipUpdatesOlderThan()
+     */
+    public long getSkipUpdatesOlderThan() {
+        return configuration.skipUpdatesOlderThan();
+    }
+
+    /**
+     * Retrieves the file in which a multi-user bot persists the sessions of its users.
+     *
+     * @return the path of the snapshot file, or an empty string if sessions are not persisted.
+     *
+     * @see BotConfiguration#snapshotFile()
+     */
+    public String getSnapshotFile() {
+        return configuration.snapshotFile();
+    }
+
+    /**
+     * Retrieves the time between two snapshots of the sessions of a multi-user bot.
+     *
+     * @return the snapshot interval in milliseconds.
+     *
+     * @see BotConfiguration#snapshotInterval()
+     */
+    public long getSnapshotInterval() {
+        return configuration.snapshotInterval();
+    }
+
     /**
      * Retrieves the bot token specified in the bot's configuration.
      * The bot token is used to authenticate the bot with the Telegram API.
@@ -0,0 +1,195 @@
+package org.fbs.mcb.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Suppresses updates which are delivered more than once, as happens when Telegram retries a webhook request or the
+ * bot restarts before confirming a batch, so their handlers do not run twice.
+ * <p>
+ * The filter remembers which update_ids of a sliding window below the highest update_id were accepted, in a bitmap
+ * of a fixed size. The bitmap is a ring of 64 bit slots, each holding the bits of 32 consecutive update_ids in its
+ * low half and the number of that group of update_ids in its high half. An update_id is accepted by setting its bit
+ * with a compare-and-set, which also takes over the slot if it still holds an older group, so checking an update
+ * takes constant time and never locks, however many threads ingest updates. Update_ids below the window are
+ * suppressed as well, since they can only be deliveries of updates which were accepted long ago.
+ * <p>
+ * Telegram starts the update_ids of a bot at a random value again when it received no updates for a week. An
+ * update_id more than {@link #RESET_DISTANCE} (or the window, if it is larger) below the highest one is therefore
+ * taken as such a restart, which clears the filter instead of suppressing every following update.
+ */
+public class DuplicateFilter {
+
+    private static final int GROUP_SHIFT = 5;
+    private static final int GROUP_MASK = (1 << GROUP_SHIFT) - 1;
+
+    /**
+     * The smallest distance below the highest update_id at which an update_id is taken as a restart of the sequence.
+     */
+    public static final int RESET_DISTANCE = 1 << 20;
+
+    private final AtomicLongArray slots;
+    private final int slotMask;
+    private final int window;
+    private final int resetDistance;
+    private final AtomicInteger highest = new AtomicInteger(-1);
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+
+    /**
+     * Constructs a new DuplicateFilter.
+     *
+     * @param window The number of update_ids up to the highest one which are remembered. The bitmap takes about
+     *               a byte for every four update_ids, its size is rounded up to a power of two.
+     * @throws IllegalArgumentException If the window is not positive or larger than 2<sup>30</sup>.
+     */
+    public DuplicateFilter(int window) {
+        if (window <= 0 || window > 1 << 30) {
+            throw new IllegalArgumentException("Duplicate window must be between 1 and 2^30: " + window);
+        }
+        // one slot more than the window spans, as it starts and ends inside a group of update_ids
+        int size = Integer.highestOneBit(window + GROUP_MASK) << 1;
+        this.window = window;
+        this.resetDistance = Math.max(window, RESET_DISTANCE);
+        this.slots = new AtomicLongArray(Math.max(2, size >>> GROUP_SHIFT));
+        this.slotMask = slots.length() - 1;
+    }
+
+    /**
+     * Checks whether the update was not accepted before and marks it as accepted.
+     *
+     * @param updateId The update_id of the update.
+     * @return {@code true} if the update should be dispatched, {@code false} if it is a duplicate or older
+     *         than the window.
+     */
+    public boolean tryAccept(int updateId) {
+        if (updateId < 0) {
+            accepted.increment();
+            return true;
+        }
+        int top = highest.get();
+        while (updateId > top && !highest.compareAndSet(top, updateId)) {
+            top = highest.get();
+        }
+        if ((long) top - updateId > resetDistance) {
+            reset(top, updateId);
+        }
+        else if (top - updateId >= window) {
+            expired.increment();
+            return false;
+        }
+        long group = updateId >>> GROUP_SHIFT;
+        long bit = 1L << (updateId & GROUP_MASK);
+        int index = (int) group & slotMask;
+        while (true) {
+            long slot = slots.get(index);
+            long slotGroup = slot >>> 32;
+            long next;
+            if (slotGroup == group) {
+                if ((slot & bit) != 0) {
+                    duplicates.increment();
+                    return false;
+                }
+                next = slot | bit;
+            }
+            else if (slotGroup < group) {
+                next = group << 32 | bit;
+            }
+            else {
+                expired.increment();
+                return false;
+            }
+            if (slots.compareAndSet(index, slot, next)) {
+                accepted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Clears the filter after the update_ids restarted at a lower value, unless another thread already did.
+     *
+     * @param top The highest update_id seen by the caller.
+     * @param updateId The update_id far below it.
+     */
+    private synchronized void reset(int top, int updateId) {
+        if (!highest.compareAndSet(top, updateId)) {
+            return;
+        }
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, 0);
+        }
+        resets.increment();
+    }
+
+    /**
+     * Forgets that the update was accepted, so it is accepted again when it is delivered again, for example because
+     * its handler failed and it was not confirmed.
+     *
+     * @param updateId The update_id of the update.
+     */
+    public void forget(int updateId) {
+        if (updateId < 0) {
+            return;
+        }
+        long group = updateId >>> GROUP_SHIFT;
+        long bit = 1L << (updateId & GROUP_MASK);
+        int index = (int) group & slotMask;
+        while (true) {
+            long slot = slots.get(index);
+            if (slot >>> 32 != group || (slot & bit) == 0 || slots.compareAndSet(index, slot, slot & ~bit)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of update_ids remembered up to the highest one.
+     *
+     * @return The size of the window.
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Returns the number of updates which were accepted.
+     *
+     * @return The number of accepted updates.
+     */
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /**
+     * Returns the number of updates which were suppressed because they were accepted before.
+     *
+     * @return The number of duplicate updates.
+     */
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Returns the number of updates which were suppressed because their update_id was older than the window.
+     *
+     * @return The number of expired updates.
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /**
+     * Returns the number of times the filter was cleared because the update_ids restarted at a lower value.
+     *
+     * @return The number of resets.
+     */
+    public long getResetCount() {
+        return resets.sum();
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.fbs.mcb.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility methods for creating the threads and executors of the library.
+ */
+public final class ExecutorUtil {
+
+    private ExecutorUtil(){}
+
+    /**
+     * Creates a thread factory of daemon threads named by the prefix and a sequence number.
+     *
+     * @param prefix The prefix of the thread names, for example {@code "mcb-handler-"}.
+     * @return The thread factory.
+     */
+    @NotNull
+    public static ThreadFactory daemonThreadFactory(@NotNull String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Creates an executor which starts a new named virtual thread for each task, if the runtime supports virtual threads.
+     * The virtual thread API is looked up reflectively, so the library still runs on the Java 17 baseline.
+     *
+     * @param prefix The prefix of the thread names.
+     * @return The virtual thread executor, or {@code null} if virtual threads are not available.
+     */
+    public static ExecutorService newVirtualThreadExecutor(@NotNull String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+}
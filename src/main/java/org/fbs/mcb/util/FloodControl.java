@@ -0,0 +1,215 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.data.user.TaskDeque;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rejects the updates of users and chats which send more updates than their rate allows, before they are dispatched.
+ * <p>
+ * Every user and every chat has a token bucket implemented with the generic cell rate algorithm: the bucket is a single
+ * theoretical arrival time, which is advanced by the interval between two updates for every accepted update with a
+ * compare-and-set, so checking an update never locks. An update is rejected if accepting it would move the arrival time
+ * further into the future than the burst allows. Buckets are kept in {@link LongConcurrentMap}s keyed by the user
+ * and chat id, and buckets which have fully refilled are removed periodically, since they are equivalent to new ones.
+ */
+public class FloodControl {
+
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    private final Limiter users;
+    private final Limiter chats;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    private volatile boolean stopped;
+    private volatile TimingWheel.Timeout sweep;
+
+    /**
+     * Constructs a new FloodControl and starts removing idle buckets.
+     *
+     * @param userRate The number of updates per second a user may send, {@code 0} or less for no limit.
+     * @param userBurst The number of updates a user may send at once after being idle.
+     * @param chatRate The number of updates per second accepted from a chat, {@code 0} or less for no limit.
+     * @param chatBurst The number of updates accepted at once from a chat after it was idle.
+     */
+    public FloodControl(double userRate, int userBurst, double chatRate, int chatBurst) {
+        users = userRate > 0 ? new Limiter(userRate, userBurst) : null;
+        chats = chatRate > 0 ? new Limiter(chatRate, chatBurst) : null;
+        scheduleSweep();
+    }
+
+    /**
+     * Checks the update against the buckets of its sender and its chat and takes a token from each.
+     * Updates without a sender or chat are only checked against the bucket they have.
+     *
+     * @param update The update to check.
+     * @return {@code true} if the update may be dispatched, {@code false} if it should be dropped.
+     */
+    public boolean tryAcquire(@NotNull Update update) {
+        long now = System.nanoTime();
+        if (users != null) {
+            long userId = UpdateUtil.userId(update);
+            if (userId != 0 && !users.tryAcquire(userId, now)) {
+                dropped.increment();
+                return false;
+            }
+        }
+        if (chats != null) {
+            long chatId = UpdateUtil.chatId(update);
+            if (chatId != 0 && !chats.tryAcquire(chatId, now)) {
+                dropped.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops removing idle buckets.
+     */
+    public void shutdown() {
+        stopped = true;
+        TimingWheel.Timeout timeout = sweep;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Returns the number of updates which were dropped because their user or chat exceeded its rate.
+     *
+     * @return The number of dropped updates.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of times a user or a chat started being throttled, that is, how often an update was dropped
+     * after the previous update of the same user or chat was accepted.
+     *
+     * @return The number of throttling episodes.
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    /**
+     * Returns the number of buckets which were removed because they were idle.
+     *
+     * @return The number of expired buckets.
+     */
+    public long getExpiredBucketCount() {
+        return expired.sum();
+    }
+
+    /**
+     * Returns the number of buckets of users and chats currently kept.
+     *
+     * @return The number of buckets.
+     */
+    public int getBucketCount() {
+        return (users != null ? users.buckets.size() : 0) + (chats != null ? chats.buckets.size() : 0);
+    }
+
+    private void scheduleSweep() {
+        if (stopped) {
+            return;
+        }
+        sweep = TimingWheel.getDefault().schedule(() -> TaskDeque.getDefaultExecutor().execute(() -> {
+            try {
+                long now = System.nanoTime();
+                if (users != null) {
+                    users.removeIdle(now);
+                }
+                if (chats != null) {
+                    chats.removeIdle(now);
+                }
+            } finally {
+                scheduleSweep();
+            }
+        }), SWEEP_INTERVAL, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The buckets of all users or all chats, which share the same rate and burst.
+     */
+    private final class Limiter {
+
+        private final LongConcurrentMap<Bucket> buckets = new LongConcurrentMap<>();
+        private final long interval;
+        private final long tolerance;
+
+        private Limiter(double rate, int burst) {
+            interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+            tolerance = interval * (Math.max(1, burst) - 1);
+        }
+
+        private boolean tryAcquire(long key, long now) {
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = buckets.computeIfAbsent(key, k -> new Bucket(now));
+            }
+            while (true) {
+                long arrival = bucket.arrival;
+                long start = arrival - now > 0 ? arrival : now;
+                if (start - now > tolerance) {
+                    if (Bucket.THROTTLED.compareAndSet(bucket, 0, 1)) {
+                        throttled.increment();
+                    }
+                    return false;
+                }
+                if (Bucket.ARRIVAL.compareAndSet(bucket, arrival, start + interval)) {
+                    if (bucket.throttled != 0) {
+                        bucket.throttled = 0;
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Removes the buckets which have refilled completely. An update racing with the removal of its bucket may
+         * be accounted to the removed bucket, which lets the user or chat send at most one additional burst.
+         */
+        private void removeIdle(long now) {
+            buckets.forEach((key, bucket) -> {
+                if (bucket.arrival - now <= 0 && buckets.remove(key, bucket)) {
+                    expired.increment();
+                }
+            });
+        }
+
+    }
+
+    /**
+     * The token bucket of a user or a chat.
+     */
+    private static final class Bucket {
+
+        private static final AtomicLongFieldUpdater<Bucket> ARRIVAL =
+                AtomicLongFieldUpdater.newUpdater(Bucket.class, "arrival");
+        private static final AtomicIntegerFieldUpdater<Bucket> THROTTLED =
+                AtomicIntegerFieldUpdater.newUpdater(Bucket.class, "throttled");
+
+        /**
+         * The theoretical arrival time of the next update, as a {@link System#nanoTime()} value.
+         */
+        private volatile long arrival;
+        private volatile int throttled;
+
+        private Bucket(long now) {
+            arrival = now;
+        }
+
+    }
+
+}
@@ -0,0 +1,264 @@
+package org.fbs.mcb.util;
+
+import org.fbs.mcb.data.RejectionPolicy;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs bot handlers when thread separation is enabled.
+ * <p>
+ * Handlers are executed either by a fixed pool of named daemon threads with a bounded queue, or, if requested and supported
+ * by the runtime, each on its own virtual thread. Virtual threads are limited by the same number of threads plus queued
+ * handlers, so a burst of updates can not create an unbounded number of threads either way.
+ * When the limit is reached, the {@link RejectionPolicy} decides what happens to the handler call.
+ * <p>
+ * Exceptions thrown by handlers are passed to the uncaught exception handler of the executing thread.
+ */
+public class HandlerExecutor {
+
+    private static final String THREAD_NAME_PREFIX = "mcb-handler-";
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static volatile HandlerExecutor defaultExecutor;
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final ThreadPoolExecutor pool;
+    private final RejectionPolicy rejectionPolicy;
+    private final int threads;
+    private final int queueCapacity;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Constructs a new HandlerExecutor and starts its threads.
+     *
+     * @param threads The number of handler threads, a non-positive value uses one thread per available processor.
+     *                With virtual threads, the maximum number of handlers running at the same time.
+     * @param queueCapacity The maximum number of handler calls waiting for a free thread.
+     * @param rejectionPolicy The strategy applied to a handler call when all threads are busy and the queue is full.
+     * @param virtualThreads Whether handlers should run on virtual threads. Ignored if the runtime does not support them.
+     * @throws IllegalArgumentException If the queue capacity is negative.
+     */
+    public HandlerExecutor(int threads, int queueCapacity, @NotNull RejectionPolicy rejectionPolicy, boolean virtualThreads) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Handler queue capacity must not be negative: " + queueCapacity);
+        }
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.rejectionPolicy = rejectionPolicy;
+
+        ExecutorService virtualExecutor = virtualThreads ? ExecutorUtil.newVirtualThreadExecutor(THREAD_NAME_PREFIX) : null;
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+            this.permits = new Semaphore(threads + queueCapacity);
+            this.pool = null;
+        }
+        else {
+            BlockingQueue<Runnable> queue = queueCapacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueCapacity);
+            this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+                    ExecutorUtil.daemonThreadFactory(THREAD_NAME_PREFIX), new ThreadPoolExecutor.AbortPolicy());
+            this.pool.prestartAllCoreThreads();
+            this.executor = pool;
+            this.permits = null;
+        }
+    }
+
+    /**
+     * Runs a handler call on the executor, or applies the rejection policy if the executor is saturated.
+     *
+     * @param handler The handler call.
+     * @throws RejectedExecutionException If the call is rejected under {@link RejectionPolicy#ABORT}, or if the executor is shut down.
+     */
+    public void execute(@NotNull Handler handler) {
+        submitted.increment();
+        if (permits != null && !permits.tryAcquire()) {
+            reject(handler);
+            return;
+        }
+        try {
+            executor.execute(() -> run(handler, true));
+        } catch (RejectedExecutionException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            if (executor.isShutdown()) {
+                throw e;
+            }
+            reject(handler);
+        }
+    }
+
+    private void reject(Handler handler) {
+        rejected.increment();
+        switch (rejectionPolicy) {
+            case CALLER_RUNS:
+                run(handler, false);
+                break;
+            case DISCARD:
+                break;
+            default:
+                throw new RejectedExecutionException("Handler executor is saturated: " + threads + " threads, "
+                        + queueCapacity + " queued handlers");
+        }
+    }
+
+    private void run(Handler handler, boolean permit) {
+        active.incrementAndGet();
+        try {
+            handler.run();
+            completed.increment();
+        } catch (Throwable e) {
+            failed.increment();
+            Throwable cause = e instanceof InvocationTargetException && e.getCause() != null ? e.getCause() : e;
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, cause);
+        } finally {
+            active.decrementAndGet();
+            if (permit && permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new handler calls, already submitted calls are still executed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the executor shared by handlers which were created without an executor of their bot.
+     * It is created on first use with the default configuration: one platform thread per available processor,
+     * {@value #DEFAULT_QUEUE_CAPACITY} queued handlers and {@link RejectionPolicy#CALLER_RUNS}.
+     *
+     * @return The default handler executor.
+     */
+    @NotNull
+    public static HandlerExecutor getDefault() {
+        HandlerExecutor executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (HandlerExecutor.class) {
+                executor = defaultExecutor;
+                if (executor == null) {
+                    executor = new HandlerExecutor(0, DEFAULT_QUEUE_CAPACITY, RejectionPolicy.CALLER_RUNS, false);
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Checks whether handlers run on virtual threads.
+     *
+     * @return {@code true} if virtual threads were requested and are supported by the runtime.
+     */
+    public boolean isVirtualThreads() {
+        return pool == null;
+    }
+
+    /**
+     * Returns the number of handler threads, or the maximum number of handlers running at the same time on virtual threads.
+     *
+     * @return The number of handler threads.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the maximum number of handler calls waiting for a free thread.
+     *
+     * @return The queue capacity.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Returns the number of handler calls waiting for a free thread.
+     * With virtual threads, the number of started handlers which are not running yet.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        if (pool != null) {
+            return pool.getQueue().size();
+        }
+        return Math.max(0, threads + queueCapacity - permits.availablePermits() - active.get());
+    }
+
+    /**
+     * Returns the number of handlers currently running, including handlers run by the caller after a rejection.
+     *
+     * @return The number of active handlers.
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Returns the number of handler calls passed to this executor.
+     *
+     * @return The number of submitted handler calls.
+     */
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * Returns the number of handler calls which finished normally.
+     *
+     * @return The number of completed handler calls.
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Returns the number of handler calls which threw an exception.
+     *
+     * @return The number of failed handler calls.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the number of handler calls the rejection policy was applied to.
+     *
+     * @return The number of rejected handler calls.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * A handler call which may throw a checked exception.
+     */
+    @FunctionalInterface
+    public interface Handler {
+
+        /**
+         * Runs the handler.
+         *
+         * @throws Exception If the handler throws an exception.
+         */
+        void run() throws Exception;
+
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.fbs.mcb.util;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility methods for creating the HTTP clients through which bots talk to the Bot API.
+ * <p>
+ * All clients share one connection pool and one pool of daemon threads, so the connections to the Bot API are reused
+ * across requests and bots. Every client has its own dispatcher limiting the number of its requests in flight,
+ * asynchronous requests beyond the limit wait in the queue of the dispatcher instead of blocking a thread.
+ */
+public final class HttpClientUtil {
+
+    private static final String THREAD_NAME_PREFIX = "mcb-http-";
+
+    /**
+     * The timeouts of the client built by the Telegram bot library, which are longer than the long polling timeout.
+     */
+    private static final long TIMEOUT_SECONDS = 75;
+
+    private static final OkHttpClient SHARED = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(32, 5, TimeUnit.MINUTES))
+            .dispatcher(new Dispatcher(new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), ExecutorUtil.daemonThreadFactory(THREAD_NAME_PREFIX))))
+            .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .writeTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    private HttpClientUtil(){}
+
+    /**
+     * Creates a client sharing the connection pool and the threads of all clients of the library, which sends at most
+     * the given number of requests at the same time. One additional request is allowed for the long polling
+     * {@code getUpdates} request, which is in flight most of the time.
+     *
+     * @param maxRequestsInFlight The maximum number of requests in flight, besides the long polling request.
+     * @return The client.
+     */
+    @NotNull
+    public static OkHttpClient newClient(int maxRequestsInFlight) {
+        if (maxRequestsInFlight <= 0) {
+            throw new IllegalArgumentException("Number of requests in flight must be positive: " + maxRequestsInFlight);
+        }
+        Dispatcher dispatcher = new Dispatcher(SHARED.dispatcher().executorService());
+        dispatcher.setMaxRequests(maxRequestsInFlight + 1);
+        dispatcher.setMaxRequestsPerHost(maxRequestsInFlight + 1);
+        return SHARED.newBuilder().dispatcher(dispatcher).build();
+    }
+
+}
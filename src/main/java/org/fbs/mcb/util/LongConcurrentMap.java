@@ -0,0 +1,399 @@
+package org.fbs.mcb.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongFunction;
+
+/**
+ * A concurrent hash map with primitive {@code long} keys, used to look up users and chats by their Telegram id
+ * without boxing it.
+ * <p>
+ * The map is split into segments, every segment is an open addressing table with linear probing.
+ * Lookups never lock: a slot is published by writing its key and then its value with release semantics,
+ * and readers read the value with acquire semantics before the key. Insertions, removals and resizing lock
+ * the segment of the key only. Removed entries leave a tombstone which is never reused for another entry,
+ * so a concurrent lookup never observes a slot changing its key; tombstones are dropped when the segment is resized.
+ * <p>
+ * {@code null} values are not supported.
+ *
+ * @param <V> The type of the values.
+ */
+public class LongConcurrentMap<V> {
+
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private static final Object TOMBSTONE = new Object();
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    /**
+     * Constructs a new, empty LongConcurrentMap.
+     */
+    public LongConcurrentMap() {
+        this(0);
+    }
+
+    /**
+     * Constructs a new, empty LongConcurrentMap which can hold the specified number of entries without resizing.
+     *
+     * @param expectedSize The expected number of entries.
+     * @throws IllegalArgumentException If the expected size is negative.
+     */
+    public LongConcurrentMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size must not be negative: " + expectedSize);
+        }
+        int capacity = tableSize((expectedSize >> SEGMENT_BITS) + 1);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * Returns the value mapped to the key without locking.
+     *
+     * @param key The key.
+     * @return The value mapped to the key, or {@code null} if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long hash = hash(key);
+        Table table = segments[segmentIndex(hash)].table;
+        Object value = table.find(key, hash);
+        return value == TOMBSTONE ? null : (V) value;
+    }
+
+    /**
+     * Checks whether a value is mapped to the key.
+     *
+     * @param key The key.
+     * @return {@code true} if the map contains the key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the value mapped to the key, creating and mapping it if there is none.
+     * Existing values are returned without locking, the function is called at most once per absent key
+     * while the segment of the key is locked.
+     *
+     * @param key The key.
+     * @param factory The function creating the value for an absent key, it must not return {@code null}.
+     * @return The existing or the created value.
+     * @throws NullPointerException If the function returns {@code null}.
+     */
+    public V computeIfAbsent(long key, @NotNull LongFunction<? extends V> factory) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        long hash = hash(key);
+        return segments[segmentIndex(hash)].computeIfAbsent(key, hash, factory);
+    }
+
+    /**
+     * Maps the value to the key if no value is mapped to it yet.
+     *
+     * @param key The key.
+     * @param value The value, must not be {@code null}.
+     * @return The value previously mapped to the key, or {@code null} if the specified value was mapped.
+     * @throws NullPointerException If the value is {@code null}.
+     */
+    public V putIfAbsent(long key, @NotNull V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        V existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        long hash = hash(key);
+        V mapped = segments[segmentIndex(hash)].computeIfAbsent(key, hash, k -> value);
+        return mapped == value ? null : mapped;
+    }
+
+    /**
+     * Maps the value to the key, replacing the current value if there is one.
+     *
+     * @param key The key.
+     * @param value The value, must not be {@code null}.
+     * @return The value previously mapped to the key, or {@code null} if there was none.
+     * @throws NullPointerException If the value is {@code null}.
+     */
+    public V put(long key, @NotNull V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        long hash = hash(key);
+        return segments[segmentIndex(hash)].put(key, hash, value);
+    }
+
+    /**
+     * Removes the value mapped to the key.
+     *
+     * @param key The key.
+     * @return The removed value, or {@code null} if there was none.
+     */
+    public V remove(long key) {
+        long hash = hash(key);
+        return segments[segmentIndex(hash)].remove(key, hash, null);
+    }
+
+    /**
+     * Removes the entry of the key only if it is currently mapped to the specified value.
+     *
+     * @param key The key.
+     * @param value The expected value.
+     * @return {@code true} if the entry was removed.
+     */
+    public boolean remove(long key, @NotNull V value) {
+        long hash = hash(key);
+        return segments[segmentIndex(hash)].remove(key, hash, value) != null;
+    }
+
+    /**
+     * Returns the number of entries in the map. The result is not a snapshot if the map is modified concurrently.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Checks whether the map contains no entries.
+     *
+     * @return {@code true} if the map is empty.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Calls the action for every entry of the map without locking. Entries added or removed concurrently
+     * may or may not be visited, every entry is visited at most once.
+     *
+     * @param action The action to be called for every entry.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(@NotNull EntryConsumer<? super V> action) {
+        for (Segment segment : segments) {
+            Table table = segment.table;
+            for (int i = 0; i < table.keys.length; i++) {
+                Object value = VALUES.getAcquire(table.values, i);
+                if (value != null && value != TOMBSTONE) {
+                    action.accept(table.keys[i], (V) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls the action for up to the specified number of entries, starting at a random position of the map,
+     * without locking. Used to pick eviction candidates without visiting every entry.
+     *
+     * @param count The maximum number of entries to visit.
+     * @param action The action to be called for every sampled entry.
+     */
+    @SuppressWarnings("unchecked")
+    public void sample(int count, @NotNull EntryConsumer<? super V> action) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(segments.length);
+        int visited = 0;
+        for (int s = 0; s < segments.length && visited < count; s++) {
+            Table table = segments[(first + s) % segments.length].table;
+            int start = random.nextInt(table.keys.length);
+            for (int i = 0; i < table.keys.length && visited < count; i++) {
+                int slot = (start + i) & table.mask;
+                Object value = VALUES.getAcquire(table.values, slot);
+                if (value != null && value != TOMBSTONE) {
+                    action.accept(table.keys[slot], (V) value);
+                    visited++;
+                }
+            }
+        }
+    }
+
+    private static long hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private int segmentIndex(long hash) {
+        return (int) (hash >>> (Long.SIZE - SEGMENT_BITS));
+    }
+
+    private static int tableSize(int entries) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < entries) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * An action performed on an entry of a {@link LongConcurrentMap}.
+     *
+     * @param <V> The type of the values.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+
+        /**
+         * Performs the action on an entry.
+         *
+         * @param key The key of the entry.
+         * @param value The value of the entry.
+         */
+        void accept(long key, V value);
+
+    }
+
+    /**
+     * An immutable-size open addressing table. A slot is empty while its value is {@code null}.
+     */
+    private static final class Table {
+
+        private final long[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        private Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * Finds the live value of the key, probing past tombstones.
+         *
+         * @return The value, or {@code null} if the key is absent.
+         */
+        private Object find(long key, long hash) {
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                Object value = VALUES.getAcquire(values, i);
+                if (value == null) {
+                    return null;
+                }
+                if (value != TOMBSTONE && keys[i] == key) {
+                    return value;
+                }
+            }
+        }
+
+        /**
+         * Finds the slot of the live value of the key, or the empty slot where the key would be inserted.
+         * Must be called with the segment lock held.
+         */
+        private int slot(long key, long hash) {
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                Object value = values[i];
+                if (value == null || (value != TOMBSTONE && keys[i] == key)) {
+                    return i;
+                }
+            }
+        }
+
+        private void publish(int slot, long key, Object value) {
+            keys[slot] = key;
+            VALUES.setRelease(values, slot, value);
+        }
+
+    }
+
+    private static final class Segment {
+
+        private volatile Table table;
+        private volatile int size;
+        private int used;
+
+        private Segment(int capacity) {
+            table = new Table(capacity);
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized <V> V computeIfAbsent(long key, long hash, LongFunction<? extends V> factory) {
+            int slot = table.slot(key, hash);
+            Object existing = table.values[slot];
+            if (existing != null) {
+                return (V) existing;
+            }
+            V value = factory.apply(key);
+            if (value == null) {
+                throw new NullPointerException("The value factory must not return null");
+            }
+            insert(key, hash, slot, value);
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized <V> V put(long key, long hash, V value) {
+            int slot = table.slot(key, hash);
+            Object existing = table.values[slot];
+            if (existing != null) {
+                VALUES.setRelease(table.values, slot, value);
+                return (V) existing;
+            }
+            insert(key, hash, slot, value);
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized <V> V remove(long key, long hash, V expected) {
+            int slot = table.slot(key, hash);
+            Object existing = table.values[slot];
+            if (existing == null || (expected != null && existing != expected)) {
+                return null;
+            }
+            VALUES.setRelease(table.values, slot, TOMBSTONE);
+            size--;
+            return (V) existing;
+        }
+
+        private void insert(long key, long hash, int slot, Object value) {
+            if (used + 1 > table.keys.length * LOAD_FACTOR) {
+                resize();
+                slot = table.slot(key, hash);
+            }
+            table.publish(slot, key, value);
+            size++;
+            used++;
+        }
+
+        /**
+         * Copies the live entries into a new table, dropping the tombstones, and publishes it.
+         * The table grows only if live entries fill more than half of the current capacity.
+         */
+        private void resize() {
+            Table old = table;
+            int capacity = old.keys.length;
+            if (size + 1 > capacity * LOAD_FACTOR / 2) {
+                capacity <<= 1;
+            }
+            Table resized = new Table(capacity);
+            for (int i = 0; i < old.keys.length; i++) {
+                Object value = old.values[i];
+                if (value != null && value != TOMBSTONE) {
+                    long key = old.keys[i];
+                    resized.publish(resized.slot(key, hash(key)), key, value);
+                }
+            }
+            used = size;
+            table = resized;
+        }
+
+    }
+
+}
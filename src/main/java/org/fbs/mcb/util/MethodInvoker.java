@@ -2,10 +2,14 @@ package org.fbs.mcb.util;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -22,6 +26,11 @@ public class MethodInvoker {
      */
     private MethodInvoker(){}
 
+    /**
+     * The maximum number of arguments passed to a handler, the size of the largest parameter set in {@link org.fbs.mcb.data.meta.Constants}.
+     */
+    public static final int MAX_ARGUMENTS = 4;
+
     /**
      * Generates all possible permutations of the given list of classes, starting from the specified index.
      * The generated permutations are added to the given result list.
@@ -183,6 +192,61 @@ public class MethodInvoker {
         method.invoke(null, args);
     }
 
+    /**
+     * Creates a method handle of fixed arity which invokes the specified method without the per-call checks of
+     * {@link #invokeMethod}. The handle takes the arguments in the order of an update type's parameter set
+     * (see {@link org.fbs.mcb.data.meta.Constants}) and passes them to the method in the order of its parameters.
+     * <p>
+     * The returned handle has the type {@code (Object, Object, Object, Object, Object)void}: the first argument is
+     * the object on which the method is invoked (ignored for static methods), followed by {@link #MAX_ARGUMENTS}
+     * arguments. Unused trailing arguments may be {@code null}. Calling it with {@link MethodHandle#invokeExact(Object...)}
+     * allocates no argument arrays.
+     *
+     * @param method the method to create a handle for, must not be null
+     * @param permutation for each method parameter, the index of the argument passed to it, or -1 to pass {@code null}
+     * @return a handle of fixed arity for the method
+     * @throws IllegalArgumentException if the method is not accessible, or if the permutation does not match its parameters
+     *
+     * @see org.fbs.mcb.data.ClassReorder#getPermutation()
+     */
+    @NotNull
+    public static MethodHandle unreflect(@NotNull Method method, @NotNull int[] permutation) {
+        if (permutation.length != method.getParameterCount()) {
+            throw new IllegalArgumentException("The permutation does not match the method parameters: " + method.toGenericString());
+        }
+        MethodHandle handle;
+        try {
+            method.setAccessible(true);
+            handle = MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("Method is not accessible: " + method.toGenericString(), e);
+        }
+        if (isStatic(method)) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        handle = handle.asType(MethodType.genericMethodType(permutation.length + 1).changeReturnType(void.class));
+
+        int[] reorder = new int[permutation.length + 1];
+        int parameters = 1;
+        for (int i = permutation.length - 1; i >= 0; i--) {
+            if (permutation[i] == -1) {
+                handle = MethodHandles.insertArguments(handle, i + 1, (Object) null);
+            }
+        }
+        for (int index : permutation) {
+            if (index >= MAX_ARGUMENTS) {
+                throw new IllegalArgumentException("Argument index " + index + " exceeds the maximum number of arguments");
+            }
+            if (index != -1) {
+                reorder[parameters++] = index + 1;
+            }
+        }
+        return MethodHandles.permuteArguments(
+                handle,
+                MethodType.genericMethodType(MAX_ARGUMENTS + 1).changeReturnType(void.class),
+                Arrays.copyOf(reorder, parameters));
+    }
+
     /**
      * Determines if the specified method is static.
      *
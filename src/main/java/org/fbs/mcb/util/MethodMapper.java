@@ -12,11 +12,9 @@ import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static org.fbs.mcb.util.AnnotationUtil.getAnnotatedMethods;
-import static org.fbs.mcb.util.MethodInvoker.generateAllSubsetsWithPermutations;
 import static org.fbs.mcb.util.MethodInvoker.hasDuplicate;
 
 /**
@@ -76,133 +74,134 @@ public class MethodMapper extends AbstractMethodMapper {
         }
 
         for (Method method: methods){
-            MethodSignature signature = getSignature(method, List.of(argsClasses), Arrays.toString(argsClasses), argsClasses);
+            MethodType type;
+            String key;
             switch (method.getAnnotation(Feedback.class).value()){
                 case "update":{
-                    botMethods.add(
-                            new BotMethod(method,
-                                    getProcessor().isThreadSeparation(),
-                                    MethodType.UPDATE,
-                                    "update",
-                                    new ClassReorder(
-                                            Constants.UPDATE_PARAMETERS,
-                                            signature.parameterTypes()
-                                    ))
-                    );
+                    type = MethodType.UPDATE;
+                    key = "update";
                     break;
                 }
                 case "start":{
-                    botMethods.add(
-                            new BotMethod(method,
-                                    getProcessor().isThreadSeparation(),
-                                    MethodType.START,
-                                    getProcessor().getStartCommand(),
-                                    new ClassReorder(
-                                            Constants.START_PARAMETERS,
-                                            signature.parameterTypes()
-                                    ))
-                    );
+                    type = MethodType.START;
+                    key = getProcessor().getStartCommand();
                     break;
                 }
                 case "inline_query":{
-                    botMethods.add(
-                            new BotMethod(method,
-                                    getProcessor().isThreadSeparation(),
-                                    MethodType.INLINE_QUERY,
-                                    "inline_query",
-                                    new ClassReorder(
-                                            Constants.INLINE_QUERY_PARAMETERS,
-                                            signature.parameterTypes()
-                                    ))
-                    );
+                    type = MethodType.INLINE_QUERY;
+                    key = "inline_query";
                     break;
                 }
                 case "callback_query":{
-                    botMethods.add(
-                            new BotMethod(method,
-                                    getProcessor().isThreadSeparation(),
-                                    MethodType.CALLBACK_QUERY,
-                                    "callback_query",
-                                    new ClassReorder(
-                                            Constants.CALLBACK_QUERY_PARAMETERS,
-                                            signature.parameterTypes()
-                                    ))
-                    );
+                    type = MethodType.CALLBACK_QUERY;
+                    key = "callback_query";
                     break;
                 }
                 case "message":{
-                    botMethods.add(
-                            new BotMethod(method,
-                                    getProcessor().isThreadSeparation(),
-                                    MethodType.MESSAGE,
-                                    "message",
-                                    new ClassReorder(
-                                            Constants.MESSAGE_PARAMETERS,
-                                            signature.parameterTypes()
-                                    ))
-                    );
+                    type = MethodType.MESSAGE;
+                    key = "message";
                     break;
                 }
                 case "entities":{
-                    botMethods.add(
-                            new BotMethod(method,
-                                    getProcessor().isThreadSeparation(),
-                                    MethodType.ENTITIES,
-                                    "entities",
-                                    new ClassReorder(
-                                            Constants.ENTITIES_PARAMETERS,
-                                            signature.parameterTypes()
-                                    ))
-                    );
+                    type = MethodType.ENTITIES;
+                    key = "entities";
                     break;
                 }
                 default:{
-                    break;
+                    continue;
                 }
             }
+            botMethods.add(createBotMethod(method, type, key, argsClasses));
         }
 
         for (Method command: commands){
-            MethodSignature signature = getSignature(command, List.of(argsClasses), Arrays.toString(argsClasses), argsClasses);
-            botMethods.add(
-                    new BotMethod(command,
-                            getProcessor().isThreadSeparation(),
-                            MethodType.COMMAND,
-                            command.getAnnotation(Command.class).value(),
-                            new ClassReorder(
-                                    Constants.COMMAND_PARAMETERS,
-                                    signature.parameterTypes()
-                            ))
-            );
+            botMethods.add(createBotMethod(command, MethodType.COMMAND, command.getAnnotation(Command.class).value(), argsClasses));
         }
 
         return botMethods;
     }
 
     /**
-     * Checks if a method's signature matches the provided argument classes.
+     * Creates a {@link BotMethod} which passes the arguments of the parameter set of the method type
+     * to the method in the order of its parameters.
+     *
+     * @param method The annotated method.
+     * @param type The type of the bot method.
+     * @param key The key of the bot method.
+     * @param argsClasses The array of argument classes allowed in method signatures.
+     * @return The created bot method.
+     * @throws IllegalArgumentException If the method signature is not supported.
+     */
+    @NotNull
+    private BotMethod createBotMethod(Method method, MethodType type, String key, Class<?>[] argsClasses) {
+        Class<?>[] parameters = Constants.getParameters(type);
+        return new BotMethod(method,
+                getProcessor().getHandlerExecutor(),
+                type,
+                key,
+                new ClassReorder(
+                        parameters,
+                        getSignature(method, parameters, argsClasses).parameterTypes()
+                ));
+    }
+
+    /**
+     * Resolves the signature of a method against the parameter set of its method type.
+     * Every method parameter is assigned a distinct class of the parameter set that can be passed to it.
      *
      * @param method The method to be checked.
-     * @param argsClasses2 The list of argument classes to be considered.
-     * @param string The string representation of the argument classes.
-     * @param argsClasses The array of argument classes.
-     * @return The {@link MethodSignature} object representing the method's signature.
+     * @param parameters The parameter set of the method type.
+     * @param argsClasses The array of argument classes allowed in method signatures.
+     * @return The {@link MethodSignature} object whose parameter types are the classes assigned to the method parameters.
      * @throws IllegalArgumentException If the method signature is not supported or if duplicate argument classes are found.
      */
     @NotNull
-    private MethodSignature getSignature(Method method, List<Class<?>> argsClasses2, String string, Class<?>[] argsClasses) {
-        if (!hasDuplicate(List.of(argsClasses))){
-            for (List<Class<?>> classes: generateAllSubsetsWithPermutations(argsClasses2)){
-                MethodSignature signature = new MethodSignature(void.class, classes.toArray(new Class[0]));
-                if (signature.checkParameters(method)){
-                    return signature;
+    private MethodSignature getSignature(Method method, Class<?>[] parameters, Class<?>[] argsClasses) {
+        if (hasDuplicate(List.of(argsClasses))){
+            throw new IllegalArgumentException("Not annotated duplicate argument classes in method signature: " + method.toGenericString());
+        }
+        List<Class<?>> allowed = new ArrayList<>();
+        for (Class<?> parameter : parameters) {
+            if (List.of(argsClasses).contains(parameter)) {
+                allowed.add(parameter);
+            }
+        }
+        Class<?>[] resolved = new Class<?>[method.getParameterCount()];
+        if (resolved.length > allowed.size() || !resolve(method.getParameterTypes(), allowed, resolved, 0)) {
+            throw new IllegalArgumentException("Method signature are not supported: " + method.toGenericString() + ", supported elements of method signature: " + allowed);
+        }
+        return new MethodSignature(void.class, resolved);
+    }
+
+    /**
+     * Assigns a distinct allowed class to each method parameter starting from the specified one,
+     * trying other assignments of the previous parameters if a parameter has no class left.
+     *
+     * @return {@code true} if every parameter starting from the specified one was assigned a class.
+     */
+    private static boolean resolve(Class<?>[] methodParameters, List<Class<?>> allowed, Class<?>[] resolved, int index) {
+        if (index == methodParameters.length) {
+            return true;
+        }
+        for (Class<?> candidate : allowed) {
+            if (ClassUtil.isAssignableFrom(methodParameters[index], candidate) && !isResolved(resolved, index, candidate)) {
+                resolved[index] = candidate;
+                if (resolve(methodParameters, allowed, resolved, index + 1)) {
+                    return true;
                 }
             }
-            throw new IllegalArgumentException("Method signature are not supported: " + method.toGenericString() + ", supported elements of method signature: " + string);
         }
-        else {
-            throw new IllegalArgumentException("Not annotated duplicate argument classes in method signature: " + method.toGenericString());
+        resolved[index] = null;
+        return false;
+    }
+
+    private static boolean isResolved(Class<?>[] resolved, int count, Class<?> candidate) {
+        for (int i = 0; i < count; i++) {
+            if (resolved[i] == candidate) {
+                return true;
+            }
         }
+        return false;
     }
 
 }
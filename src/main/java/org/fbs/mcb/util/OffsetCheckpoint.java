@@ -0,0 +1,201 @@
+package org.fbs.mcb.util;
+
+import org.fbs.mcb.data.user.TaskDeque;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * Persists the update_id of the last update the bot processed, so it resumes receiving updates after it when it is
+ * restarted instead of losing the updates of an unfinished batch.
+ * <p>
+ * Committing an update_id only raises the offset in memory with a compare-and-set. The offset is written to the file
+ * and forced to the storage device periodically, so a single fsync covers all updates committed in the interval. The
+ * file is replaced atomically by a temporary file and protected by a CRC-32C, so it holds either the previous or the
+ * new offset after a crash. Updates committed after the last sync are processed again after a crash, never lost,
+ * and bots should call {@link #sync()} before they stop.
+ */
+public class OffsetCheckpoint implements AutoCloseable {
+
+    private static final int MAGIC = 0x4D43424F;
+    private static final int SIZE = 16;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * The offset of a checkpoint to which no update was committed yet.
+     */
+    public static final int NONE = -1;
+
+    private final Path file;
+    private final long syncInterval;
+    private final AtomicInteger offset = new AtomicInteger(NONE);
+    private final LongAdder syncs = new LongAdder();
+
+    private int syncedOffset = NONE;
+    private volatile boolean closed;
+    private volatile TimingWheel.Timeout sync;
+
+    private OffsetCheckpoint(Path file, long syncInterval) {
+        this.file = file;
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Opens the checkpoint file, creating it on the first sync if it does not exist, and starts syncing it.
+     *
+     * @param file The checkpoint file.
+     * @param syncInterval The time in milliseconds between two syncs of the file, {@code 0} or less to sync it on
+     *                     every commit.
+     * @return The opened checkpoint holding the offset of the file.
+     * @throws IOException If the file cannot be read or is not a valid checkpoint.
+     */
+    @NotNull
+    public static OffsetCheckpoint open(@NotNull Path file, long syncInterval) throws IOException {
+        OffsetCheckpoint checkpoint = new OffsetCheckpoint(file, syncInterval);
+        checkpoint.read();
+        checkpoint.scheduleSync();
+        return checkpoint;
+    }
+
+    /**
+     * Returns the update_id of the last committed update.
+     *
+     * @return The offset, or {@link #NONE} if no update was committed yet.
+     */
+    public int getOffset() {
+        return offset.get();
+    }
+
+    /**
+     * Returns the update_id of the last update written to the storage device.
+     *
+     * @return The synced offset, or {@link #NONE} if no offset was synced yet.
+     */
+    public synchronized int getSyncedOffset() {
+        return syncedOffset;
+    }
+
+    /**
+     * Commits a processed update. The offset is raised to the update_id if it is higher, so updates may be committed
+     * out of order by several threads.
+     *
+     * @param updateId The update_id of the processed update.
+     * @throws UncheckedIOException If the checkpoint is synced on every commit and cannot be written.
+     */
+    public void commit(int updateId) {
+        int current = offset.get();
+        while (updateId > current && !offset.compareAndSet(current, updateId)) {
+            current = offset.get();
+        }
+        if (syncInterval <= 0 && updateId > current) {
+            try {
+                sync();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the offset to a temporary file, forces it to the storage device and atomically replaces the checkpoint
+     * file with it. Does nothing if the offset has not changed since the previous sync.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void sync() throws IOException {
+        int current = offset.get();
+        if (current == syncedOffset) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(current).putInt(0);
+        buffer.putInt(crc(buffer, SIZE - Integer.BYTES));
+        buffer.flip();
+        Path temporary = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncedOffset = current;
+        syncs.increment();
+    }
+
+    /**
+     * Returns the number of times the offset was written to the storage device.
+     *
+     * @return The number of syncs.
+     */
+    public long getSyncCount() {
+        return syncs.sum();
+    }
+
+    /**
+     * Stops syncing periodically and syncs the last committed offset.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        TimingWheel.Timeout timeout = sync;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        sync();
+    }
+
+    private void scheduleSync() {
+        if (closed || syncInterval <= 0) {
+            return;
+        }
+        sync = TimingWheel.getDefault().schedule(() -> TaskDeque.getDefaultExecutor().execute(() -> {
+            try {
+                sync();
+            } catch (IOException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                scheduleSync();
+            }
+        }), syncInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the offset of the checkpoint file, if it exists.
+     */
+    private synchronized void read() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() != SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(SIZE - Integer.BYTES) != crc(buffer, SIZE - Integer.BYTES)) {
+            throw new IOException("Invalid offset checkpoint file: " + file);
+        }
+        syncedOffset = buffer.getInt(4);
+        offset.set(syncedOffset);
+    }
+
+    private static int crc(ByteBuffer buffer, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(0).limit(length));
+        return (int) crc.getValue();
+    }
+
+}
@@ -0,0 +1,517 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.response.BaseResponse;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests to the Bot API within Telegram's rate limits.
+ * <p>
+ * Requests are queued per chat, using the {@code chat_id} parameter of the request. A scheduler thread
+ * takes one request at a time from each chat in round-robin order, so a broadcast to many chats cannot starve a busy
+ * group or the other way round. A chat is served again only after its interval, which is longer for groups than for
+ * private chats, and no request is started before the interval of the global rate has passed. A chat has at most one
+ * request in flight, which keeps the messages of a chat in order. Requests without a chat, such as answers to callback
+ * queries, are only limited by the global rate and may be in flight at the same time.
+ * <p>
+ * When the Bot API answers with {@code 429 Too Many Requests}, the request is sent again after the
+ * {@code retry_after} delay of the response. Its chat and, since the flood limit applies to the whole bot, every other
+ * request are paused until then. The future of a request completes
+ * once the Bot API has accepted or finally rejected it, on the thread which sent it. Cancelling the future withdraws
+ * the request as long as it is queued, a request which is being sent cannot be cancelled.
+ */
+public class SendScheduler {
+
+    private static final String THREAD_NAME = "mcb-send";
+    private static final String SENDER_THREAD_NAME_PREFIX = "mcb-send-";
+
+    /**
+     * The number of requests sent at the same time by a scheduler created without a configuration.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int MAX_RETRIES = 5;
+    private static final long DEFAULT_RETRY_AFTER = TimeUnit.SECONDS.toNanos(1);
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final Sender sender;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final long globalInterval;
+    private final long chatInterval;
+    private final long groupInterval;
+
+    private final Queue<Pending<?>> submitted = new ConcurrentLinkedQueue<>();
+    private final Queue<Pending<?>> completed = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean stopped;
+
+    private final LongConcurrentMap<Chat> chats = new LongConcurrentMap<>();
+    private final ArrayDeque<Chat> ready = new ArrayDeque<>();
+    private final PriorityQueue<Chat> waiting = new PriorityQueue<>((a, b) -> Long.compare(a.notBefore - b.notBefore, 0));
+    private long nextStart = System.nanoTime();
+    private long lastSweep = nextStart;
+    private int inFlight;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Constructs a new SendScheduler sending through the bot with Telegram's default limits: 30 requests per second,
+     * one message per second in a private chat and 20 messages per minute in a group,
+     * with {@value #DEFAULT_MAX_IN_FLIGHT} requests in flight.
+     *
+     * @param bot The bot sending the requests.
+     */
+    public SendScheduler(@NotNull TelegramBot bot) {
+        this(telegramSender(bot), 30, 1000, 3000, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Constructs a new SendScheduler and starts its scheduler thread.
+     *
+     * @param sender The function sending a request to the Bot API, for example {@link #telegramSender(TelegramBot)}.
+     * @param globalRate The maximum number of requests per second.
+     * @param chatInterval The minimum time in milliseconds between two requests to the same private chat.
+     * @param groupInterval The minimum time in milliseconds between two requests to the same group or channel.
+     * @param maxInFlight The maximum number of requests sent at the same time.
+     * @throws IllegalArgumentException If the global rate or the number of requests in flight is not positive.
+     */
+    public SendScheduler(@NotNull Sender sender, double globalRate, long chatInterval, long groupInterval, int maxInFlight) {
+        if (globalRate <= 0) {
+            throw new IllegalArgumentException("Global rate must be positive: " + globalRate);
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Number of requests in flight must be positive: " + maxInFlight);
+        }
+        this.sender = sender;
+        this.maxInFlight = maxInFlight;
+        this.globalInterval = (long) (TimeUnit.SECONDS.toNanos(1) / globalRate);
+        this.chatInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, chatInterval));
+        this.groupInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, groupInterval));
+        this.executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                ExecutorUtil.daemonThreadFactory(SENDER_THREAD_NAME_PREFIX));
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+        this.worker = new Thread(this::run, THREAD_NAME);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Returns a sender executing requests synchronously on the bot.
+     *
+     * @param bot The bot sending the requests.
+     * @return The sender.
+     */
+    @NotNull
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Sender telegramSender(@NotNull TelegramBot bot) {
+        return request -> bot.execute((BaseRequest) request);
+    }
+
+    /**
+     * Queues a request to be sent when the rate limits of its chat and of the bot allow it.
+     *
+     * @param request The request to be sent.
+     * @param <T> The type of the request.
+     * @param <R> The type of the response.
+     * @return The future completed with the response of the Bot API, or exceptionally if the request could not be sent
+     *         or the scheduler was shut down. Cancelling it withdraws the request unless it is being sent.
+     * @throws RejectedExecutionException If the scheduler is shut down.
+     */
+    @NotNull
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> submit(@NotNull BaseRequest<T, R> request) {
+        if (stopped) {
+            throw new RejectedExecutionException("The send scheduler is shut down");
+        }
+        Pending<R> pending = new Pending<>(request, chatKey(request));
+        queued.increment();
+        submitted.add(pending);
+        LockSupport.unpark(worker);
+        return pending.future;
+    }
+
+    /**
+     * Stops the scheduler. Requests which have not been sent yet are cancelled, requests in flight complete normally.
+     */
+    public void shutdown() {
+        stopped = true;
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Returns the number of requests which were submitted but not completed yet.
+     *
+     * @return The number of queued requests.
+     */
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    /**
+     * Returns the number of requests the Bot API accepted or finally rejected.
+     *
+     * @return The number of sent requests.
+     */
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    /**
+     * Returns the number of {@code 429 Too Many Requests} responses which caused a request to be sent again.
+     *
+     * @return The number of retries.
+     */
+    public long getRetriedCount() {
+        return retried.sum();
+    }
+
+    /**
+     * Returns the number of requests which failed with an exception.
+     *
+     * @return The number of failed requests.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    private void run() {
+        while (!stopped) {
+            long now = System.nanoTime();
+            acceptSubmitted(now);
+            acceptCompleted(now);
+            if (now - lastSweep > SWEEP_INTERVAL) {
+                removeIdleChats(now);
+            }
+            while (!waiting.isEmpty() && waiting.peek().notBefore - now <= 0) {
+                ready.add(waiting.poll());
+            }
+            long delay = -1;
+            if (!ready.isEmpty() && inFlight < maxInFlight) {
+                if (nextStart - now > 0) {
+                    delay = nextStart - now;
+                }
+                else {
+                    start(ready.poll(), now);
+                    continue;
+                }
+            }
+            if (!waiting.isEmpty()) {
+                long wait = waiting.peek().notBefore - now;
+                delay = delay < 0 ? wait : Math.min(delay, wait);
+            }
+            if (delay < 0 && !chats.isEmpty()) {
+                delay = SWEEP_INTERVAL;
+            }
+            if (delay < 0) {
+                LockSupport.park(this);
+            }
+            else {
+                LockSupport.parkNanos(this, delay);
+            }
+        }
+        cancelAll();
+    }
+
+    private void acceptSubmitted(long now) {
+        Pending<?> pending;
+        while ((pending = submitted.poll()) != null) {
+            long key = pending.chatKey;
+            Chat chat = chats.get(key);
+            if (chat == null) {
+                chat = new Chat(key, key == 0 ? 0 : key < 0 ? groupInterval : chatInterval, now);
+                chats.put(key, chat);
+            }
+            pending.chat = chat;
+            chat.queue.add(pending);
+            if (!chat.busy && !chat.scheduled) {
+                schedule(chat);
+            }
+        }
+    }
+
+    /**
+     * Handles the requests which were sent. A request to be retried stays at the head of its chat queue,
+     * and both the chat and the start of the next request are delayed by the {@code retry_after} delay.
+     */
+    private void acceptCompleted(long now) {
+        Pending<?> pending;
+        while ((pending = completed.poll()) != null) {
+            inFlight--;
+            Chat chat = pending.chat;
+            if (pending.retryAfter > 0) {
+                chat.notBefore = Math.max(chat.notBefore - now, pending.retryAfter) + now;
+                nextStart = Math.max(nextStart - now, pending.retryAfter) + now;
+                pending.retryAfter = 0;
+                pending.future.requeue();
+                if (chat.key == 0) {
+                    chat.queue.addFirst(pending);
+                }
+            }
+            else if (chat.key != 0) {
+                chat.queue.poll();
+            }
+            chat.busy = false;
+            if (!chat.queue.isEmpty() && !chat.scheduled) {
+                schedule(chat);
+            }
+        }
+    }
+
+    /**
+     * Removes the chats which have neither queued requests nor a pause.
+     */
+    private void removeIdleChats(long now) {
+        lastSweep = now;
+        chats.forEach((key, chat) -> {
+            if (chat.queue.isEmpty() && !chat.busy && !chat.scheduled && chat.notBefore - now <= 0) {
+                chats.remove(key, chat);
+            }
+        });
+    }
+
+    private void schedule(Chat chat) {
+        chat.scheduled = true;
+        if (chat.notBefore - System.nanoTime() <= 0) {
+            ready.add(chat);
+        }
+        else {
+            waiting.add(chat);
+        }
+    }
+
+    /**
+     * Starts sending the first request of the chat. A chat is unscheduled while its request is in flight,
+     * except for the requests without a chat, which are taken from the queue and may be sent in parallel.
+     */
+    private void start(Chat chat, long now) {
+        chat.scheduled = false;
+        Pending<?> pending = chat.key == 0 ? chat.queue.poll() : chat.queue.peek();
+        if (!pending.future.startSending()) {
+            // cancelled while it was queued, the chat is served again without waiting
+            queued.decrement();
+            if (chat.key != 0) {
+                chat.queue.poll();
+            }
+            if (!chat.queue.isEmpty()) {
+                schedule(chat);
+            }
+            return;
+        }
+        inFlight++;
+        nextStart = Math.max(nextStart - now, 0) + now + globalInterval;
+        chat.notBefore = now + chat.interval;
+        if (chat.key == 0) {
+            if (!chat.queue.isEmpty()) {
+                schedule(chat);
+            }
+        }
+        else {
+            chat.busy = true;
+        }
+        try {
+            executor.execute(() -> send(pending));
+        } catch (RejectedExecutionException e) {
+            failed.increment();
+            queued.decrement();
+            pending.future.completeExceptionally(e);
+            completed.add(pending);
+        }
+    }
+
+    private void send(Pending<?> pending) {
+        try {
+            BaseResponse response = sender.execute(pending.request);
+            if (response != null && !response.isOk() && response.errorCode() == TOO_MANY_REQUESTS
+                    && pending.attempts++ < MAX_RETRIES) {
+                retried.increment();
+                Integer retryAfter = response.parameters() != null ? response.parameters().retryAfter() : null;
+                pending.retryAfter = retryAfter != null ? TimeUnit.SECONDS.toNanos(retryAfter) : DEFAULT_RETRY_AFTER;
+            }
+            else {
+                sent.increment();
+                queued.decrement();
+                pending.complete(response);
+            }
+        } catch (RuntimeException e) {
+            failed.increment();
+            queued.decrement();
+            pending.future.completeExceptionally(e);
+        } finally {
+            completed.add(pending);
+            LockSupport.unpark(worker);
+            if (stopped) {
+                // the scheduler thread may have cancelled the queued requests before this one was added
+                cancelRetries();
+            }
+        }
+    }
+
+    private void cancelAll() {
+        Pending<?> pending;
+        while ((pending = submitted.poll()) != null) {
+            queued.decrement();
+            pending.future.completeExceptionally(new CancellationException("The send scheduler is shut down"));
+        }
+        chats.forEach((key, chat) -> {
+            for (Pending<?> queuedRequest : chat.queue) {
+                if (!chat.busy || queuedRequest != chat.queue.peek()) {
+                    queued.decrement();
+                    queuedRequest.future.completeExceptionally(new CancellationException("The send scheduler is shut down"));
+                }
+            }
+        });
+        cancelRetries();
+        executor.shutdown();
+    }
+
+    /**
+     * Cancels the sent requests which the Bot API asked to retry after the scheduler was shut down, and so would
+     * never complete. The other sent requests were already completed by the thread which sent them.
+     */
+    private void cancelRetries() {
+        Pending<?> pending;
+        while ((pending = completed.poll()) != null) {
+            if (pending.retryAfter > 0) {
+                queued.decrement();
+                pending.future.completeExceptionally(new CancellationException("The send scheduler is shut down"));
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the chat the request is sent to, or 0 if the request has no numeric chat id.
+     * Channel usernames are keyed by their hash code, groups and channels have negative ids.
+     */
+    private static long chatKey(BaseRequest<?, ?> request) {
+        Map<String, Object> parameters = request.getParameters();
+        Object chatId = parameters != null ? parameters.get("chat_id") : null;
+        if (chatId instanceof Number) {
+            return ((Number) chatId).longValue();
+        }
+        if (chatId instanceof String) {
+            try {
+                return Long.parseLong((String) chatId);
+            } catch (NumberFormatException e) {
+                return -1 - (chatId.hashCode() & 0x7fffffffL);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sends a request to the Bot API.
+     */
+    @FunctionalInterface
+    public interface Sender {
+
+        /**
+         * Sends the request and waits for the response.
+         *
+         * @param request The request.
+         * @return The response of the Bot API.
+         */
+        BaseResponse execute(@NotNull BaseRequest<?, ?> request);
+
+    }
+
+    /**
+     * The queue and the pacing state of a chat, accessed by the scheduler thread only.
+     */
+    private static final class Chat {
+
+        private final long key;
+        private final long interval;
+        private final ArrayDeque<Pending<?>> queue = new ArrayDeque<>(2);
+        private long notBefore;
+        private boolean scheduled;
+        private boolean busy;
+
+        private Chat(long key, long interval, long now) {
+            this.key = key;
+            this.interval = interval;
+            this.notBefore = now;
+        }
+
+    }
+
+    private static final class Pending<R extends BaseResponse> {
+
+        private final BaseRequest<?, R> request;
+        private final long chatKey;
+        private final RequestFuture<R> future = new RequestFuture<>();
+        private Chat chat;
+        private int attempts;
+
+        /**
+         * The delay before the request is sent again, written by the thread which sent it.
+         */
+        private long retryAfter;
+
+        private Pending(BaseRequest<?, R> request, long chatKey) {
+            this.request = request;
+            this.chatKey = chatKey;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(BaseResponse response) {
+            future.complete((R) response);
+        }
+
+    }
+
+    /**
+     * The future of a request, which can only be cancelled while the request is queued.
+     */
+    private static final class RequestFuture<R extends BaseResponse> extends CompletableFuture<R> {
+
+        private static final int QUEUED = 0;
+        private static final int SENDING = 1;
+        private static final int CANCELLED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return state.compareAndSet(QUEUED, CANCELLED) && super.cancel(mayInterruptIfRunning);
+        }
+
+        /**
+         * Marks the request as being sent.
+         *
+         * @return {@code false} if the request was cancelled and must not be sent.
+         */
+        private boolean startSending() {
+            return state.compareAndSet(QUEUED, SENDING);
+        }
+
+        /**
+         * Marks the request as queued again, after the Bot API asked to retry it later.
+         */
+        private void requeue() {
+            state.set(QUEUED);
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.data.entity.AbstractBot;
+import org.fbs.mcb.util.base.AbstractUpdateManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An update manager which processes updates of different chats in parallel.
+ * <p>
+ * Each update is assigned to one of a fixed number of shards by its chat key (see {@link UpdateUtil#chatKey(Update)}),
+ * every shard has its own worker thread and bounded queue. Updates of one chat always go to the same shard,
+ * so they are processed strictly in the order they were received, while different chats are processed in parallel.
+ * When the queue of a shard is full, the caller is blocked until space becomes available.
+ * <p>
+ * The processing itself is performed by the delegate update manager. Since {@link #processUpdate(Object...)} returns
+ * once the update is queued, the caller cannot tell when or whether the update was processed: the poller confirms the
+ * update before its handlers ran, exceptions of the handlers are passed to the uncaught exception handler of the shard,
+ * and updates still queued when the process dies are lost. A task passed along with the update, such as the parse
+ * functions of a double dispatch bot, runs on the shard after the handlers. Call {@link #shutdown()} to process the
+ * queued updates before the bot stops.
+ */
+public class ShardedUpdateManager extends AbstractUpdateManager {
+
+    private static final Object[] STOP = new Object[0];
+
+    private final AbstractUpdateManager delegate;
+    private final Shard[] shards;
+    private final ReadWriteLock gate = new ReentrantReadWriteLock();
+    private boolean stopped;
+
+    /**
+     * Constructs a new ShardedUpdateManager and starts its worker threads.
+     *
+     * @param delegate The update manager which processes the updates on the worker threads.
+     * @param shardCount The number of shards, a non-positive value uses one shard per available processor.
+     * @param queueDepth The maximum number of updates waiting in the queue of every shard.
+     * @throws IllegalArgumentException If the queue depth is not positive.
+     */
+    public ShardedUpdateManager(@NotNull AbstractUpdateManager delegate, int shardCount, int queueDepth) {
+        if (queueDepth <= 0) {
+            throw new IllegalArgumentException("Shard queue depth must be positive: " + queueDepth);
+        }
+        if (shardCount <= 0) {
+            shardCount = Runtime.getRuntime().availableProcessors();
+        }
+        this.delegate = delegate;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, queueDepth);
+            shards[i].start();
+        }
+    }
+
+    /**
+     * Sets the ConfigurationProcessor for this update manager and its delegate.
+     *
+     * @param processor The ConfigurationProcessor to be set.
+     */
+    @Override
+    public void setProcessor(ConfigurationProcessor processor) {
+        super.setProcessor(processor);
+        delegate.setProcessor(processor);
+    }
+
+    /**
+     * Queues the update to the shard of its chat and returns without waiting for it to be processed.
+     *
+     * @param args An array of objects containing the update and the associated bot.
+     *             The first element should be an instance of {@link Update}, and the second element should be an instance of {@link AbstractBot<?>}.
+     *             An optional {@link Runnable} third element runs on the shard after the update was processed.
+     *
+     * @throws RuntimeException If the arguments do not match these types, or if the calling thread is interrupted while waiting for space in the queue.
+     * @throws RejectedExecutionException If the shards are shut down.
+     */
+    @Override
+    public void processUpdate(Object ... args) {
+        if (!(args[0] instanceof Update)) {
+            throw new RuntimeException("This update handler must take a non-null Update value as its first argument");
+        }
+        if (!(args[1] instanceof AbstractBot<?>)) {
+            throw new RuntimeException("This update handler must take a non-null AbstractBot<?> value as its second argument");
+        }
+        long key = UpdateUtil.chatKey((Update) args[0]);
+        try {
+            // queueing holds the read lock, so shutdown() queues STOP only behind the updates accepted before it
+            gate.readLock().lockInterruptibly();
+            try {
+                if (stopped) {
+                    throw new RejectedExecutionException("The dispatch shards are shut down");
+                }
+                shards[shardIndex(key)].queue.put(args);
+            } finally {
+                gate.readLock().unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return The number of shards.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the number of updates waiting to be processed in all shards.
+     *
+     * @return The total queue depth.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Stops accepting updates, waits until the updates queued before are processed and stops the worker threads.
+     * Updates which are being queued when the shards are shut down are queued first and processed as well.
+     * If the calling thread is interrupted while waiting, the worker threads are interrupted and the updates still
+     * waiting in the queues are not processed.
+     */
+    public void shutdown() {
+        try {
+            boolean first;
+            gate.writeLock().lockInterruptibly();
+            try {
+                first = !stopped;
+                stopped = true;
+            } finally {
+                gate.writeLock().unlock();
+            }
+            if (first) {
+                for (Shard shard : shards) {
+                    shard.queue.put(STOP);
+                }
+            }
+            for (Shard shard : shards) {
+                shard.join();
+            }
+        } catch (InterruptedException e) {
+            for (Shard shard : shards) {
+                shard.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int shardIndex(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) ((hash >>> 32) % shards.length);
+    }
+
+    /**
+     * A worker thread which processes the updates of its queue one by one.
+     */
+    private class Shard extends Thread {
+
+        private final BlockingQueue<Object[]> queue;
+
+        private Shard(int index, int queueDepth) {
+            super("mcb-dispatch-" + index);
+            setDaemon(true);
+            queue = new ArrayBlockingQueue<>(queueDepth);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Object[] args;
+                try {
+                    args = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (args == STOP) {
+                    return;
+                }
+                try {
+                    delegate.processUpdate(args);
+                } catch (RuntimeException e) {
+                    getUncaughtExceptionHandler().uncaughtException(this, e);
+                }
+            }
+        }
+
+    }
+
+}
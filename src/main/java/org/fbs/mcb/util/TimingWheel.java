@@ -0,0 +1,331 @@
+package org.fbs.mcb.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A hashed timing wheel running many timeouts on a single thread.
+ * <p>
+ * The wheel is an array of buckets, each covering one tick. A timeout is put into the bucket of its deadline,
+ * with the number of full wheel rotations left before it expires, so scheduling and cancelling take constant time
+ * regardless of the number of pending timeouts. The timer thread advances one bucket per tick and runs the expired
+ * timeouts of the bucket, which makes expiration accurate to one tick.
+ * <p>
+ * Timeouts are passed to the timer thread through a lock-free queue, cancelled timeouts are unlinked from their bucket
+ * by the timer thread on its next tick. The tasks of expired timeouts run on the timer thread and should return quickly.
+ */
+public class TimingWheel {
+
+    private static final String THREAD_NAME = "mcb-timer";
+
+    private static volatile TimingWheel defaultWheel;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final Thread worker;
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder pending = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    private volatile boolean stopped;
+
+    /**
+     * Constructs a new TimingWheel and starts its timer thread.
+     *
+     * @param tickDuration The duration of a tick, the precision of the timeouts.
+     * @param unit The unit of the tick duration.
+     * @param wheelSize The number of buckets, rounded up to a power of two. Timeouts shorter than
+     *                  {@code tickDuration * wheelSize} expire without additional rotations.
+     * @throws IllegalArgumentException If the tick duration or the wheel size is not positive.
+     */
+    public TimingWheel(long tickDuration, @NotNull TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive: " + tickDuration);
+        }
+        if (wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Wheel size must be between 1 and 2^30: " + wheelSize);
+        }
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        if (wheelSize == 1) {
+            size = 1;
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, THREAD_NAME);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Returns the timing wheel shared by the library, with a tick of 10 milliseconds and 512 buckets.
+     *
+     * @return The default timing wheel.
+     */
+    @NotNull
+    public static TimingWheel getDefault() {
+        TimingWheel wheel = defaultWheel;
+        if (wheel == null) {
+            synchronized (TimingWheel.class) {
+                wheel = defaultWheel;
+                if (wheel == null) {
+                    wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 512);
+                    defaultWheel = wheel;
+                }
+            }
+        }
+        return wheel;
+    }
+
+    /**
+     * Schedules a task to run on the timer thread after the delay, unless the returned timeout is cancelled before.
+     *
+     * @param task The task to run when the timeout expires.
+     * @param delay The delay, a non-positive delay expires on the next tick.
+     * @param unit The unit of the delay.
+     * @return The timeout, which can be cancelled.
+     * @throws IllegalStateException If the wheel is shut down.
+     */
+    @NotNull
+    public Timeout schedule(@NotNull Runnable task, long delay, @NotNull TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("The timing wheel is shut down");
+        }
+        long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.increment();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the timer thread, pending timeouts never expire.
+     */
+    public void shutdown() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    /**
+     * Returns the number of scheduled timeouts which have neither expired nor been cancelled.
+     *
+     * @return The number of pending timeouts.
+     */
+    public long getPendingCount() {
+        return pending.sum();
+    }
+
+    /**
+     * Returns the number of timeouts which have expired.
+     *
+     * @return The number of expired timeouts.
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /**
+     * Returns the duration of a tick.
+     *
+     * @return The tick duration in nanoseconds.
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!stopped) {
+            long deadline = (tick + 1) * tickNanos;
+            long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            removeCancelled();
+            transferScheduled(tick);
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * Moves the newly scheduled timeouts into their buckets. A timeout whose deadline has already passed
+     * is put into the bucket of the current tick.
+     */
+    private void transferScheduled(long tick) {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.state != Timeout.PENDING) {
+                continue;
+            }
+            long deadlineTick = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+            wheel[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * A task scheduled on a {@link TimingWheel}.
+     */
+    public static final class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel timer;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state;
+
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout previous;
+
+        private Timeout(TimingWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout, its task will not run.
+         *
+         * @return {@code true} if the timeout was cancelled, {@code false} if it has already expired or been cancelled.
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            timer.pending.decrement();
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * Checks whether the timeout was cancelled.
+         *
+         * @return {@code true} if the timeout was cancelled.
+         */
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        /**
+         * Checks whether the timeout has expired and its task was run.
+         *
+         * @return {@code true} if the timeout has expired.
+         */
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+            timer.pending.decrement();
+            timer.expired.increment();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+
+    }
+
+    /**
+     * A doubly linked list of the timeouts of one tick, accessed by the timer thread only.
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (tail == null) {
+                head = tail = timeout;
+            }
+            else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            }
+            else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            else {
+                tail = timeout.previous;
+            }
+            timeout.next = null;
+            timeout.previous = null;
+            timeout.bucket = null;
+        }
+
+        private void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state != Timeout.PENDING) {
+                    remove(timeout);
+                }
+                else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                }
+                else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,457 @@
+package org.fbs.mcb.util;
+
+import com.google.gson.Gson;
+import com.pengrad.telegrambot.model.Update;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * An append-only log of the JSON of received updates, for load tests and for reproducing incidents.
+ * <p>
+ * The log is a directory of segments. Every segment is a pair of memory-mapped files of a fixed size: the data file,
+ * which holds the records one after another, and the index file, which holds the update_id, the time and the position
+ * of every record in the data file. A record is the length of the JSON, the update_id, the time it was appended and
+ * the UTF-8 JSON, padded to eight bytes. When either file of a segment is full, a new segment is started, whose file
+ * names contain the number of the first record of the segment.
+ * <p>
+ * An index entry is written after its record, and its position last, so a record is part of the log once its position
+ * is set. Records appended by a process which crashed before writing the index entry are overwritten when the log is
+ * opened again. Appending is serialized, while records which were completely appended can be read concurrently without
+ * copying them out of the mapped files.
+ */
+public class UpdateLog implements AutoCloseable {
+
+    private static final String DATA_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String SEGMENT_NAME_FORMAT = "updates-%020d";
+
+    private static final int DATA_MAGIC = 0x4D43554C;
+    private static final int INDEX_MAGIC = 0x4D435549;
+    private static final int HEADER_SIZE = 16;
+    private static final int HEADER_FIRST_RECORD = 8;
+
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int RECORD_UPDATE_ID = 4;
+    private static final int RECORD_TIME = 8;
+
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int INDEX_UPDATE_ID = 0;
+    private static final int INDEX_POSITION = 4;
+    private static final int INDEX_TIME = 8;
+
+    /**
+     * The default size of the data file of a segment, the index file is an eighth of it.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final Gson GSON = new Gson();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int indexSize;
+
+    private volatile Segment[] segments;
+    private volatile long recordCount;
+    private long lastTime;
+    private boolean closed;
+
+    private UpdateLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.indexSize = HEADER_SIZE + Math.max(1, segmentSize / 8 / INDEX_ENTRY_SIZE) * INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * Opens the log in the directory with segments of {@link #DEFAULT_SEGMENT_SIZE}, creating it if it does not exist.
+     *
+     * @param directory The directory of the log.
+     * @return The opened log.
+     * @throws IOException If the segments cannot be opened or mapped.
+     */
+    @NotNull
+    public static UpdateLog open(@NotNull Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the log in the directory, creating it if it does not exist.
+     *
+     * @param directory The directory of the log.
+     * @param segmentSize The size of the data file of new segments in bytes, which limits the size of a record.
+     * @return The opened log.
+     * @throws IOException If the segments cannot be opened or mapped.
+     * @throws IllegalArgumentException If the segment size is too small for a record.
+     */
+    @NotNull
+    public static UpdateLog open(@NotNull Path directory, int segmentSize) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Segment size must be at least 1024 bytes: " + segmentSize);
+        }
+        Files.createDirectories(directory);
+        UpdateLog log = new UpdateLog(directory, segmentSize & -8);
+        log.map();
+        return log;
+    }
+
+    /**
+     * Appends the JSON of the update, as it is represented by the Bot API, to the log.
+     *
+     * @param update The update.
+     * @throws IOException If a new segment cannot be created.
+     */
+    public void append(@NotNull Update update) throws IOException {
+        append(update.updateId(), System.currentTimeMillis(), GSON.toJson(update).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Appends the JSON of an update to the log. Times earlier than the time of the previous record are raised to it,
+     * so the records are ordered by time.
+     *
+     * @param updateId The update_id of the update.
+     * @param time The time the update was received in milliseconds since the epoch.
+     * @param json The UTF-8 JSON of the update.
+     * @throws IOException If a new segment cannot be created.
+     * @throws IllegalArgumentException If the record is larger than a segment.
+     * @throws IllegalStateException If the log is closed.
+     */
+    public synchronized void append(int updateId, long time, @NotNull byte[] json) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The update log is closed");
+        }
+        int size = recordSize(json.length);
+        if (HEADER_SIZE + size > segmentSize) {
+            throw new IllegalArgumentException("Update of " + json.length + " bytes is larger than a segment");
+        }
+        Segment segment = segments[segments.length - 1];
+        if (segment.position + size > segment.data.capacity() || segment.count == segment.capacity()) {
+            segment = addSegment(recordCount);
+        }
+        time = Math.max(time, lastTime);
+        lastTime = time;
+
+        ByteBuffer data = segment.data;
+        int position = segment.position;
+        data.putInt(position, json.length);
+        data.putInt(position + RECORD_UPDATE_ID, updateId);
+        data.putLong(position + RECORD_TIME, time);
+        data.put(position + RECORD_HEADER_SIZE, json);
+
+        int entry = HEADER_SIZE + segment.count * INDEX_ENTRY_SIZE;
+        segment.index.putInt(entry + INDEX_UPDATE_ID, updateId);
+        segment.index.putLong(entry + INDEX_TIME, time);
+        segment.index.putInt(entry + INDEX_POSITION, position);
+
+        segment.position = position + size;
+        segment.count++;
+        recordCount++;
+    }
+
+    /**
+     * Writes the appended records to the storage device, so they survive a crash of the operating system.
+     * Records survive a crash of the process without it.
+     */
+    public synchronized void force() {
+        for (Segment segment : segments) {
+            segment.data.force();
+            segment.index.force();
+        }
+    }
+
+    /**
+     * Returns the number of the first record whose update_id is at least the given one, assuming update_ids increase
+     * through the log, as they do for the updates of a bot.
+     *
+     * @param updateId The update_id.
+     * @return The number of the record, or the number of records if every update_id is lower.
+     */
+    public long seekUpdateId(int updateId) {
+        return seek(INDEX_UPDATE_ID, updateId);
+    }
+
+    /**
+     * Returns the number of the first record appended at or after the time.
+     *
+     * @param time The time in milliseconds since the epoch.
+     * @return The number of the record, or the number of records if every record is older.
+     */
+    public long seekTime(long time) {
+        return seek(INDEX_TIME, time);
+    }
+
+    /**
+     * Passes the records from the given one up to the last completely appended record to the consumer. The JSON is
+     * passed as a read-only view of the mapped file, which is valid until the consumer returns.
+     *
+     * @param firstRecord The number of the first record.
+     * @param consumer The consumer of the records, which returns {@code false} to stop reading.
+     * @return The number of the record after the last one passed, from which reading can continue.
+     */
+    public long read(long firstRecord, @NotNull RecordConsumer consumer) {
+        long end = recordCount;
+        Segment[] segments = this.segments;
+        int s = segmentOf(segments, firstRecord);
+        long record = Math.max(firstRecord, 0);
+        for (; s < segments.length && record < end; s++) {
+            Segment segment = segments[s];
+            ByteBuffer data = segment.data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            long last = Math.min(end, segment.firstRecord + segment.count);
+            for (; record < last; record++) {
+                int position = segment.index.getInt(HEADER_SIZE + (int) (record - segment.firstRecord) * INDEX_ENTRY_SIZE
+                        + INDEX_POSITION);
+                int length = data.getInt(position);
+                data.limit(position + RECORD_HEADER_SIZE + length).position(position + RECORD_HEADER_SIZE);
+                boolean next = consumer.accept(record, data.getInt(position + RECORD_UPDATE_ID),
+                        data.getLong(position + RECORD_TIME), data);
+                data.clear();
+                if (!next) {
+                    return record + 1;
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Returns the number of completely appended records.
+     *
+     * @return The number of records.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the update_id of the last completely appended record.
+     *
+     * @return The update_id, or {@code -1} if the log is empty.
+     */
+    public synchronized int getLastUpdateId() {
+        for (int s = segments.length - 1; s >= 0; s--) {
+            Segment segment = segments[s];
+            if (segment.count > 0) {
+                return segment.index.getInt(HEADER_SIZE + (segment.count - 1) * INDEX_ENTRY_SIZE + INDEX_UPDATE_ID);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of segments of the log.
+     *
+     * @return The number of segments.
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Returns the directory of the log.
+     *
+     * @return The path of the directory.
+     */
+    @NotNull
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stops appending to the log. Reading the mapped segments remains possible.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Maps the segments of the directory and finds the end of the last segment.
+     */
+    private void map() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> path.getFileName().toString().endsWith(DATA_SUFFIX)).sorted().toList();
+        }
+        List<Segment> mapped = new ArrayList<>();
+        long expected = 0;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            Segment segment = mapSegment(directory.resolve(name.substring(0, name.length() - DATA_SUFFIX.length())));
+            if (segment == null || segment.firstRecord != expected) {
+                break;
+            }
+            mapped.add(segment);
+            expected += segment.count;
+        }
+        segments = mapped.toArray(new Segment[0]);
+        recordCount = expected;
+        if (segments.length == 0) {
+            addSegment(0);
+        }
+        else {
+            Segment last = segments[segments.length - 1];
+            if (last.count > 0) {
+                lastTime = last.index.getLong(HEADER_SIZE + (last.count - 1) * INDEX_ENTRY_SIZE + INDEX_TIME);
+            }
+        }
+    }
+
+    /**
+     * Maps an existing segment and counts its records, or returns {@code null} if its headers are invalid.
+     */
+    private Segment mapSegment(Path base) throws IOException {
+        MappedByteBuffer data = mapFile(base.resolveSibling(base.getFileName() + DATA_SUFFIX), 0);
+        MappedByteBuffer index = mapFile(base.resolveSibling(base.getFileName() + INDEX_SUFFIX), 0);
+        if (data.capacity() < HEADER_SIZE || index.capacity() < HEADER_SIZE
+                || data.getInt(0) != DATA_MAGIC || index.getInt(0) != INDEX_MAGIC
+                || data.getLong(HEADER_FIRST_RECORD) != index.getLong(HEADER_FIRST_RECORD)) {
+            return null;
+        }
+        Segment segment = new Segment(data.getLong(HEADER_FIRST_RECORD), data, index);
+        int position = HEADER_SIZE;
+        while (segment.count < segment.capacity()) {
+            int entry = HEADER_SIZE + segment.count * INDEX_ENTRY_SIZE;
+            int recordPosition = index.getInt(entry + INDEX_POSITION);
+            if (recordPosition != position || position + RECORD_HEADER_SIZE > data.capacity()) {
+                break;
+            }
+            int size = recordSize(data.getInt(position));
+            if (data.getInt(position) < 0 || position + size > data.capacity()) {
+                break;
+            }
+            position += size;
+            segment.count++;
+        }
+        segment.position = position;
+        return segment;
+    }
+
+    private Segment addSegment(long firstRecord) throws IOException {
+        Path base = directory.resolve(String.format(SEGMENT_NAME_FORMAT, firstRecord));
+        MappedByteBuffer data = mapFile(base.resolveSibling(base.getFileName() + DATA_SUFFIX), segmentSize);
+        MappedByteBuffer index = mapFile(base.resolveSibling(base.getFileName() + INDEX_SUFFIX), indexSize);
+        data.putInt(0, DATA_MAGIC).putLong(HEADER_FIRST_RECORD, firstRecord);
+        index.putInt(0, INDEX_MAGIC).putLong(HEADER_FIRST_RECORD, firstRecord);
+        Segment segment = new Segment(firstRecord, data, index);
+        segment.position = HEADER_SIZE;
+
+        Segment[] current = segments;
+        Segment[] next = current == null ? new Segment[1] : Arrays.copyOf(current, current.length + 1);
+        next[next.length - 1] = segment;
+        segments = next;
+        return segment;
+    }
+
+    /**
+     * Maps a file, creating it with the given size if it does not exist, or with its current size if the size is 0.
+     */
+    private static MappedByteBuffer mapFile(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long length = size > 0 ? Math.max(size, channel.size()) : channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    /**
+     * Binary searches the index entries for the first record whose field is at least the value.
+     */
+    private long seek(int field, long value) {
+        long end = recordCount;
+        long low = 0;
+        long high = end;
+        Segment[] segments = this.segments;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            Segment segment = segments[segmentOf(segments, middle)];
+            int entry = HEADER_SIZE + (int) (middle - segment.firstRecord) * INDEX_ENTRY_SIZE;
+            long key = field == INDEX_TIME ? segment.index.getLong(entry + INDEX_TIME) : segment.index.getInt(entry + field);
+            if (key < value) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the segment holding the record.
+     */
+    private static int segmentOf(Segment[] segments, long record) {
+        int low = 0;
+        int high = segments.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments[middle].firstRecord <= record) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static int recordSize(int length) {
+        return RECORD_HEADER_SIZE + ((length + 7) & -8);
+    }
+
+    /**
+     * Receives the records read from the log.
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+
+        /**
+         * Receives a record.
+         *
+         * @param record The number of the record in the log.
+         * @param updateId The update_id of the update.
+         * @param time The time the update was appended in milliseconds since the epoch.
+         * @param json The UTF-8 JSON of the update between the position and the limit of the buffer.
+         * @return {@code true} to continue with the next record, {@code false} to stop.
+         */
+        boolean accept(long record, int updateId, long time, @NotNull ByteBuffer json);
+
+    }
+
+    /**
+     * The mapped files of a segment. The position and count are only changed by the appending thread, readers only
+     * read the records before the record count of the log.
+     */
+    private static final class Segment {
+
+        private final long firstRecord;
+        private final MappedByteBuffer data;
+        private final MappedByteBuffer index;
+        private int position;
+        private int count;
+
+        private Segment(long firstRecord, MappedByteBuffer data, MappedByteBuffer index) {
+            this.firstRecord = firstRecord;
+            this.data = data;
+            this.index = index;
+        }
+
+        private int capacity() {
+            return (index.capacity() - HEADER_SIZE) / INDEX_ENTRY_SIZE;
+        }
+
+    }
+
+}
@@ -1,11 +1,13 @@
 package org.fbs.mcb.util;
 
 import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.MessageEntity;
 import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.data.BotMethodSet;
+import org.fbs.mcb.data.MethodType;
 import org.fbs.mcb.data.entity.AbstractBot;
 import org.fbs.mcb.util.base.AbstractUpdateManager;
-
-import java.util.Objects;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * The UpdateManager class is responsible for processing updates received from a Telegram bot.
@@ -32,46 +34,88 @@ public class UpdateManager extends AbstractUpdateManager {
      *
      * @param args An array of objects containing the update and the associated bot.
      *             The first element should be an instance of {@link Update}, and the second element should be an instance of {@link AbstractBot<?>}.
-     *             If the provided arguments do not match these types, the function will attempt to cast them accordingly.
+     *             An optional {@link Runnable} third element runs on the same thread after the update was routed.
+     *
+     * @throws RuntimeException If the arguments do not match these types.
      *
-     * @throws NullPointerException If the update or bot is null.
+     * @see #route(Update, AbstractBot)
      */
     @Override
     public void processUpdate(Object ... args){
-        Update update = null;
-        AbstractBot<?> bot = null;
-        
-        if (args[0] instanceof Update){
-            update = (Update) args[0];
-        }
-        else {
+        if (!(args[0] instanceof Update)){
             throw new RuntimeException("This update handler must take a non-null Update value as its first argument");
         }
-
-        if (args[1] instanceof AbstractBot<?>){
-            bot = (AbstractBot<?>) args[1];
-        }
-        else {
+        if (!(args[1] instanceof AbstractBot<?>)){
             throw new RuntimeException("This update handler must take a non-null AbstractBot<?> value as its second argument");
         }
-        
-        updateParse(update, bot);
-        if (update.message() != null && !Objects.equals(update.message().text(), "")) {
-            Message message = update.message();
-            parseMessage(update, bot);
-            try {
-                if (message.entities().length > 0) {
-                    entitiesParse(update, bot);
-                    if (message.text().startsWith("/")) {
-                        if (message.text().contains(getProcessor().getStartCommand())) {
-                            onStartCommand(update, bot);
+        route((Update) args[0], (AbstractBot<?>) args[1]);
+        if (args.length > 2 && args[2] instanceof Runnable) {
+            ((Runnable) args[2]).run();
+        }
+    }
+
+    /**
+     * Routes the update to the bot methods of every method type it belongs to.
+     * <p>
+     * The update is classified once into a bitmask of method types, which is intersected with the types that have
+     * registered bot methods, so types without bot methods are skipped entirely. The bot methods are called in the order
+     * update, message, entities, start command, commands, callback query and inline query.
+     *
+     * @param update The received update from Telegram.
+     * @param bot The Bot entity associated with the update.
+     */
+    public void route(@NotNull Update update, @NotNull AbstractBot<?> bot) {
+        BotMethodSet methodSet = getProcessor().getMethodSet();
+        Message message = update.message();
+        MessageEntity[] entities = null;
+        String text = null;
+
+        int types = MethodType.UPDATE.mask();
+        if (message != null) {
+            text = message.text();
+            if (!"".equals(text)) {
+                types |= MethodType.MESSAGE.mask();
+                entities = message.entities();
+                if (entities != null && entities.length > 0) {
+                    types |= MethodType.ENTITIES.mask();
+                    if (text != null && text.startsWith("/")) {
+                        types |= MethodType.COMMAND.mask();
+                        if (UpdateUtil.isCommand(text, getProcessor().getStartCommand())) {
+                            types |= MethodType.START.mask();
                         }
-                        commandParse(update, bot);
                     }
                 }
-            } catch (NullPointerException ignored) {
             }
         }
+        else if (update.callbackQuery() != null) {
+            types |= MethodType.CALLBACK_QUERY.mask();
+        }
+        else if (update.inlineQuery() != null) {
+            types |= MethodType.INLINE_QUERY.mask();
+        }
+        types &= methodSet.getRegisteredTypes();
+
+        if ((types & MethodType.UPDATE.mask()) != 0) {
+            methodSet.callUpdate(update, bot);
+        }
+        if ((types & MethodType.MESSAGE.mask()) != 0) {
+            methodSet.callMessage(update, message, bot);
+        }
+        if ((types & MethodType.ENTITIES.mask()) != 0) {
+            methodSet.callEntities(message, entities, update, bot);
+        }
+        if ((types & MethodType.START.mask()) != 0) {
+            methodSet.callStart(update, message, bot);
+        }
+        if ((types & MethodType.COMMAND.mask()) != 0) {
+            methodSet.callCommands(text, message, entities, update, bot);
+        }
+        if ((types & MethodType.CALLBACK_QUERY.mask()) != 0) {
+            methodSet.callCallbackQuery(update.callbackQuery(), update, bot);
+        }
+        if ((types & MethodType.INLINE_QUERY.mask()) != 0) {
+            methodSet.callInlineQuery(update.inlineQuery(), update, bot);
+        }
     }
 
     /**
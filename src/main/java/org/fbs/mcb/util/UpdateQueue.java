@@ -0,0 +1,213 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.data.OverflowPolicy;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A bounded buffer of updates between the poller and the update handlers.
+ * <p>
+ * What happens when the queue is full is defined by its {@link OverflowPolicy}. A blocked poller neither
+ * confirms nor fetches new updates, so a burst is held back by Telegram instead of piling up in memory.
+ * The queue keeps track of its depth, the time updates spend waiting in it and the number of dropped updates.
+ * <p>
+ * Closing the queue queues a marker behind the updates added before, so the consumer takes every one of them
+ * before {@link #take()} reports the end of the queue.
+ */
+public class UpdateQueue {
+
+    private static final Entry CLOSED = new Entry(null, 0);
+
+    private final BlockingQueue<Entry> queue;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Set<String> droppableTypes;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder taken = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final ReadWriteLock gate = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    /**
+     * Constructs a new UpdateQueue.
+     *
+     * @param capacity The maximum number of updates in the queue.
+     * @param policy The strategy applied to a new update when the queue is full.
+     * @param droppableTypes The update types (for example, {@code "edited_message"}) which may be dropped
+     *                       under {@link OverflowPolicy#DROP_BY_TYPE}, ignored by other policies.
+     * @throws IllegalArgumentException If the capacity is not positive.
+     */
+    public UpdateQueue(int capacity, @NotNull OverflowPolicy policy, @NotNull Set<String> droppableTypes) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Update queue capacity must be positive: " + capacity);
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        this.droppableTypes = Set.copyOf(droppableTypes);
+    }
+
+    /**
+     * Adds an update to the queue according to the overflow policy, waiting for space if necessary.
+     *
+     * @param update The update to be added.
+     * @return {@code true} if the update was queued, {@code false} if it was dropped.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for space.
+     * @throws RejectedExecutionException If the queue is closed.
+     */
+    public boolean put(@NotNull Update update) throws InterruptedException {
+        gate.readLock().lockInterruptibly();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException("The update queue is closed");
+            }
+            return offer(new Entry(update, System.nanoTime()), update);
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    private boolean offer(Entry entry, Update update) throws InterruptedException {
+        if (queue.offer(entry)) {
+            return true;
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!queue.offer(entry)) {
+                    if (queue.poll() != null) {
+                        dropped.increment();
+                    }
+                }
+                return true;
+            case DROP_BY_TYPE:
+                String type = UpdateUtil.type(update);
+                if (type != null && droppableTypes.contains(type)) {
+                    dropped.increment();
+                    return false;
+                }
+                queue.put(entry);
+                return true;
+            default:
+                queue.put(entry);
+                return true;
+        }
+    }
+
+    /**
+     * Stops accepting updates and queues the end marker behind the updates added before, waiting for space if
+     * necessary. Threads which are adding an update when the queue is closed finish adding it first.
+     *
+     * @throws InterruptedException If the calling thread is interrupted while waiting for space.
+     */
+    public void close() throws InterruptedException {
+        gate.writeLock().lockInterruptibly();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            gate.writeLock().unlock();
+        }
+        queue.put(CLOSED);
+    }
+
+    /**
+     * Retrieves and removes the oldest update, waiting until one becomes available.
+     *
+     * @return The oldest update in the queue, or {@code null} if the queue is closed and every update added before
+     *         was taken.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public Update take() throws InterruptedException {
+        Entry entry = queue.take();
+        if (entry == CLOSED) {
+            queue.put(CLOSED);
+            return null;
+        }
+        long wait = System.nanoTime() - entry.enqueuedAt;
+        taken.increment();
+        totalWaitNanos.add(wait);
+        maxWaitNanos.accumulateAndGet(wait, Math::max);
+        return entry.update;
+    }
+
+    /**
+     * Returns the number of updates currently waiting in the queue.
+     *
+     * @return The queue depth.
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the maximum number of updates in the queue.
+     *
+     * @return The queue capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of updates dropped because the queue was full.
+     *
+     * @return The number of dropped updates.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of updates taken from the queue.
+     *
+     * @return The number of taken updates.
+     */
+    public long getTakenCount() {
+        return taken.sum();
+    }
+
+    /**
+     * Returns the average time taken updates spent waiting in the queue.
+     *
+     * @return The average wait time in nanoseconds, or 0 if no update was taken yet.
+     */
+    public long getAverageWaitNanos() {
+        long count = taken.sum();
+        return count == 0 ? 0 : totalWaitNanos.sum() / count;
+    }
+
+    /**
+     * Returns the longest time an update spent waiting in the queue.
+     *
+     * @return The maximum wait time in nanoseconds.
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    private static final class Entry {
+
+        private final Update update;
+        private final long enqueuedAt;
+
+        private Entry(Update update, long enqueuedAt) {
+            this.update = update;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.data.entity.AbstractBot;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Streams the updates of an {@link UpdateLog} back to the handlers of a bot, at the pace they were recorded,
+ * a multiple of it or as fast as they can be handled, to reproduce an incident or to load test the handlers.
+ * <p>
+ * The JSON of every update is parsed directly from the mapped file of the log, without copying it into an array
+ * or a string first.
+ */
+public class UpdateReplayer {
+
+    private final UpdateLog log;
+    private final double speed;
+
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+
+    /**
+     * Constructs a new UpdateReplayer.
+     *
+     * @param log The log to be replayed.
+     * @param speed The multiple of the recorded pace the updates are replayed at, {@code 1} for the recorded pace,
+     *              {@code 0} or less to replay them as fast as they are handled.
+     */
+    public UpdateReplayer(@NotNull UpdateLog log, double speed) {
+        this.log = log;
+        this.speed = speed;
+    }
+
+    /**
+     * Replays the updates from the given record through the configuration handlers of the bot, as if they were
+     * received from the Bot API, on the calling thread.
+     *
+     * @param firstRecord The number of the first record, see {@link UpdateLog#seekUpdateId(int)} and
+     *                    {@link UpdateLog#seekTime(long)}.
+     * @param processor The configuration processor dispatching the updates.
+     * @param bot The bot the updates are dispatched to.
+     * @return The number of the record after the last replayed one.
+     */
+    public long replay(long firstRecord, @NotNull ConfigurationProcessor processor, @NotNull AbstractBot<?> bot) {
+        return replay(firstRecord, update -> processor.handle(update, bot));
+    }
+
+    /**
+     * Replays the updates from the given record to the handler on the calling thread. Records which cannot be parsed
+     * are skipped. Replaying stops early if the thread is interrupted.
+     *
+     * @param firstRecord The number of the first record.
+     * @param handler The handler receiving the updates.
+     * @return The number of the record after the last replayed one.
+     */
+    public long replay(long firstRecord, @NotNull Consumer<Update> handler) {
+        ByteBufferInputStream input = new ByteBufferInputStream();
+        long start = System.nanoTime();
+        long[] firstTime = {Long.MIN_VALUE};
+        return log.read(firstRecord, (record, updateId, time, json) -> {
+            if (speed > 0) {
+                if (firstTime[0] == Long.MIN_VALUE) {
+                    firstTime[0] = time;
+                }
+                long due = start + (long) (TimeUnit.MILLISECONDS.toNanos(time - firstTime[0]) / speed);
+                for (long delay = due - System.nanoTime(); delay > 0; delay = due - System.nanoTime()) {
+                    LockSupport.parkNanos(delay);
+                    if (Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                }
+            }
+            input.buffer = json;
+            Update update;
+            try {
+                update = BotUtils.parseUpdate(new InputStreamReader(input, StandardCharsets.UTF_8));
+            } catch (RuntimeException e) {
+                update = null;
+            }
+            if (update == null) {
+                malformed.increment();
+                return true;
+            }
+            replayed.increment();
+            handler.accept(update);
+            return !Thread.currentThread().isInterrupted();
+        });
+    }
+
+    /**
+     * Returns the number of updates passed to a handler.
+     *
+     * @return The number of replayed updates.
+     */
+    public long getReplayedCount() {
+        return replayed.sum();
+    }
+
+    /**
+     * Returns the number of records which could not be parsed as an update.
+     *
+     * @return The number of malformed records.
+     */
+    public long getMalformedCount() {
+        return malformed.sum();
+    }
+
+    /**
+     * Reads the remaining bytes of the buffer of the current record.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private ByteBuffer buffer;
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NotNull byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
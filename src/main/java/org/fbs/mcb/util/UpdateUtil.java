@@ -0,0 +1,262 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.model.User;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Utility class for extracting routing information from Telegram updates.
+ */
+public class UpdateUtil {
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private UpdateUtil(){}
+
+    /**
+     * Returns the key which identifies the conversation an update belongs to.
+     * <p>
+     * Messages, edits, channel posts and chat member updates are keyed by their chat id,
+     * inline queries, callback queries and other user-initiated updates by the id of the user who sent them.
+     * Updates that belong to no conversation (for example, poll state updates) are keyed by their update_id.
+     *
+     * @param update The update to extract the key from.
+     * @return The chat or user id the update belongs to.
+     */
+    public static long chatKey(@NotNull Update update) {
+        Message message = message(update);
+        if (message != null) {
+            return message.chat().id();
+        }
+        if (update.callbackQuery() != null) {
+            return update.callbackQuery().from().id();
+        }
+        if (update.inlineQuery() != null) {
+            return update.inlineQuery().from().id();
+        }
+        if (update.chosenInlineResult() != null) {
+            return update.chosenInlineResult().from().id();
+        }
+        if (update.shippingQuery() != null) {
+            return update.shippingQuery().from().id();
+        }
+        if (update.preCheckoutQuery() != null) {
+            return update.preCheckoutQuery().from().id();
+        }
+        if (update.pollAnswer() != null) {
+            return update.pollAnswer().user() != null
+                    ? update.pollAnswer().user().id()
+                    : update.pollAnswer().voterChat().id();
+        }
+        if (update.myChatMember() != null) {
+            return update.myChatMember().chat().id();
+        }
+        if (update.chatMember() != null) {
+            return update.chatMember().chat().id();
+        }
+        if (update.chatJoinRequest() != null) {
+            return update.chatJoinRequest().chat().id();
+        }
+        return update.updateId();
+    }
+
+    /**
+     * Returns the id of the user who caused an update.
+     *
+     * @param update The update to extract the user from.
+     * @return The id of the user, or {@code 0} if the update has no sender (for example, a channel post).
+     */
+    public static long userId(@NotNull Update update) {
+        User user = user(update);
+        return user != null ? user.id() : 0;
+    }
+
+    /**
+     * Returns the user who caused an update.
+     *
+     * @param update The update to extract the user from.
+     * @return The user, or {@code null} if the update has no sender (for example, a channel post).
+     */
+    public static User user(@NotNull Update update) {
+        User user = null;
+        Message message = message(update);
+        if (message != null) {
+            user = message.from();
+        }
+        else if (update.callbackQuery() != null) {
+            user = update.callbackQuery().from();
+        }
+        else if (update.inlineQuery() != null) {
+            user = update.inlineQuery().from();
+        }
+        else if (update.chosenInlineResult() != null) {
+            user = update.chosenInlineResult().from();
+        }
+        else if (update.shippingQuery() != null) {
+            user = update.shippingQuery().from();
+        }
+        else if (update.preCheckoutQuery() != null) {
+            user = update.preCheckoutQuery().from();
+        }
+        else if (update.pollAnswer() != null) {
+            user = update.pollAnswer().user();
+        }
+        else if (update.myChatMember() != null) {
+            user = update.myChatMember().from();
+        }
+        else if (update.chatMember() != null) {
+            user = update.chatMember().from();
+        }
+        else if (update.chatJoinRequest() != null) {
+            user = update.chatJoinRequest().from();
+        }
+        return user;
+    }
+
+    /**
+     * Returns the id of the chat an update happened in.
+     *
+     * @param update The update to extract the chat from.
+     * @return The id of the chat, or {@code 0} if the update belongs to no chat (for example, an inline query).
+     */
+    public static long chatId(@NotNull Update update) {
+        Message message = message(update);
+        if (message != null) {
+            return message.chat().id();
+        }
+        if (update.myChatMember() != null) {
+            return update.myChatMember().chat().id();
+        }
+        if (update.chatMember() != null) {
+            return update.chatMember().chat().id();
+        }
+        if (update.chatJoinRequest() != null) {
+            return update.chatJoinRequest().chat().id();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the message carried by an update, whether it is a new or edited message or channel post.
+     *
+     * @param update The update to extract the message from.
+     * @return The message of the update, or {@code null} if the update carries no message.
+     */
+    @Contract(pure = true)
+    public static Message message(@NotNull Update update) {
+        if (update.message() != null) {
+            return update.message();
+        }
+        if (update.editedMessage() != null) {
+            return update.editedMessage();
+        }
+        if (update.channelPost() != null) {
+            return update.channelPost();
+        }
+        return update.editedChannelPost();
+    }
+
+    /**
+     * Returns the time an update happened, as sent by Telegram for messages, chat member updates and join requests.
+     * For edited messages and channel posts, this is the time of the original message.
+     *
+     * @param update The update to extract the time from.
+     * @return The time in seconds since the epoch, or {@code 0} if the update carries no time (for example, a callback query).
+     */
+    @Contract(pure = true)
+    public static long date(@NotNull Update update) {
+        Integer date = null;
+        Message message = message(update);
+        if (message != null) {
+            date = message.date();
+        }
+        else if (update.myChatMember() != null) {
+            date = update.myChatMember().date();
+        }
+        else if (update.chatMember() != null) {
+            date = update.chatMember().date();
+        }
+        else if (update.chatJoinRequest() != null) {
+            date = update.chatJoinRequest().date();
+        }
+        return date != null ? date : 0;
+    }
+
+    /**
+     * Checks whether the text starts with the specified command as a whole word,
+     * optionally followed by the bot username (for example, {@code /start@my_bot}).
+     *
+     * @param text The text of the message.
+     * @param command The command, including the leading {@code /}.
+     * @return {@code true} if the first word of the text is the command.
+     */
+    @Contract(pure = true)
+    public static boolean isCommand(@NotNull String text, @NotNull String command) {
+        if (command.isEmpty() || !text.startsWith(command)) {
+            return false;
+        }
+        if (text.length() == command.length()) {
+            return true;
+        }
+        char next = text.charAt(command.length());
+        return next == '@' || Character.isWhitespace(next);
+    }
+
+    /**
+     * Returns the Bot API name of the update type, the same name that is used in {@code allowed_updates}.
+     *
+     * @param update The update to determine the type of.
+     * @return The type of the update (for example, {@code "message"} or {@code "callback_query"}),
+     *         or {@code null} if the update carries none of the known types.
+     */
+    @Contract(pure = true)
+    public static String type(@NotNull Update update) {
+        if (update.message() != null) {
+            return "message";
+        }
+        if (update.editedMessage() != null) {
+            return "edited_message";
+        }
+        if (update.channelPost() != null) {
+            return "channel_post";
+        }
+        if (update.editedChannelPost() != null) {
+            return "edited_channel_post";
+        }
+        if (update.inlineQuery() != null) {
+            return "inline_query";
+        }
+        if (update.chosenInlineResult() != null) {
+            return "chosen_inline_result";
+        }
+        if (update.callbackQuery() != null) {
+            return "callback_query";
+        }
+        if (update.shippingQuery() != null) {
+            return "shipping_query";
+        }
+        if (update.preCheckoutQuery() != null) {
+            return "pre_checkout_query";
+        }
+        if (update.poll() != null) {
+            return "poll";
+        }
+        if (update.pollAnswer() != null) {
+            return "poll_answer";
+        }
+        if (update.myChatMember() != null) {
+            return "my_chat_member";
+        }
+        if (update.chatMember() != null) {
+            return "chat_member";
+        }
+        if (update.chatJoinRequest() != null) {
+            return "chat_join_request";
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,197 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Receives updates which Telegram posts to the webhook of a bot.
+ * <p>
+ * The server is the HTTP server of the JDK, which accepts and reads connections on a single selector thread and
+ * passes every request to a pool of handler threads, or to virtual threads if requested and supported by the runtime.
+ * A request is only accepted if its {@code X-Telegram-Bot-Api-Secret-Token} header matches the secret token the webhook
+ * was registered with. The update is acknowledged with {@code 200 OK} before it is dispatched, so Telegram can send
+ * the next update on the connection while the handler thread dispatches this one. Telegram does not send an
+ * acknowledged update again, so an update whose dispatch fails is lost, as with a dropping update queue.
+ * <p>
+ * The server speaks plain HTTP, Telegram requires HTTPS, so it is meant to run behind a proxy which terminates TLS.
+ */
+public class WebhookServer {
+
+    /**
+     * The header in which Telegram sends the secret token of the webhook.
+     */
+    public static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private static final String THREAD_NAME_PREFIX = "mcb-webhook-";
+    private static final int MAX_BODY_SIZE = 1 << 20;
+
+    private static final int OK = 200;
+    private static final int BAD_REQUEST = 400;
+    private static final int UNAUTHORIZED = 401;
+    private static final int METHOD_NOT_ALLOWED = 405;
+    private static final int PAYLOAD_TOO_LARGE = 413;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] secretToken;
+    private final Consumer<Update> handler;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder unauthorized = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+
+    /**
+     * Constructs a new WebhookServer bound to the address. The server does not accept requests until it is started.
+     *
+     * @param address The address to listen on, port {@code 0} for a free port.
+     * @param path The path Telegram posts the updates to, as in the webhook URL.
+     * @param secretToken The secret token the webhook was registered with.
+     * @param threads The number of handler threads, which should match the maximum number of connections Telegram opens.
+     *                With virtual threads, the number of handler threads is not limited.
+     * @param virtualThreads Whether requests should be handled on virtual threads. Ignored if the runtime does not support them.
+     * @param handler The handler receiving the acknowledged updates on a handler thread.
+     * @throws IOException If the server cannot be bound to the address.
+     * @throws IllegalArgumentException If the secret token is empty.
+     */
+    public WebhookServer(@NotNull InetSocketAddress address, @NotNull String path, @NotNull String secretToken,
+                         int threads, boolean virtualThreads, @NotNull Consumer<Update> handler) throws IOException {
+        if (secretToken.isEmpty()) {
+            throw new IllegalArgumentException("Webhook secret token must not be empty");
+        }
+        this.secretToken = secretToken.getBytes(StandardCharsets.UTF_8);
+        this.handler = handler;
+
+        ExecutorService virtualExecutor = virtualThreads ? ExecutorUtil.newVirtualThreadExecutor(THREAD_NAME_PREFIX) : null;
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+        }
+        else {
+            int count = Math.max(1, threads);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(count, count, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    ExecutorUtil.daemonThreadFactory(THREAD_NAME_PREFIX));
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(executor);
+        this.server.createContext(path.isEmpty() ? "/" : path, this::handle);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for the exchanges in progress and stops the handler threads.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return The port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of updates which were acknowledged and passed to the handler.
+     *
+     * @return The number of received updates.
+     */
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    /**
+     * Returns the number of requests which were rejected because they did not carry the secret token.
+     *
+     * @return The number of unauthorized requests.
+     */
+    public long getUnauthorizedCount() {
+        return unauthorized.sum();
+    }
+
+    /**
+     * Returns the number of requests with the secret token whose body was not a valid update.
+     *
+     * @return The number of malformed requests.
+     */
+    public long getMalformedCount() {
+        return malformed.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Update update;
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(METHOD_NOT_ALLOWED, -1);
+                return;
+            }
+            byte[] body = readBody(exchange.getRequestBody());
+            String token = exchange.getRequestHeaders().getFirst(SECRET_TOKEN_HEADER);
+            if (token == null || !MessageDigest.isEqual(secretToken, token.getBytes(StandardCharsets.UTF_8))) {
+                unauthorized.increment();
+                exchange.sendResponseHeaders(UNAUTHORIZED, -1);
+                return;
+            }
+            if (body == null) {
+                malformed.increment();
+                exchange.sendResponseHeaders(PAYLOAD_TOO_LARGE, -1);
+                return;
+            }
+            try {
+                update = BotUtils.parseUpdate(new String(body, StandardCharsets.UTF_8));
+            } catch (RuntimeException e) {
+                update = null;
+            }
+            if (update == null) {
+                malformed.increment();
+                exchange.sendResponseHeaders(BAD_REQUEST, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(OK, -1);
+        } finally {
+            exchange.close();
+        }
+        received.increment();
+        try {
+            handler.accept(update);
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * Reads the request body, or returns {@code null} if it is larger than an update can be. The body is read before
+     * the request is answered, so the connection can be kept alive for the next request.
+     */
+    private static byte[] readBody(InputStream input) throws IOException {
+        byte[] body = input.readNBytes(MAX_BODY_SIZE + 1);
+        return body.length > MAX_BODY_SIZE ? null : body;
+    }
+
+}
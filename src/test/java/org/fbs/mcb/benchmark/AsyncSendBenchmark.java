@@ -0,0 +1,99 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.AnswerCallbackQuery;
+import com.pengrad.telegrambot.response.BaseResponse;
+import org.fbs.mcb.annotation.BotConfiguration;
+import org.fbs.mcb.data.entity.Bot;
+import org.fbs.mcb.util.HttpClientUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends one request per handled update against a local {@link FakeBotApi} answering every request after 50 ms,
+ * once with the blocking {@link TelegramBot#execute} and once with {@link Bot#executeAsync}, from a pool of four
+ * handler threads. Reports the requests per second and the average time a handler thread was busy per update.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class AsyncSendBenchmark {
+
+    private static final int REQUESTS = 2_000;
+    private static final int HANDLER_THREADS = 4;
+    private static final long LATENCY_MILLIS = 50;
+
+    static volatile String apiUrl;
+
+    public static void main(String[] args) throws Exception {
+        try (FakeBotApi api = new FakeBotApi(LATENCY_MILLIS)) {
+            apiUrl = api.getApiUrl();
+            AsyncBot bot = new AsyncBot();
+
+            run("blocking", request -> CompletableFuture.completedFuture(bot.getBot().execute(request)));
+            run("async", bot::executeAsync);
+        }
+    }
+
+    private static void run(String name, Sender sender) throws Exception {
+        ExecutorService handlers = Executors.newFixedThreadPool(HANDLER_THREADS);
+        LongAdder busy = new LongAdder();
+        List<CompletableFuture<CompletableFuture<BaseResponse>>> submitted = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            AnswerCallbackQuery request = new AnswerCallbackQuery(Integer.toString(i));
+            submitted.add(CompletableFuture.supplyAsync(() -> {
+                long handlerStart = System.nanoTime();
+                CompletableFuture<BaseResponse> response = sender.send(request);
+                busy.add(System.nanoTime() - handlerStart);
+                return response;
+            }, handlers));
+        }
+        long ok = 0;
+        for (CompletableFuture<CompletableFuture<BaseResponse>> future : submitted) {
+            if (future.join().join().isOk()) {
+                ok++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        handlers.shutdown();
+        handlers.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.printf("%8s: %,d of %,d ok, %,8.0f requests/s, handler busy %,9.1f us per update%n",
+                name, ok, REQUESTS, REQUESTS / (elapsed / 1e9), busy.sum() / 1e3 / REQUESTS);
+    }
+
+    private interface Sender {
+        CompletableFuture<BaseResponse> send(AnswerCallbackQuery request);
+    }
+
+    /**
+     * A bot which never polls for updates and sends its requests to the fake Bot API server.
+     */
+    static class AsyncBot extends Bot {
+
+        AsyncBot() {
+            super(AsyncConfiguration.class);
+        }
+
+        @Override
+        protected void setUpdateListeners() {}
+
+        @NotNull
+        @Override
+        protected TelegramBot createTelegramBot(@NotNull String botToken, int maxRequestsInFlight) {
+            return new TelegramBot.Builder(botToken).apiUrl(apiUrl)
+                    .okHttpClient(HttpClientUtil.newClient(maxRequestsInFlight)).build();
+        }
+
+    }
+
+    @BotConfiguration(botToken = "0:benchmark", maxRequestsInFlight = 64)
+    static class AsyncConfiguration {}
+
+}
@@ -0,0 +1,67 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.request.SendMessage;
+import org.fbs.mcb.util.BroadcastJob;
+import org.fbs.mcb.util.SendScheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Broadcasts to 900 recipients, of which every tenth blocked the bot, against a local {@link FakeBotApi} enforcing
+ * Telegram's limits. The job is stopped after ten seconds, as if the bot crashed, and resumed from its checkpoint with
+ * a new scheduler. Reports the throughput of both runs, which should be close to the 30 messages per second
+ * allowed by the Bot API, the outcomes, and how many recipients were sent their message twice.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class BroadcastBenchmark {
+
+    private static final int RECIPIENTS = 900;
+    private static final long LATENCY_MILLIS = 30;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("mcb-broadcast");
+        BroadcastJob.RecipientSource recipients = consumer -> {
+            for (int i = 0; i < RECIPIENTS; i++) {
+                consumer.accept(100_000L + i);
+            }
+        };
+        try (FakeBotApi api = new FakeBotApi(LATENCY_MILLIS)) {
+            api.setBlocked(chatId -> chatId % 10 == 0);
+
+            SendScheduler scheduler = new SendScheduler(SendScheduler.telegramSender(api.bot()), 30, 1000, 3000, 8);
+            BroadcastJob job = BroadcastJob.open(directory, recipients);
+            job.start(scheduler, chatId -> new SendMessage(chatId, "news"));
+            Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            double throughput = job.getThroughput();
+            job.close();
+            scheduler.shutdown();
+            System.out.printf("first run: %,d of %,d processed, %,5.1f messages/s%n",
+                    job.getPosition(), job.getRecipientCount(), throughput);
+
+            scheduler = new SendScheduler(SendScheduler.telegramSender(api.bot()), 30, 1000, 3000, 8);
+            try (BroadcastJob resumed = BroadcastJob.open(directory, recipients)) {
+                long start = resumed.getPosition();
+                resumed.start(scheduler, chatId -> new SendMessage(chatId, "news")).join();
+                System.out.printf("resumed:   %,d recipients from %,d, %,5.1f messages/s%n",
+                        resumed.getRecipientCount() - start, start, resumed.getThroughput());
+                for (BroadcastJob.Outcome outcome : BroadcastJob.Outcome.values()) {
+                    System.out.printf("%20s %,d%n", outcome, resumed.getCount(outcome));
+                }
+                long delivered = resumed.getCount(BroadcastJob.Outcome.SENT);
+                System.out.printf("sent twice: %,d, answered with 429: %,d%n",
+                        api.getAcceptedCount() - delivered, api.getTooManyRequestsCount());
+            }
+            scheduler.shutdown();
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+}
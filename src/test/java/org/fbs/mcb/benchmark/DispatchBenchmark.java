@@ -0,0 +1,143 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.annotation.BotConfiguration;
+import org.fbs.mcb.annotation.Command;
+import org.fbs.mcb.annotation.Feedback;
+import org.fbs.mcb.data.entity.Bot;
+import org.fbs.mcb.util.ConfigurationProcessor;
+import org.fbs.mcb.util.MethodMapper;
+import org.fbs.mcb.util.ShardedUpdateManager;
+import org.fbs.mcb.util.UpdateManager;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the throughput of the update dispatch pipeline of {@link Bot} without a connection to Telegram.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class DispatchBenchmark {
+
+    private static final int UPDATES = 1_000_000;
+
+    private static final int SHARDED_UPDATES = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        batchThroughput();
+        shardScaling();
+    }
+
+    /**
+     * Feeds getUpdates batches of 1, 10 and 100 updates through {@link Bot#processUpdates(List)}
+     * and reports how many updates per second were handled.
+     */
+    private static void batchThroughput() {
+        BenchmarkBot bot = new BenchmarkBot(BenchmarkConfiguration.class);
+        for (int batchSize : new int[]{1, 10, 100}) {
+            List<Update> batch = Updates.batch(1, batchSize, batchSize, "hello");
+            run(bot, batch, UPDATES / 10);
+
+            BenchmarkConfiguration.HANDLED.reset();
+            long start = System.nanoTime();
+            run(bot, batch, UPDATES);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("batch %3d: %,12.0f updates/s, %,d handled%n",
+                    batchSize, UPDATES / (elapsed / 1e9), BenchmarkConfiguration.HANDLED.sum());
+        }
+    }
+
+    /**
+     * Dispatches updates of 1024 chats to a CPU-bound handler through a {@link ShardedUpdateManager}
+     * with 1 to N shards, where N is the number of available processors, and reports the throughput.
+     */
+    private static void shardScaling() throws Exception {
+        BenchmarkBot bot = new BenchmarkBot(BenchmarkConfiguration.class);
+        List<Update> updates = Updates.batch(1, SHARDED_UPDATES, 1024, "work");
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int shards = 1; ; shards = Math.min(shards * 2, processors)) {
+            ShardedUpdateManager manager = new ShardedUpdateManager(new UpdateManager(), shards, 1024);
+            ConfigurationProcessor processor = new ConfigurationProcessor(WorkConfiguration.class, manager, new MethodMapper());
+
+            WorkConfiguration.HANDLED.reset();
+            long start = System.nanoTime();
+            for (Update update : updates) {
+                processor.handle(update, bot);
+            }
+            while (WorkConfiguration.HANDLED.sum() < updates.size()) {
+                Thread.onSpinWait();
+            }
+            long elapsed = System.nanoTime() - start;
+            manager.shutdown();
+
+            System.out.printf("shards %3d: %,12.0f updates/s%n", shards, updates.size() / (elapsed / 1e9));
+            if (shards == processors) {
+                break;
+            }
+        }
+    }
+
+    private static void run(BenchmarkBot bot, List<Update> batch, int updates) {
+        for (int i = 0; i < updates; i += batch.size()) {
+            bot.dispatch(batch);
+        }
+    }
+
+    /**
+     * A bot which never connects to Telegram, updates are passed to it directly.
+     */
+    static class BenchmarkBot extends Bot {
+
+        BenchmarkBot(Class<?> configurationClass) {
+            super(configurationClass);
+        }
+
+        @Override
+        protected void setUpdateListeners() {}
+
+        int dispatch(List<Update> updates) {
+            return processUpdates(updates);
+        }
+
+    }
+
+    @BotConfiguration(botToken = "0:benchmark")
+    static class BenchmarkConfiguration {
+
+        static final LongAdder HANDLED = new LongAdder();
+
+        @Feedback("message")
+        private void message(Message message) {
+            HANDLED.increment();
+        }
+
+        @Command("/help")
+        private void help(Message message, Bot bot) {
+            HANDLED.increment();
+        }
+
+    }
+
+    @BotConfiguration(botToken = "0:benchmark")
+    static class WorkConfiguration {
+
+        static final LongAdder HANDLED = new LongAdder();
+
+        static volatile long sink;
+
+        @Feedback("message")
+        private void message(Message message) {
+            long hash = message.chat().id();
+            for (int i = 0; i < 20_000; i++) {
+                hash = hash * 31 + i;
+            }
+            sink = hash;
+            HANDLED.increment();
+        }
+
+    }
+
+}
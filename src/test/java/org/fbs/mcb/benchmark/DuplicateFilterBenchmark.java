@@ -0,0 +1,59 @@
+package org.fbs.mcb.benchmark;
+
+import org.fbs.mcb.util.DuplicateFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures {@link DuplicateFilter} with 1 to N threads taking blocks of update_ids in arrival order, as webhook
+ * handler threads do, where every tenth update is a redelivery of an update of the block. Reports the checks per second
+ * and the accepted and suppressed updates, which must match the number of distinct and repeated update_ids.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class DuplicateFilterBenchmark {
+
+    private static final int UPDATES_PER_THREAD = 5_000_000;
+    private static final int BLOCK = 100;
+    private static final int WINDOW = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+            DuplicateFilter filter = new DuplicateFilter(WINDOW);
+            CountDownLatch done = new CountDownLatch(threads);
+            AtomicInteger next = new AtomicInteger();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(new Thread(() -> {
+                    for (int i = 0; i < UPDATES_PER_THREAD; i += BLOCK) {
+                        int first = next.getAndAdd(BLOCK - BLOCK / 10);
+                        for (int updateId = first; updateId < first + BLOCK - BLOCK / 10; updateId++) {
+                            filter.tryAccept(updateId);
+                        }
+                        for (int updateId = first; updateId < first + BLOCK / 10; updateId++) {
+                            filter.tryAccept(updateId);
+                        }
+                    }
+                    done.countDown();
+                }));
+            }
+            long start = System.nanoTime();
+            workers.forEach(Thread::start);
+            done.await();
+            long elapsed = System.nanoTime() - start;
+
+            long total = (long) threads * UPDATES_PER_THREAD;
+            System.out.printf("threads %2d: %,13.0f checks/s, accepted %,d of %,d, duplicates %,d of %,d, expired %,d%n",
+                    threads, total / (elapsed / 1e9), filter.getAcceptedCount(), total - total / 10,
+                    filter.getDuplicateCount(), total / 10, filter.getExpiredCount());
+            if (threads == processors) {
+                break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.TelegramBot;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/**
+ * A local Bot API server for benchmarks, which answers every method with a successful empty result and enforces
+ * Telegram's flood limits on {@code sendMessage}: 30 messages per second in total, one message per second in a private
+ * chat and 20 messages per minute in a group. Messages exceeding a limit are answered with
+ * {@code 429 Too Many Requests} and a {@code retry_after} of one second. Messages to chats which
+ * {@link #setBlocked(LongPredicate) blocked the bot} are answered with {@code 403 Forbidden}.
+ */
+public final class FakeBotApi implements AutoCloseable {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final HttpServer server;
+    private final long latencyMillis;
+
+    private final ArrayDeque<Long> recent = new ArrayDeque<>();
+    private final Map<String, ArrayDeque<Long>> chats = new HashMap<>();
+    private final AtomicInteger messageId = new AtomicInteger();
+    private volatile LongPredicate blocked = chatId -> false;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder tooManyRequests = new LongAdder();
+
+    /**
+     * Starts the server on a free local port.
+     *
+     * @param latencyMillis The time every request takes, simulating the round trip to Telegram.
+     * @throws IOException If the server cannot be started.
+     */
+    public FakeBotApi(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Creates a bot sending its requests to this server.
+     *
+     * @return The bot.
+     */
+    @NotNull
+    public TelegramBot bot() {
+        return new TelegramBot.Builder("0:fake").apiUrl(getApiUrl()).build();
+    }
+
+    /**
+     * Returns the API URL to which the bot token and method name are appended.
+     *
+     * @return The API URL of the server.
+     */
+    @NotNull
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot";
+    }
+
+    /**
+     * Sets the chats which blocked the bot.
+     *
+     * @param blocked The predicate matching the ids of the chats.
+     */
+    public void setBlocked(@NotNull LongPredicate blocked) {
+        this.blocked = blocked;
+    }
+
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    public long getTooManyRequestsCount() {
+        return tooManyRequests.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String path = exchange.getRequestURI().getPath();
+        String method = path.substring(path.lastIndexOf('/') + 1);
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String response;
+        if (method.equals("sendMessage")) {
+            String chatId = parameter(body, "chat_id");
+            if (chatId.matches("-?\\d+") && blocked.test(Long.parseLong(chatId))) {
+                response = "{\"ok\":false,\"error_code\":403,\"description\":\"Forbidden: bot was blocked by the user\"}";
+            }
+            else if (allow(chatId)) {
+                accepted.increment();
+                response = "{\"ok\":true,\"result\":{\"message_id\":" + messageId.incrementAndGet()
+                        + ",\"date\":0,\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"}}}";
+            }
+            else {
+                tooManyRequests.increment();
+                response = "{\"ok\":false,\"error_code\":429,\"description\":\"Too Many Requests: retry after 1\","
+                        + "\"parameters\":{\"retry_after\":1}}";
+            }
+        }
+        else {
+            accepted.increment();
+            response = "{\"ok\":true,\"result\":true}";
+        }
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Records the message if it is within the global limit and the limit of its chat.
+     */
+    private synchronized boolean allow(String chatId) {
+        long now = System.nanoTime();
+        while (!recent.isEmpty() && now - recent.peekFirst() > SECOND) {
+            recent.pollFirst();
+        }
+        boolean group = chatId.startsWith("-");
+        ArrayDeque<Long> chat = chats.computeIfAbsent(chatId, key -> new ArrayDeque<>());
+        long window = group ? MINUTE : SECOND;
+        while (!chat.isEmpty() && now - chat.peekFirst() > window) {
+            chat.pollFirst();
+        }
+        if (recent.size() >= 30 || chat.size() >= (group ? 20 : 1)) {
+            return false;
+        }
+        recent.addLast(now);
+        chat.addLast(now);
+        return true;
+    }
+
+    private static String parameter(String body, String name) {
+        for (String pair : body.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0 && URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8).equals(name)) {
+                return URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return "";
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.util.FloodControl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures {@link FloodControl} under a spam burst: five accounts send 90% of the updates as fast as possible
+ * while 10,000 regular users send the rest, with 1 to N threads checking updates concurrently.
+ * Reports the checks per second and how many updates of the spammers and of the regular users were accepted.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class FloodControlBenchmark {
+
+    private static final int UPDATES_PER_THREAD = 2_000_000;
+    private static final int SPAMMERS = 5;
+    private static final int USERS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        Update[] spam = new Update[SPAMMERS];
+        for (int i = 0; i < SPAMMERS; i++) {
+            spam[i] = Updates.message(i, 1 + i, "spam");
+        }
+        Update[] regular = new Update[USERS];
+        for (int i = 0; i < USERS; i++) {
+            regular[i] = Updates.message(i, 1_000 + i, "hello");
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+            FloodControl floodControl = new FloodControl(1, 10, 20, 40);
+            LongAdder spamAccepted = new LongAdder();
+            LongAdder regularAccepted = new LongAdder();
+            CountDownLatch done = new CountDownLatch(threads);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                workers.add(new Thread(() -> {
+                    long spamOk = 0;
+                    long regularOk = 0;
+                    for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                        if (i % 10 != 0) {
+                            if (floodControl.tryAcquire(spam[(i + seed) % SPAMMERS])) {
+                                spamOk++;
+                            }
+                        }
+                        else if (floodControl.tryAcquire(regular[(i / 10 + seed * 997) % USERS])) {
+                            regularOk++;
+                        }
+                    }
+                    spamAccepted.add(spamOk);
+                    regularAccepted.add(regularOk);
+                    done.countDown();
+                }));
+            }
+            long start = System.nanoTime();
+            workers.forEach(Thread::start);
+            done.await();
+            long elapsed = System.nanoTime() - start;
+            floodControl.shutdown();
+
+            long total = (long) threads * UPDATES_PER_THREAD;
+            System.out.printf("threads %2d: %,13.0f checks/s, spam accepted %,d of %,d, regular accepted %,d of %,d, "
+                            + "%,d throttling episodes%n",
+                    threads, total / (elapsed / 1e9), spamAccepted.sum(), total - total / 10,
+                    regularAccepted.sum(), total / 10, floodControl.getThrottledCount());
+            if (threads == processors) {
+                break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.data.BotMethod;
+import org.fbs.mcb.data.ClassReorder;
+import org.fbs.mcb.data.MethodType;
+import org.fbs.mcb.util.MethodInvoker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+
+/**
+ * Compares the reflective handler invocation of {@link MethodInvoker#invokeMethod} with the fixed-arity method handle
+ * created by {@link MethodInvoker#unreflect(Method, int[])}, called directly and through {@link BotMethod}, as the
+ * handlers of a bot are dispatched.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class InvocationBenchmark {
+
+    private static final int CALLS = 20_000_000;
+    private static final int ROUNDS = 5;
+
+    private long handled;
+
+    private void handler(Update update, Message message) {
+        handled++;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        InvocationBenchmark target = new InvocationBenchmark();
+        Method method = InvocationBenchmark.class.getDeclaredMethod("handler", Update.class, Message.class);
+        ClassReorder reorder = new ClassReorder(new Class<?>[]{Update.class, Message.class}, method.getParameterTypes());
+        MethodHandle handle = MethodInvoker.unreflect(method, reorder.getPermutation());
+        BotMethod botMethod = new BotMethod(method, null, MethodType.MESSAGE, "message", reorder);
+        Update update = Updates.message(1, 1, "hello");
+        Message message = update.message();
+        Object[] arguments = {update, message};
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                MethodInvoker.invokeMethod(method, false, target, arguments);
+            }
+            long reflective = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                handle.invokeExact((Object) target, (Object) update, (Object) message, (Object) null, (Object) null);
+            }
+            long methodHandle = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                botMethod.invoke(target, update, message, null, null);
+            }
+            long dispatched = System.nanoTime() - start;
+
+            System.out.printf("round %d: Method.invoke %6.2f ns/call, MethodHandle %6.2f ns/call, BotMethod %6.2f ns/call%n",
+                    round, (double) reflective / CALLS, (double) methodHandle / CALLS, (double) dispatched / CALLS);
+        }
+        System.out.println("handled " + target.handled);
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.benchmark.DispatchBenchmark.BenchmarkBot;
+import org.fbs.mcb.benchmark.DispatchBenchmark.BenchmarkConfiguration;
+import org.fbs.mcb.util.ConfigurationProcessor;
+import org.fbs.mcb.util.MethodMapper;
+import org.fbs.mcb.util.UpdateLog;
+import org.fbs.mcb.util.UpdateManager;
+import org.fbs.mcb.util.UpdateReplayer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Records synthetic updates to an {@link UpdateLog} and replays them, reporting how many updates per second are
+ * appended as JSON and as serialized updates, scanned without parsing, and replayed through the configuration
+ * handlers of a bot at maximum speed. Finally a second of recorded updates is replayed at ten times the recorded pace
+ * to show the pacing error.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class ReplayBenchmark {
+
+    private static final int UPDATES = 1_000_000;
+    private static final int SERIALIZED_UPDATES = 100_000;
+    private static final int PACED_UPDATES = 1_000;
+    private static final int CHATS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("mcb-replay");
+        try {
+            replay(directory.resolve("json"));
+            serialize(directory.resolve("serialized"));
+            paced(directory.resolve("paced"));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void replay(Path directory) throws Exception {
+        try (UpdateLog log = UpdateLog.open(directory)) {
+            long time = System.currentTimeMillis();
+            long start = System.nanoTime();
+            for (int i = 0; i < UPDATES; i++) {
+                byte[] json = Updates.messageJson(i, 1_000 + i % CHATS, "hello").getBytes(StandardCharsets.UTF_8);
+                log.append(i, time, json);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("append json: %,12.0f updates/s, %d segments%n", UPDATES / (elapsed / 1e9),
+                    log.getSegmentCount());
+
+            for (int run = 0; run < 2; run++) {
+                long[] bytes = {0};
+                start = System.nanoTime();
+                long end = log.read(0, (record, updateId, recorded, json) -> {
+                    bytes[0] += json.remaining();
+                    return true;
+                });
+                elapsed = System.nanoTime() - start;
+                System.out.printf("scan:        %,12.0f updates/s, %,.0f MB/s, %,d records%n",
+                        end / (elapsed / 1e9), bytes[0] / 1e6 / (elapsed / 1e9), end);
+            }
+
+            BenchmarkBot bot = new BenchmarkBot(BenchmarkConfiguration.class);
+            ConfigurationProcessor processor = new ConfigurationProcessor(BenchmarkConfiguration.class,
+                    new UpdateManager(), new MethodMapper());
+            for (int run = 0; run < 2; run++) {
+                BenchmarkConfiguration.HANDLED.reset();
+                UpdateReplayer replayer = new UpdateReplayer(log, 0);
+                start = System.nanoTime();
+                replayer.replay(0, processor, bot);
+                elapsed = System.nanoTime() - start;
+                System.out.printf("replay:      %,12.0f updates/s, %,d handled, %,d malformed%n",
+                        UPDATES / (elapsed / 1e9), BenchmarkConfiguration.HANDLED.sum(), replayer.getMalformedCount());
+            }
+        }
+    }
+
+    private static void serialize(Path directory) throws Exception {
+        try (UpdateLog log = UpdateLog.open(directory)) {
+            Update[] updates = new Update[SERIALIZED_UPDATES];
+            for (int i = 0; i < updates.length; i++) {
+                updates[i] = Updates.message(i, 1_000 + i % CHATS, "hello");
+            }
+            long start = System.nanoTime();
+            for (Update update : updates) {
+                log.append(update);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("append update: %,10.0f updates/s%n", SERIALIZED_UPDATES / (elapsed / 1e9));
+        }
+    }
+
+    private static void paced(Path directory) throws Exception {
+        try (UpdateLog log = UpdateLog.open(directory)) {
+            long time = System.currentTimeMillis();
+            for (int i = 0; i < PACED_UPDATES; i++) {
+                log.append(i, time + i, Updates.messageJson(i, 1_000 + i % CHATS, "hello").getBytes(StandardCharsets.UTF_8));
+            }
+            UpdateReplayer replayer = new UpdateReplayer(log, 10);
+            long start = System.nanoTime();
+            replayer.replay(0, update -> {});
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("paced 10x:   %,.1f ms for %,d ms recorded, expected %,.1f ms%n",
+                    elapsed / 1e6, PACED_UPDATES - 1, (PACED_UPDATES - 1) / 10.0);
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.model.CallbackQuery;
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.MessageEntity;
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.annotation.BotConfiguration;
+import org.fbs.mcb.annotation.Command;
+import org.fbs.mcb.annotation.Feedback;
+import org.fbs.mcb.data.entity.Bot;
+import org.fbs.mcb.util.ConfigurationProcessor;
+import org.fbs.mcb.util.MethodMapper;
+import org.fbs.mcb.util.UpdateManager;
+
+/**
+ * Measures the per-update cost of {@link UpdateManager#route(Update, Bot)} for different kinds of updates,
+ * with a configuration handling every update type and with one handling plain updates only.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class RoutingBenchmark {
+
+    private static final int WARMUP = 2_000_000;
+    private static final int ROUTES = 10_000_000;
+
+    static long handled;
+
+    public static void main(String[] args) throws Exception {
+        Update[] updates = {
+                Updates.message(1, 1000, "hello"),
+                Updates.message(2, 1000, "/help"),
+                Updates.message(3, 1000, "/start"),
+                Updates.callbackQuery(4, 1000, "button"),
+        };
+        String[] names = {"text message", "command", "start command", "callback query"};
+
+        for (Class<?> configuration : new Class<?>[]{AllTypesConfiguration.class, UpdateOnlyConfiguration.class}) {
+            ConfigurationProcessor processor = new ConfigurationProcessor(configuration, new UpdateManager(), new MethodMapper());
+            UpdateManager manager = new UpdateManager();
+            manager.setProcessor(processor);
+            Bot bot = new DispatchBenchmark.BenchmarkBot(configuration);
+
+            System.out.println(configuration.getSimpleName() + ":");
+            for (int i = 0; i < updates.length; i++) {
+                route(manager, updates[i], bot, WARMUP);
+                handled = 0;
+                long start = System.nanoTime();
+                route(manager, updates[i], bot, ROUTES);
+                long elapsed = System.nanoTime() - start;
+
+                System.out.printf("  %-15s %6.1f ns/update, %,d handler calls%n", names[i], (double) elapsed / ROUTES, handled);
+            }
+        }
+    }
+
+    private static void route(UpdateManager manager, Update update, Bot bot, int count) {
+        for (int i = 0; i < count; i++) {
+            manager.route(update, bot);
+        }
+    }
+
+    @BotConfiguration(botToken = "0:benchmark")
+    static class AllTypesConfiguration {
+
+        @Feedback("update")
+        private static void update(Update update) {
+            handled++;
+        }
+
+        @Feedback("message")
+        private static void message(Message message) {
+            handled++;
+        }
+
+        @Feedback("entities")
+        private static void entities(MessageEntity[] entities) {
+            handled++;
+        }
+
+        @Feedback("start")
+        private static void start(Message message) {
+            handled++;
+        }
+
+        @Feedback("callback_query")
+        private static void callbackQuery(CallbackQuery query) {
+            handled++;
+        }
+
+        @Command("/help")
+        private static void help(Message message) {
+            handled++;
+        }
+
+    }
+
+    @BotConfiguration(botToken = "0:benchmark")
+    static class UpdateOnlyConfiguration {
+
+        @Feedback("update")
+        private static void update(Update update) {
+            handled++;
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.response.SendResponse;
+import org.fbs.mcb.util.SendScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends a broadcast to 200 private chats together with a flood of 100 messages into one group against a local
+ * {@link FakeBotApi} enforcing Telegram's limits, once by calling {@link TelegramBot#execute} from a thread pool
+ * and once through a {@link SendScheduler}. Reports the time until all messages were delivered, how many messages
+ * were delivered, and how many requests were answered with {@code 429 Too Many Requests}.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class SendSchedulerBenchmark {
+
+    private static final int PRIVATE_CHATS = 200;
+    private static final int GROUP_MESSAGES = 100;
+    private static final long GROUP_ID = -1_001_234_567_890L;
+    private static final long LATENCY_MILLIS = 20;
+
+    public static void main(String[] args) throws Exception {
+        try (FakeBotApi api = new FakeBotApi(LATENCY_MILLIS)) {
+            TelegramBot bot = api.bot();
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            long start = System.nanoTime();
+            List<CompletableFuture<Long>> direct = new ArrayList<>();
+            for (SendMessage message : messages()) {
+                direct.add(completion(CompletableFuture.supplyAsync(() -> bot.execute(message), pool)));
+            }
+            report("direct", start, direct, api);
+            pool.shutdown();
+        }
+
+        try (FakeBotApi api = new FakeBotApi(LATENCY_MILLIS)) {
+            SendScheduler scheduler = new SendScheduler(SendScheduler.telegramSender(api.bot()), 30, 1000, 3000, 8);
+            long start = System.nanoTime();
+            List<CompletableFuture<Long>> scheduled = new ArrayList<>();
+            for (SendMessage message : messages()) {
+                scheduled.add(completion(scheduler.submit(message)));
+            }
+            report("scheduled", start, scheduled, api);
+            System.out.printf("%10s  %,d requests retried after 429%n", "", scheduler.getRetriedCount());
+            scheduler.shutdown();
+        }
+    }
+
+    private static List<SendMessage> messages() {
+        List<SendMessage> messages = new ArrayList<>();
+        for (int i = 0; i < Math.max(PRIVATE_CHATS, GROUP_MESSAGES); i++) {
+            if (i < GROUP_MESSAGES) {
+                messages.add(new SendMessage(GROUP_ID, "flood " + i));
+            }
+            if (i < PRIVATE_CHATS) {
+                messages.add(new SendMessage(10_000L + i, "broadcast"));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Maps the response to the time it arrived if it delivered a message to a private chat, to {@code 0} if it
+     * delivered a message to the group, and to {@code -1} if the message was not delivered.
+     */
+    private static CompletableFuture<Long> completion(CompletableFuture<SendResponse> future) {
+        return future.thenApply(response -> {
+            if (!response.isOk()) {
+                return -1L;
+            }
+            return response.message().chat().id() > 0 ? System.nanoTime() : 0L;
+        });
+    }
+
+    private static void report(String name, long start, List<CompletableFuture<Long>> futures, FakeBotApi api) {
+        long delivered = 0;
+        long broadcastDone = start;
+        for (CompletableFuture<Long> future : futures) {
+            long completed = future.join();
+            if (completed >= 0) {
+                delivered++;
+                broadcastDone = Math.max(broadcastDone, completed);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%10s: %,d of %,d delivered in %,7.1f ms, broadcast done after %,7.1f ms, %,d answered with 429%n",
+                name, delivered, futures.size(), elapsed / 1e6, (broadcastDone - start) / 1e6,
+                api.getTooManyRequestsCount());
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.fbs.mcb.benchmark;
+
+import org.fbs.mcb.data.user.SessionStore;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+/**
+ * Measures reads and writes of 10^7 sessions in a {@link SessionStore}, every session holding a long, an int and
+ * a double, and reports the garbage collections and the heap used while the store is filled and accessed.
+ * A second pass appends a string to a tenth of the sessions, which moves their records, and compacts the store.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath with {@code -Xmx1g -XX:MaxDirectMemorySize=2g},
+ * the results are printed to the standard output.
+ */
+public class SessionStoreBenchmark {
+
+    private static final int SESSIONS = 10_000_000;
+    private static final int ACCESSES = 20_000_000;
+
+    static long sink;
+
+    public static void main(String[] args) {
+        SessionStore store = new SessionStore();
+        long gcBefore = collections();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SESSIONS; i++) {
+            long id = userId(i);
+            store.putLong(id, 0, id);
+            store.putInt(id, 8, i);
+            store.putDouble(id, 12, i * 0.5);
+        }
+        long filled = System.nanoTime() - start;
+        System.out.printf("fill:    %6.1f ns/write, %,d MB off-heap%n",
+                (double) filled / (SESSIONS * 3L), store.getOffHeapBytes() >> 20);
+
+        int[] order = accessOrder();
+        read(store, order);
+        start = System.nanoTime();
+        read(store, order);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("read:    %6.1f ns/read%n", (double) elapsed / ACCESSES);
+
+        start = System.nanoTime();
+        for (int index : order) {
+            store.putInt(userId(index), 8, index + 1);
+        }
+        elapsed = System.nanoTime() - start;
+        System.out.printf("write:   %6.1f ns/write%n", (double) elapsed / ACCESSES);
+
+        for (int i = 0; i < SESSIONS; i += 10) {
+            store.putString(userId(i), 20, "session");
+        }
+        long garbage = store.getGarbageBytes();
+        start = System.nanoTime();
+        store.compact();
+        elapsed = System.nanoTime() - start;
+        System.out.printf("compact: %,6d ms, %,d MB garbage reclaimed, %,d MB off-heap%n",
+                elapsed / 1_000_000, garbage >> 20, store.getOffHeapBytes() >> 20);
+
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%,d sessions, %d garbage collections, %,d MB heap used%n",
+                store.size(), collections() - gcBefore, (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+    }
+
+    private static void read(SessionStore store, int[] order) {
+        long sum = 0;
+        for (int index : order) {
+            sum += store.getInt(userId(index), 8);
+        }
+        sink += sum;
+    }
+
+    private static long userId(int index) {
+        return 100_000_000L + index * 613L;
+    }
+
+    private static int[] accessOrder() {
+        SplittableRandom random = new SplittableRandom(42);
+        int[] order = new int[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            order[i] = random.nextInt(SESSIONS);
+        }
+        return order;
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,125 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.model.User;
+import org.fbs.mcb.annotation.BotConfiguration;
+import org.fbs.mcb.data.entity.MultiClientBot;
+import org.fbs.mcb.data.user.BotUser;
+import org.fbs.mcb.data.user.SessionSnapshot;
+import org.fbs.mcb.data.user.SessionStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Restarts a {@link MultiClientBot} whose users' sessions are persisted in a {@link SessionSnapshot} and reports
+ * the time from the construction of the new bot to the first handled update, for 10^3 and 10^6 users.
+ * The time to write the full snapshot and an incremental snapshot after 1% of the sessions changed is reported as well.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class SnapshotRestartBenchmark {
+
+    private static final int COUNTER = 0;
+    private static final int NAME = 8;
+
+    public static void main(String[] args) throws Exception {
+        for (int users : new int[]{1_000, 1_000_000}) {
+            Path directory = Files.createTempDirectory("mcb-snapshot");
+            Path file = directory.resolve("sessions.snapshot");
+
+            SnapshotBot.snapshotFile = file;
+            SnapshotBot bot = new SnapshotBot();
+            for (int i = 0; i < users; i++) {
+                BotUser botUser = bot.register(userId(i));
+                botUser.session().putLong(COUNTER, i);
+                botUser.session().putString(NAME, "user" + i);
+            }
+            long start = System.nanoTime();
+            long written = bot.getSnapshot().write();
+            long full = System.nanoTime() - start;
+
+            for (int i = 0; i < users; i += 100) {
+                bot.register(userId(i)).session().putLong(COUNTER, -i);
+            }
+            start = System.nanoTime();
+            long incremental = bot.getSnapshot().write();
+            long incrementalTime = System.nanoTime() - start;
+            bot.getSnapshot().close();
+
+            Update update = Updates.message(1, userId(users / 2 + 1), "hello");
+            start = System.nanoTime();
+            SnapshotBot restarted = new SnapshotBot();
+            restarted.dispatch(List.of(update));
+            long firstUpdate = System.nanoTime() - start;
+
+            System.out.printf("%,10d users: full snapshot %,7.1f ms (%,d KB), incremental %,6.1f ms (%,d KB), "
+                            + "first update after restart %,6.2f ms, restored counter %d%n",
+                    users, full / 1e6, written >> 10, incrementalTime / 1e6, incremental >> 10,
+                    firstUpdate / 1e6, restarted.lastCounter);
+
+            restarted.getSnapshot().close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static long userId(int index) {
+        return 100_000_000L + index * 613L;
+    }
+
+    /**
+     * A multi-user bot which never connects to Telegram and keeps its sessions in its own store. The snapshot is
+     * opened while the bot is constructed, before it could receive updates, as for a configured snapshot file.
+     */
+    static class SnapshotBot extends MultiClientBot {
+
+        static Path snapshotFile;
+
+        // created on first use, as the snapshot is opened before the fields of the bot are initialized
+        private SessionStore sessions;
+
+        volatile long lastCounter;
+
+        SnapshotBot() {
+            super(SnapshotConfiguration.class);
+        }
+
+        @Override
+        protected void initComponents() {
+            super.initComponents();
+            setSnapshot(snapshotFile, 0);
+        }
+
+        @Override
+        protected void setUpdateListeners() {}
+
+        @Override
+        protected SessionStore getSessionStore() {
+            if (sessions == null) {
+                sessions = new SessionStore();
+            }
+            return sessions;
+        }
+
+        @Override
+        protected void messageParse(Message message, BotUser botUser) {
+            lastCounter = botUser.session().getLong(COUNTER);
+        }
+
+        BotUser register(long userId) {
+            return getOrCreateClient(new User(userId));
+        }
+
+        int dispatch(List<Update> updates) {
+            return processUpdates(updates);
+        }
+
+    }
+
+    @BotConfiguration(botToken = "0:benchmark", doubleDispatch = true)
+    static class SnapshotConfiguration {}
+
+}
@@ -0,0 +1,85 @@
+package org.fbs.mcb.benchmark;
+
+import org.fbs.mcb.util.ConfigurationProcessor;
+import org.fbs.mcb.util.MethodMapper;
+import org.fbs.mcb.util.UpdateManager;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the time and memory needed to construct a {@link ConfigurationProcessor} for a configuration with
+ * 1,000 handlers. The configuration class is generated and compiled when the benchmark starts.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath with a JDK, the results are printed to the standard output.
+ */
+public class StartupBenchmark {
+
+    private static final int HANDLERS = 1_000;
+    private static final int ROUNDS = 5;
+
+    private static final String[] FEEDBACK_SIGNATURES = {
+            "\"update\") public void h%d(Update update, Bot bot) {}",
+            "\"message\") public void h%d(Bot bot, Message message) {}",
+            "\"entities\") public void h%d(MessageEntity[] entities, Message message, Update update) {}",
+            "\"callback_query\") public static void h%d(CallbackQuery query) {}",
+            "\"inline_query\") public void h%d(Update update, InlineQuery query, Bot bot) {}",
+    };
+
+    public static void main(String[] args) throws Exception {
+        Class<?> configurationClass = compileConfiguration();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            ConfigurationProcessor processor = new ConfigurationProcessor(configurationClass, new UpdateManager(), new MethodMapper());
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            System.out.printf("round %d: %,d handlers registered in %,.1f ms, %,d KB allocated (%s)%n",
+                    round, HANDLERS, elapsed / 1e6, allocated / 1024, processor.getConfigurationClass().getSimpleName());
+        }
+    }
+
+    private static Class<?> compileConfiguration() throws Exception {
+        StringBuilder source = new StringBuilder()
+                .append("import com.pengrad.telegrambot.model.*;\n")
+                .append("import org.fbs.mcb.annotation.*;\n")
+                .append("import org.fbs.mcb.data.entity.Bot;\n")
+                .append("@BotConfiguration(botToken = \"0:benchmark\")\n")
+                .append("public class GeneratedConfiguration {\n");
+        for (int i = 0; i < HANDLERS; i++) {
+            if (i % 2 == 0) {
+                source.append(String.format("  @Command(\"/command%d\") public void h%d(Message message, Update update) {}%n", i, i));
+            }
+            else {
+                source.append("  @Feedback(").append(String.format(FEEDBACK_SIGNATURES[i / 2 % FEEDBACK_SIGNATURES.length], i)).append('\n');
+            }
+        }
+        source.append("}\n");
+
+        Path directory = Files.createTempDirectory("mcb-startup");
+        Path file = directory.resolve("GeneratedConfiguration.java");
+        Files.writeString(file, source);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("The benchmark must be run with a JDK");
+        }
+        int result = compiler.run(null, null, null,
+                "-classpath", System.getProperty("java.class.path"), "-d", directory.toString(), file.toString());
+        if (result != 0) {
+            throw new IllegalStateException("Failed to compile the generated configuration");
+        }
+        URLClassLoader loader = new URLClassLoader(new URL[]{directory.toUri().toURL()}, StartupBenchmark.class.getClassLoader());
+        return loader.loadClass("GeneratedConfiguration");
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.fbs.mcb.benchmark;
+
+import org.fbs.mcb.data.user.BotRunnable;
+import org.fbs.mcb.data.user.OnAddStrategy;
+import org.fbs.mcb.data.user.TaskDeque;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the memory of idle {@link TaskDeque} instances and the throughput of short tasks
+ * spread over the deques of many users.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class TaskDequeBenchmark {
+
+    private static final int IDLE_DEQUES = 1_000_000;
+    private static final int USERS = 10_000;
+    private static final int TASKS_PER_USER = 100;
+
+    public static void main(String[] args) throws Exception {
+        idleFootprint();
+        throughput();
+    }
+
+    /**
+     * Reports the bytes allocated per idle deque, a deque which has run a task is measured after it became idle again.
+     */
+    private static void idleFootprint() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        TaskDeque[] deques = new TaskDeque[IDLE_DEQUES];
+        long arrayBytes = threads.getThreadAllocatedBytes(threadId) - before;
+        for (int i = 0; i < IDLE_DEQUES; i++) {
+            deques[i] = new TaskDeque();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - arrayBytes;
+        System.out.printf("idle deque: %.1f bytes%n", (double) allocated / IDLE_DEQUES);
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        for (TaskDeque deque : deques) {
+            deque.add(new CountingTask(), OnAddStrategy.STACK_ADDITION);
+        }
+        while (CountingTask.DONE.sum() < IDLE_DEQUES) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        System.gc();
+        long retained = runtime.totalMemory() - runtime.freeMemory() - used;
+        System.out.printf("deque after a task: %.1f bytes retained%n", (double) retained / IDLE_DEQUES);
+        CountingTask.DONE.reset();
+    }
+
+    /**
+     * Reports how many tasks per second are executed when every user queues a burst of tasks.
+     */
+    private static void throughput() throws Exception {
+        TaskDeque[] deques = new TaskDeque[USERS];
+        for (int i = 0; i < USERS; i++) {
+            deques[i] = new TaskDeque();
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int task = 0; task < TASKS_PER_USER; task++) {
+                for (TaskDeque deque : deques) {
+                    deque.add(new CountingTask(), OnAddStrategy.STACK_ADDITION);
+                }
+            }
+            while (CountingTask.DONE.sum() < (long) USERS * TASKS_PER_USER) {
+                Thread.onSpinWait();
+            }
+            long elapsed = System.nanoTime() - start;
+            CountingTask.DONE.reset();
+            System.out.printf("round %d: %,12.0f tasks/s%n", round, USERS * TASKS_PER_USER / (elapsed / 1e9));
+        }
+    }
+
+    static class CountingTask extends BotRunnable {
+
+        static final LongAdder DONE = new LongAdder();
+
+        @Override
+        public void invoke(Object... args) {
+            DONE.increment();
+        }
+
+    }
+
+}
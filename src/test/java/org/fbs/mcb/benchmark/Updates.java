@@ -0,0 +1,92 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds {@link Update} objects from Bot API JSON for benchmarks, without a connection to Telegram.
+ */
+public final class Updates {
+
+    private Updates(){}
+
+    /**
+     * Creates a private chat message update. Texts starting with {@code /} get a {@code bot_command} entity
+     * covering their first word.
+     *
+     * @param updateId The update_id of the update.
+     * @param chatId The id of the chat and of the sender.
+     * @param text The text of the message.
+     * @return The parsed update.
+     */
+    @NotNull
+    public static Update message(int updateId, long chatId, @NotNull String text) {
+        return BotUtils.parseUpdate(messageJson(updateId, chatId, text));
+    }
+
+    /**
+     * Creates a callback query update sent by the specified user.
+     *
+     * @param updateId The update_id of the update.
+     * @param userId The id of the user who pressed the button.
+     * @param data The callback data.
+     * @return The parsed update.
+     */
+    @NotNull
+    public static Update callbackQuery(int updateId, long userId, @NotNull String data) {
+        return BotUtils.parseUpdate("{\"update_id\":" + updateId + ",\"callback_query\":{\"id\":\"" + updateId + "\","
+                + "\"from\":" + userJson(userId) + ",\"chat_instance\":\"" + userId + "\",\"data\":\"" + data + "\"}}");
+    }
+
+    /**
+     * Creates a batch of message updates with consecutive update_ids spread over the given number of chats.
+     *
+     * @param firstId The update_id of the first update.
+     * @param size The number of updates in the batch.
+     * @param chats The number of distinct chats the messages come from.
+     * @param text The text of every message.
+     * @return The batch of updates in update_id order.
+     */
+    @NotNull
+    public static List<Update> batch(int firstId, int size, int chats, @NotNull String text) {
+        List<Update> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(message(firstId + i, 1000 + (firstId + i) % chats, text));
+        }
+        return batch;
+    }
+
+    /**
+     * Returns the Bot API JSON of a private chat message update.
+     *
+     * @param updateId The update_id of the update.
+     * @param chatId The id of the chat and of the sender.
+     * @param text The text of the message.
+     * @return The JSON representation of the update.
+     */
+    @NotNull
+    public static String messageJson(int updateId, long chatId, @NotNull String text) {
+        StringBuilder json = new StringBuilder()
+                .append("{\"update_id\":").append(updateId)
+                .append(",\"message\":{\"message_id\":").append(updateId)
+                .append(",\"date\":").append(System.currentTimeMillis() / 1000)
+                .append(",\"chat\":{\"id\":").append(chatId).append(",\"type\":\"private\"}")
+                .append(",\"from\":").append(userJson(chatId))
+                .append(",\"text\":\"").append(text).append('"');
+        if (text.startsWith("/")) {
+            int length = text.indexOf(' ') == -1 ? text.length() : text.indexOf(' ');
+            json.append(",\"entities\":[{\"type\":\"bot_command\",\"offset\":0,\"length\":").append(length).append("}]");
+        }
+        return json.append("}}").toString();
+    }
+
+    @NotNull
+    private static String userJson(long userId) {
+        return "{\"id\":" + userId + ",\"is_bot\":false,\"first_name\":\"user" + userId + "\"}";
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.fbs.mcb.benchmark;
+
+import org.fbs.mcb.data.entity.MultiClientBot;
+import org.fbs.mcb.util.LongConcurrentMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Measures user lookups in the {@link LongConcurrentMap} which {@link MultiClientBot} keeps its users in,
+ * for 10^3, 10^5 and 10^7 registered users. The linear scan of a list, which was used before, is measured
+ * for 10^3 users for comparison.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath with at least {@code -Xmx2g},
+ * the results are printed to the standard output.
+ */
+public class UserRegistryBenchmark {
+
+    private static final int LOOKUPS = 10_000_000;
+
+    private static final Object USER = new Object();
+
+    static long sink;
+
+    public static void main(String[] args) {
+        for (int users : new int[]{1_000, 100_000, 10_000_000}) {
+            long[] ids = userIds(users);
+            LongConcurrentMap<Object> registry = new LongConcurrentMap<>();
+            long start = System.nanoTime();
+            for (long id : ids) {
+                registry.computeIfAbsent(id, key -> USER);
+            }
+            long filled = System.nanoTime() - start;
+
+            long[] lookups = lookupOrder(ids);
+            lookup(registry, lookups);
+            start = System.nanoTime();
+            lookup(registry, lookups);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%,12d users: %6.1f ns/lookup, %6.1f ns/insert%n",
+                    users, (double) elapsed / LOOKUPS, (double) filled / users);
+
+            if (users == 1_000) {
+                List<Long> list = new ArrayList<>();
+                for (long id : ids) {
+                    list.add(id);
+                }
+                scan(list, lookups, LOOKUPS / 10);
+                start = System.nanoTime();
+                scan(list, lookups, LOOKUPS / 10);
+                elapsed = System.nanoTime() - start;
+                System.out.printf("%,12d users: %6.1f ns/lookup (list scan)%n", users, (double) elapsed / (LOOKUPS / 10));
+            }
+        }
+    }
+
+    private static void lookup(LongConcurrentMap<Object> registry, long[] lookups) {
+        long found = 0;
+        for (long id : lookups) {
+            if (registry.get(id) != null) {
+                found++;
+            }
+        }
+        sink += found;
+    }
+
+    private static void scan(List<Long> list, long[] lookups, int count) {
+        long found = 0;
+        for (int i = 0; i < count; i++) {
+            long id = lookups[i];
+            for (Long user : list) {
+                if (user == id) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        sink += found;
+    }
+
+    /**
+     * Generates distinct positive ids in the range of Telegram user ids.
+     */
+    private static long[] userIds(int users) {
+        long[] ids = new long[users];
+        for (int i = 0; i < users; i++) {
+            ids[i] = 100_000_000L + i * 613L;
+        }
+        return ids;
+    }
+
+    private static long[] lookupOrder(long[] ids) {
+        SplittableRandom random = new SplittableRandom(42);
+        long[] lookups = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = ids[random.nextInt(ids.length)];
+        }
+        return lookups;
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.fbs.mcb.benchmark;
+
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.model.Message;
+import org.fbs.mcb.annotation.BotConfiguration;
+import org.fbs.mcb.annotation.Feedback;
+import org.fbs.mcb.data.entity.Bot;
+import org.fbs.mcb.util.HttpClientUtil;
+import org.fbs.mcb.util.WebhookServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Posts recorded updates over loopback to a bot in webhook mode from 40 concurrent connections, as many as Telegram
+ * opens by default, and reports the acknowledged updates per second, the median and 99th percentile time until an
+ * update was acknowledged, and how many updates reached the handler. The webhook is registered with a local
+ * {@link FakeBotApi} instead of Telegram.
+ * <p>
+ * Run the {@link #main(String[])} method from the test classpath, the results are printed to the standard output.
+ */
+public class WebhookBenchmark {
+
+    private static final int UPDATES = 100_000;
+    private static final int CONNECTIONS = 40;
+    private static final int USERS = 10_000;
+    private static final String SECRET = "benchmark-secret";
+
+    static volatile String apiUrl;
+
+    public static void main(String[] args) throws Exception {
+        try (FakeBotApi api = new FakeBotApi(0)) {
+            apiUrl = api.getApiUrl();
+            WebhookBot bot = new WebhookBot();
+            WebhookServer server = bot.getWebhookServer();
+            URI uri = URI.create("http://127.0.0.1:" + server.getPort() + "/hook");
+            HttpClient client = HttpClient.newHttpClient();
+
+            for (int i = 0; i < UPDATES / 10; i++) {
+                post(client, uri, i);
+            }
+            WebhookConfiguration.HANDLED.reset();
+
+            long[] latencies = new long[UPDATES];
+            AtomicInteger next = new AtomicInteger();
+            List<Thread> connections = new ArrayList<>();
+            for (int c = 0; c < CONNECTIONS; c++) {
+                connections.add(new Thread(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < UPDATES) {
+                        try {
+                            latencies[i] = post(client, uri, UPDATES / 10 + i);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            connections.forEach(Thread::start);
+            for (Thread connection : connections) {
+                connection.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            while (WebhookConfiguration.HANDLED.sum() < UPDATES && System.nanoTime() - start < 60_000_000_000L) {
+                Thread.sleep(10);
+            }
+
+            Arrays.sort(latencies);
+            System.out.printf("%,d connections: %,10.0f updates/s, ack p50 %,6.1f us, p99 %,7.1f us, %,d handled, "
+                            + "%,d unauthorized%n",
+                    CONNECTIONS, UPDATES / (elapsed / 1e9), latencies[UPDATES / 2] / 1e3,
+                    latencies[UPDATES * 99 / 100] / 1e3, WebhookConfiguration.HANDLED.sum(), server.getUnauthorizedCount());
+            server.stop();
+        }
+    }
+
+    /**
+     * Posts an update to the webhook and returns the time until it was acknowledged.
+     */
+    private static long post(HttpClient client, URI uri, int updateId) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .header(WebhookServer.SECRET_TOKEN_HEADER, SECRET)
+                .POST(HttpRequest.BodyPublishers.ofString(update(updateId)))
+                .build();
+        long start = System.nanoTime();
+        int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        long latency = System.nanoTime() - start;
+        if (status != 200) {
+            throw new IllegalStateException("Webhook answered " + status);
+        }
+        return latency;
+    }
+
+    /**
+     * Returns an update as Telegram posts it to the webhook.
+     */
+    private static String update(int updateId) {
+        long userId = 1_000 + updateId % USERS;
+        return "{\"update_id\":" + updateId + ",\"message\":{\"message_id\":" + updateId + ",\"date\":1700000000,"
+                + "\"chat\":{\"id\":" + userId + ",\"type\":\"private\"},"
+                + "\"from\":{\"id\":" + userId + ",\"is_bot\":false,\"first_name\":\"User\"},\"text\":\"hello\"}}";
+    }
+
+    /**
+     * A bot in webhook mode which registers its webhook with the fake Bot API server.
+     */
+    static class WebhookBot extends Bot {
+
+        WebhookBot() {
+            super(WebhookConfiguration.class);
+        }
+
+        @NotNull
+        @Override
+        protected TelegramBot createTelegramBot(@NotNull String botToken, int maxRequestsInFlight) {
+            return new TelegramBot.Builder(botToken).apiUrl(apiUrl)
+                    .okHttpClient(HttpClientUtil.newClient(maxRequestsInFlight)).build();
+        }
+
+    }
+
+    @BotConfiguration(botToken = "0:benchmark", webhookUrl = "https://bot.example.org/hook", webhookPort = 0,
+            webhookSecretToken = SECRET)
+    static class WebhookConfiguration {
+
+        static final LongAdder HANDLED = new LongAdder();
+
+        @Feedback("message")
+        private void message(Message message) {
+            HANDLED.increment();
+        }
+
+    }
+
+}
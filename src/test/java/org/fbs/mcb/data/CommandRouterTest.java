@@ -0,0 +1,118 @@
+package org.fbs.mcb.data;
+
+import com.pengrad.telegrambot.model.MessageEntity;
+import org.fbs.mcb.annotation.Command;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Routes command messages through a {@link CommandRouter} and verifies which handlers are invoked, and in which order.
+ */
+public class CommandRouterTest {
+
+    @Test
+    public void invokesExactMatchesBeforePrefixMatches() throws Exception {
+        CommandRouter router = router("helpPrefix", "hePrefix", "help");
+        Handlers handlers = new Handlers();
+
+        router.route("/help", null, handlers, null, null, null, null);
+
+        assertEquals(List.of("/help", "/he*", "/help*"), handlers.calls);
+    }
+
+    @Test
+    public void invokesPrefixMatchesShortestFirst() throws Exception {
+        CommandRouter router = router("setPrefix", "sPrefix", "sePrefix");
+        Handlers handlers = new Handlers();
+
+        router.route("/settings now", null, handlers, null, null, null, null);
+
+        assertEquals(List.of("/s*", "/se*", "/set*"), handlers.calls);
+    }
+
+    @Test
+    public void stripsBotName() throws Exception {
+        CommandRouter router = router("help", "sayPrefix");
+        Handlers handlers = new Handlers();
+
+        router.route("/help@mybot", null, handlers, null, null, null, null);
+        MessageEntity[] entities = {new MessageEntity(MessageEntity.Type.bot_command, 0, 11)};
+        router.route("/help@mybot", entities, handlers, null, null, null, null);
+        router.route("/say@mybot hello", null, handlers, null, null, null, null);
+
+        assertEquals(List.of("/help", "/help", "/say*"), handlers.calls);
+    }
+
+    @Test
+    public void ignoresCommandsAfterLeadingWhitespace() throws Exception {
+        CommandRouter router = router("help", "sayPrefix");
+        Handlers handlers = new Handlers();
+
+        router.route(" /help", null, handlers, null, null, null, null);
+        MessageEntity[] entities = {new MessageEntity(MessageEntity.Type.bot_command, 1, 5)};
+        router.route(" /help", entities, handlers, null, null, null, null);
+        router.route("\t/say hello", null, handlers, null, null, null, null);
+
+        assertEquals(List.of(), handlers.calls);
+    }
+
+    /**
+     * Creates a router with the named methods of {@link Handlers}, added in the given order.
+     */
+    private static CommandRouter router(String... methodNames) throws NoSuchMethodException {
+        CommandRouter router = new CommandRouter();
+        for (String name : methodNames) {
+            Method method = Handlers.class.getDeclaredMethod(name);
+            router.add(new BotMethod(method, null, MethodType.COMMAND, method.getAnnotation(Command.class).value(),
+                    new ClassReorder(new Class<?>[0], new Class<?>[0])));
+        }
+        return router;
+    }
+
+    static class Handlers {
+
+        final List<String> calls = new ArrayList<>();
+
+        @Command("/help")
+        void help() {
+            calls.add("/help");
+        }
+
+        @Command(value = "/he", additionalString = true)
+        void hePrefix() {
+            calls.add("/he*");
+        }
+
+        @Command(value = "/help", additionalString = true)
+        void helpPrefix() {
+            calls.add("/help*");
+        }
+
+        @Command(value = "/s", additionalString = true)
+        void sPrefix() {
+            calls.add("/s*");
+        }
+
+        @Command(value = "/se", additionalString = true)
+        void sePrefix() {
+            calls.add("/se*");
+        }
+
+        @Command(value = "/set", additionalString = true)
+        void setPrefix() {
+            calls.add("/set*");
+        }
+
+        @Command(value = "/say", additionalString = true)
+        void sayPrefix() {
+            calls.add("/say*");
+        }
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.fbs.mcb.data;
+
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.Update;
+import org.fbs.mcb.annotation.BotConfiguration;
+import org.fbs.mcb.annotation.Feedback;
+import org.fbs.mcb.data.entity.AbstractBot;
+import org.fbs.mcb.util.ConfigurationProcessor;
+import org.fbs.mcb.util.MethodMapper;
+import org.fbs.mcb.util.UpdateManager;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that dispatching an update to its handlers allocates no memory once the dispatch path is warmed up.
+ */
+public class DispatchAllocationTest {
+
+    private static final int WARMUP_CALLS = 200_000;
+    private static final int CALLS = 100_000;
+
+    @Test
+    public void steadyStateDispatchDoesNotAllocate() throws Exception {
+        ConfigurationProcessor processor = new ConfigurationProcessor(Handlers.class, new UpdateManager(), new MethodMapper());
+        BotMethodSet methodSet = processor.getMethodSet();
+        AbstractBot<Object> bot = new AbstractBot<>() {
+            @Override
+            protected void setConfiguration(Object... args) {}
+
+            @Override
+            protected void initBot(Object... args) {}
+        };
+        Update update = new Update();
+        Message message = new Message();
+
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            methodSet.callUpdate(update, bot);
+            methodSet.callMessage(update, message, bot);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Handlers.calls = 0;
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < CALLS; i++) {
+            methodSet.callUpdate(update, bot);
+            methodSet.callMessage(update, message, bot);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(CALLS * 3L, Handlers.calls);
+        assertTrue("Dispatch allocated " + allocated + " bytes for " + CALLS + " updates", allocated < CALLS);
+    }
+
+    @BotConfiguration(botToken = "0:test")
+    static class Handlers {
+
+        static long calls;
+
+        @Feedback("update")
+        private static void update(Update update) {
+            calls++;
+        }
+
+        @Feedback("message")
+        private void message(Message message, Update update) {
+            calls++;
+        }
+
+        @Feedback("message")
+        private void messageWithBot(AbstractBot<?> bot, Message message) {
+            calls++;
+        }
+
+    }
+
+}
@@ -0,0 +1,151 @@
+package org.fbs.mcb.data.user;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes sessions of a {@link SessionStore} to a {@link SessionSnapshot}, reopens the snapshot with a new store as a
+ * restarted bot does and verifies which sessions are restored, and that compacting a store keeps its records intact.
+ */
+public class SessionSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void truncatesTornTailSegment() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sessions");
+        SessionStore store = new SessionStore(4, 4096);
+        try (SessionSnapshot snapshot = SessionSnapshot.open(file, store)) {
+            store.putLong(1, 0, 10);
+            store.putLong(2, 0, 20);
+            snapshot.write();
+            long fullLength = Files.size(file);
+
+            store.putLong(1, 0, 11);
+            store.putLong(3, 0, 30);
+            snapshot.write();
+            assertEquals(2, snapshot.getSegmentCount());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(Files.size(file) - 8);
+            }
+
+            SessionStore restarted = new SessionStore(4, 4096);
+            try (SessionSnapshot reopened = SessionSnapshot.open(file, restarted)) {
+                assertEquals(1, reopened.getSegmentCount());
+                assertEquals(fullLength, Files.size(file));
+                assertTrue(reopened.restore(1));
+                assertTrue(reopened.restore(2));
+                assertFalse(reopened.restore(3));
+                assertEquals(10, restarted.getLong(1, 0));
+                assertEquals(20, restarted.getLong(2, 0));
+                assertEquals(0, reopened.getCorruptedCount());
+            }
+        }
+    }
+
+    @Test
+    public void tombstoneHidesOlderRecord() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sessions");
+        SessionStore store = new SessionStore(4, 4096);
+        try (SessionSnapshot snapshot = SessionSnapshot.open(file, store)) {
+            store.putLong(1, 0, 10);
+            store.putLong(2, 0, 20);
+            snapshot.write();
+            store.remove(1);
+            snapshot.write();
+            assertEquals(2, snapshot.getSegmentCount());
+        }
+
+        SessionStore restarted = new SessionStore(4, 4096);
+        try (SessionSnapshot snapshot = SessionSnapshot.open(file, restarted)) {
+            List<Long> userIds = new ArrayList<>();
+            snapshot.forEachUserId(userIds::add);
+            assertEquals(List.of(2L), userIds);
+            assertFalse(snapshot.restore(1));
+            assertFalse(restarted.contains(1));
+            assertTrue(snapshot.restore(2));
+            assertEquals(20, restarted.getLong(2, 0));
+        }
+    }
+
+    @Test
+    public void writeFullKeepsSessionsNotRestoredYet() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sessions");
+        SessionStore store = new SessionStore(4, 4096);
+        try (SessionSnapshot snapshot = SessionSnapshot.open(file, store)) {
+            for (long userId = 1; userId <= 3; userId++) {
+                store.putString(userId, 8, "user " + userId);
+            }
+            snapshot.write();
+        }
+
+        SessionStore restarted = new SessionStore(4, 4096);
+        try (SessionSnapshot snapshot = SessionSnapshot.open(file, restarted)) {
+            assertTrue(snapshot.restore(1));
+            restarted.putString(1, 8, "changed");
+            restarted.putString(5, 8, "user 5");
+            snapshot.writeFull();
+            assertEquals(1, snapshot.getSegmentCount());
+        }
+
+        SessionStore reopened = new SessionStore(4, 4096);
+        try (SessionSnapshot snapshot = SessionSnapshot.open(file, reopened)) {
+            for (long userId : new long[]{1, 2, 3, 5}) {
+                assertTrue("Session of user " + userId + " was lost", snapshot.restore(userId));
+            }
+            assertFalse(snapshot.restore(4));
+            assertEquals("changed", reopened.getString(1, 8));
+            assertEquals("user 2", reopened.getString(2, 8));
+            assertEquals("user 3", reopened.getString(3, 8));
+            assertEquals("user 5", reopened.getString(5, 8));
+        }
+    }
+
+    @Test
+    public void compactionPreservesRecordContents() {
+        SessionStore store = new SessionStore(1, 4096);
+        for (long userId = 0; userId < 200; userId++) {
+            store.putLong(userId, 0, userId * 7);
+            store.putString(userId, 8, "user " + userId);
+        }
+        for (long userId = 0; userId < 200; userId++) {
+            if (userId % 3 == 0) {
+                store.remove(userId);
+            }
+            else if (userId % 2 == 0) {
+                store.putString(userId, 8, "renamed user " + userId + " with a longer name");
+            }
+        }
+        assertTrue(store.getGarbageBytes() > 0);
+
+        store.compact();
+
+        assertEquals(0, store.getGarbageBytes());
+        assertEquals(200 - 67, store.size());
+        for (long userId = 0; userId < 200; userId++) {
+            if (userId % 3 == 0) {
+                assertFalse(store.contains(userId));
+                assertNull(store.getString(userId, 8));
+                continue;
+            }
+            assertEquals(userId * 7, store.getLong(userId, 0));
+            String name = userId % 2 == 0 ? "renamed user " + userId + " with a longer name" : "user " + userId;
+            assertEquals(name, store.getString(userId, 8));
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.fbs.mcb.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that a {@link DuplicateFilter} accepts every update_id of its window exactly once, also when the same
+ * updates are ingested by several threads at the same time.
+ */
+public class DuplicateFilterTest {
+
+    @Test
+    public void suppressesRepeatedUpdateIds() {
+        DuplicateFilter filter = new DuplicateFilter(1024);
+        for (int id = 0; id < 4000; id++) {
+            assertTrue(filter.tryAccept(id));
+            assertFalse(filter.tryAccept(id));
+        }
+        for (int id = 3000; id < 4000; id++) {
+            assertFalse(filter.tryAccept(id));
+        }
+        for (int id = 0; id < 2000; id++) {
+            assertFalse(filter.tryAccept(id));
+        }
+        assertEquals(4000, filter.getAcceptedCount());
+        assertEquals(5000, filter.getDuplicateCount());
+        assertEquals(2000, filter.getExpiredCount());
+    }
+
+    @Test
+    public void acceptsOutOfOrderUpdatesWithinTheWindow() {
+        DuplicateFilter filter = new DuplicateFilter(100);
+        assertTrue(filter.tryAccept(1099));
+        for (int id = 1000; id < 1099; id++) {
+            assertTrue(filter.tryAccept(id));
+        }
+        assertFalse(filter.tryAccept(999));
+        assertFalse(filter.tryAccept(1000));
+        assertEquals(1, filter.getExpiredCount());
+    }
+
+    @Test
+    public void resetsWhenUpdateIdsRestartFarBelow() {
+        DuplicateFilter filter = new DuplicateFilter(1024);
+        int high = 900_000_000;
+        for (int id = high; id < high + 100; id++) {
+            assertTrue(filter.tryAccept(id));
+        }
+        assertFalse(filter.tryAccept(high - 2000));
+        assertEquals(0, filter.getResetCount());
+
+        int restart = 12_345;
+        for (int id = restart; id < restart + 100; id++) {
+            assertTrue(filter.tryAccept(id));
+            assertFalse(filter.tryAccept(id));
+        }
+        assertEquals(1, filter.getResetCount());
+        assertEquals(1, filter.getExpiredCount());
+    }
+
+    @Test
+    public void acceptsForgottenUpdateAgain() {
+        DuplicateFilter filter = new DuplicateFilter(64);
+        assertTrue(filter.tryAccept(7));
+        filter.forget(7);
+        assertTrue(filter.tryAccept(7));
+        assertFalse(filter.tryAccept(7));
+    }
+
+    @Test
+    public void acceptsEveryUpdateOnceUnderParallelIngestion() throws Exception {
+        int updates = 200_000;
+        int threads = 4;
+        DuplicateFilter filter = new DuplicateFilter(updates);
+        LongAdder accepted = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> ingesters = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < updates; i++) {
+                    if (filter.tryAccept((i + offset * 7919) % updates)) {
+                        accepted.increment();
+                    }
+                }
+            });
+            thread.start();
+            ingesters.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : ingesters) {
+            thread.join();
+        }
+        assertEquals(updates, accepted.sum());
+        assertEquals((long) updates * (threads - 1), filter.getDuplicateCount());
+    }
+
+}
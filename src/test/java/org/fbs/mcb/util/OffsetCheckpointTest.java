@@ -0,0 +1,73 @@
+package org.fbs.mcb.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Commits update_ids to an {@link OffsetCheckpoint} and verifies that the synced offset is read back when the
+ * checkpoint is opened again.
+ */
+public class OffsetCheckpointTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumesFromSyncedOffset() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("offset");
+        try (OffsetCheckpoint checkpoint = OffsetCheckpoint.open(file, 60_000)) {
+            assertEquals(OffsetCheckpoint.NONE, checkpoint.getOffset());
+            checkpoint.commit(10);
+            checkpoint.commit(12);
+            checkpoint.commit(11);
+            assertEquals(12, checkpoint.getOffset());
+            assertEquals(OffsetCheckpoint.NONE, checkpoint.getSyncedOffset());
+
+            checkpoint.sync();
+            checkpoint.sync();
+            assertEquals(12, checkpoint.getSyncedOffset());
+            assertEquals(1, checkpoint.getSyncCount());
+        }
+        try (OffsetCheckpoint checkpoint = OffsetCheckpoint.open(file, 60_000)) {
+            assertEquals(12, checkpoint.getOffset());
+        }
+    }
+
+    @Test
+    public void syncsEveryCommitWithoutInterval() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("offset");
+        try (OffsetCheckpoint checkpoint = OffsetCheckpoint.open(file, 0)) {
+            for (int updateId = 1; updateId <= 5; updateId++) {
+                checkpoint.commit(updateId);
+                assertEquals(updateId, checkpoint.getSyncedOffset());
+            }
+            checkpoint.commit(3);
+            assertEquals(5, checkpoint.getSyncCount());
+        }
+    }
+
+    @Test
+    public void rejectsCorruptFile() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("offset");
+        try (OffsetCheckpoint checkpoint = OffsetCheckpoint.open(file, 60_000)) {
+            checkpoint.commit(42);
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[4] ^= 1;
+        Files.write(file, bytes);
+        try {
+            OffsetCheckpoint.open(file, 60_000).close();
+            fail("Corrupt checkpoint was accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.model.Update;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Appends updates to an {@link UpdateLog} with small segments and verifies that they are read back, found by
+ * update_id and time, and kept when the log is opened again.
+ */
+public class UpdateLogTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsRecordsAcrossSegments() throws Exception {
+        try (UpdateLog log = UpdateLog.open(folder.getRoot().toPath(), SEGMENT_SIZE)) {
+            append(log, 0, 100);
+
+            assertEquals(100, log.getRecordCount());
+            assertTrue(log.getSegmentCount() > 1);
+            List<String> records = read(log, 57);
+            assertEquals(43, records.size());
+            assertEquals(json(57), records.get(0));
+            assertEquals(json(99), records.get(42));
+        }
+    }
+
+    @Test
+    public void seeksByUpdateIdAndTime() throws Exception {
+        try (UpdateLog log = UpdateLog.open(folder.getRoot().toPath(), SEGMENT_SIZE)) {
+            append(log, 0, 100);
+
+            assertEquals(40, log.seekUpdateId(1040));
+            assertEquals(0, log.seekUpdateId(0));
+            assertEquals(100, log.seekUpdateId(5000));
+            assertEquals(40, log.seekTime(1_700_000_040_000L));
+            assertEquals(41, log.seekTime(1_700_000_040_001L));
+        }
+    }
+
+    @Test
+    public void resumesAppendingWhenOpenedAgain() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (UpdateLog log = UpdateLog.open(directory, SEGMENT_SIZE)) {
+            append(log, 0, 70);
+        }
+        try (UpdateLog log = UpdateLog.open(directory, SEGMENT_SIZE)) {
+            assertEquals(70, log.getRecordCount());
+            append(log, 70, 30);
+
+            List<String> records = read(log, 0);
+            assertEquals(100, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(json(i), records.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void replaysUpdates() throws Exception {
+        try (UpdateLog log = UpdateLog.open(folder.getRoot().toPath(), SEGMENT_SIZE)) {
+            append(log, 0, 10);
+            List<Update> updates = new ArrayList<>();
+
+            UpdateReplayer replayer = new UpdateReplayer(log, 0);
+            assertEquals(10, replayer.replay(log.seekUpdateId(1005), updates::add));
+
+            assertEquals(5, updates.size());
+            assertEquals(1005, (int) updates.get(0).updateId());
+            assertEquals("text 5", updates.get(0).message().text());
+        }
+    }
+
+    private static void append(UpdateLog log, int from, int count) throws Exception {
+        for (int i = from; i < from + count; i++) {
+            log.append(1000 + i, 1_700_000_000_000L + i * 1000L, json(i).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static List<String> read(UpdateLog log, long firstRecord) {
+        List<String> records = new ArrayList<>();
+        log.read(firstRecord, (record, updateId, time, json) -> {
+            records.add(StandardCharsets.UTF_8.decode(json).toString());
+            return true;
+        });
+        return records;
+    }
+
+    private static String json(int i) {
+        return "{\"update_id\":" + (1000 + i) + ",\"message\":{\"message_id\":" + i + ",\"date\":1700000000,"
+                + "\"chat\":{\"id\":1001,\"type\":\"private\"},\"text\":\"text " + i + "\"}}";
+    }
+
+}
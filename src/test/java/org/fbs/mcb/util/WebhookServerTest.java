@@ -0,0 +1,93 @@
+package org.fbs.mcb.util;
+
+import com.pengrad.telegrambot.model.Update;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Posts recorded updates to a {@link WebhookServer} over loopback and verifies that only requests carrying
+ * the secret token are acknowledged and dispatched.
+ */
+public class WebhookServerTest {
+
+    private static final String SECRET = "s3cr3t-token";
+    private static final String UPDATE = "{\"update_id\":42,\"message\":{\"message_id\":7,\"date\":1700000000,"
+            + "\"chat\":{\"id\":1001,\"type\":\"private\"},\"from\":{\"id\":1001,\"is_bot\":false,\"first_name\":\"Ann\"},"
+            + "\"text\":\"hello\"}}";
+
+    private final BlockingQueue<Update> updates = new LinkedBlockingQueue<>();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private WebhookServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new WebhookServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), "/hook", SECRET,
+                4, false, updates::add);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void acknowledgesAndDispatchesUpdateWithSecretToken() throws Exception {
+        assertEquals(200, post(UPDATE, SECRET));
+
+        Update update = updates.poll(5, TimeUnit.SECONDS);
+        assertNotNull(update);
+        assertEquals(42, (int) update.updateId());
+        assertEquals("hello", update.message().text());
+        assertEquals(1, server.getReceivedCount());
+    }
+
+    @Test
+    public void rejectsRequestsWithoutTheSecretToken() throws Exception {
+        assertEquals(401, post(UPDATE, null));
+        assertEquals(401, post(UPDATE, "wrong"));
+
+        assertNull(updates.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, server.getUnauthorizedCount());
+    }
+
+    @Test
+    public void rejectsMalformedUpdatesAndOtherMethods() throws Exception {
+        assertEquals(400, post("not json", SECRET));
+        HttpRequest get = HttpRequest.newBuilder(uri()).header(WebhookServer.SECRET_TOKEN_HEADER, SECRET).GET().build();
+        assertEquals(405, client.send(get, HttpResponse.BodyHandlers.discarding()).statusCode());
+
+        assertNull(updates.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, server.getMalformedCount());
+    }
+
+    private int post(String body, String secretToken) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (secretToken != null) {
+            request.header(WebhookServer.SECRET_TOKEN_HEADER, secretToken);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getPort() + "/hook");
+    }
+
+}